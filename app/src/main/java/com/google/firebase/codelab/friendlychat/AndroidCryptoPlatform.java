@@ -0,0 +1,63 @@
+package com.google.firebase.codelab.friendlychat;
+
+import android.util.Base64;
+import android.util.Log;
+
+import com.google.firebase.codelab.friendlychat.encrypt.Base64Codec;
+import com.google.firebase.codelab.friendlychat.encrypt.BufferPool;
+import com.google.firebase.codelab.friendlychat.encrypt.CryptoLogger;
+import com.google.firebase.codelab.friendlychat.encrypt.CryptoPlatform;
+
+/**
+ * 暗号ライブラリのログとBase64をAndroidの実装に差し替える
+ */
+public final class AndroidCryptoPlatform {
+
+    private AndroidCryptoPlatform() {
+    }
+
+    /**
+     * logcatへのログ出力
+     * <p>
+     * Log.println()はmsgがnullだとNullPointerExceptionを投げるため、
+     * 例外のgetMessage()がnullの場合などは代わりの文字列を出力する。
+     * </p>
+     */
+    private static final class LogcatLogger implements CryptoLogger {
+        private static final String NO_MESSAGE = "(no message)";
+
+        @Override
+        public void log(int priority, String tag, String msg, Throwable tr) {
+            if (tr != null) {
+                String trace = Log.getStackTraceString(tr);
+                msg = (msg != null) ? msg + '\n' + trace : trace;
+            }
+            Log.println(priority, tag, (msg != null) ? msg : NO_MESSAGE);
+        }
+    }
+
+    /**
+     * android.util.Base64による実装
+     */
+    private static final class AndroidBase64Codec implements Base64Codec {
+        @Override
+        public String encode(byte[] data) {
+            return Base64.encodeToString(data, Base64.NO_WRAP | Base64.NO_PADDING);
+        }
+
+        @Override
+        public byte[] decode(String str) {
+            return Base64.decode(str, Base64.DEFAULT);
+        }
+    }
+
+    /**
+     * 暗号処理を始める前に呼ぶこと(複数回呼んでもよい)
+     * デバッグビルドではBufferPoolのリーク検出を有効にする。
+     */
+    public static void install() {
+        CryptoPlatform.setLogger(new LogcatLogger());
+        CryptoPlatform.setBase64Codec(new AndroidBase64Codec());
+        BufferPool.setLeakDetection(BuildConfig.DEBUG);
+    }
+}
@@ -19,5 +19,7 @@ public class CodelabPreferences {
 
     public static final String INSTANCE_ID_TOKEN_RETRIEVED = "iid_token_retrieved";
     public static final String FRIENDLY_MSG_LENGTH = "friendly_msg_length";
+    public static final String MESSAGE_KEY = "message_key";
+    public static final String ENCRYPT_MESSAGES = "encrypt_messages";
 
 }
@@ -15,12 +15,19 @@
  */
 package com.google.firebase.codelab.friendlychat;
 
+import com.google.firebase.database.Exclude;
+
+import java.util.HashMap;
+import java.util.Map;
+
 public class FriendlyMessage {
 
     private String id;
     private String text;
     private String name;
     private String photoUrl;
+    private String cipher;
+    private boolean pending;
 
     public FriendlyMessage() {
     }
@@ -62,4 +69,41 @@ public class FriendlyMessage {
     public void setPhotoUrl(String photoUrl) {
         this.photoUrl = photoUrl;
     }
+
+    /**
+     * @return textの暗号方式(暗号化されていない場合はnull)
+     */
+    public String getCipher() {
+        return cipher;
+    }
+
+    public void setCipher(String cipher) {
+        this.cipher = cipher;
+    }
+
+    /**
+     * @return 本文が復号待ちの仮の文字列の場合はtrue(保存しない)
+     */
+    @Exclude
+    public boolean isPending() {
+        return pending;
+    }
+
+    @Exclude
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    /**
+     * @return updateChildren()に渡す値(idはキーになるため含めない)
+     */
+    @Exclude
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("text", text);
+        map.put("name", name);
+        map.put("photoUrl", photoUrl);
+        map.put("cipher", cipher);
+        return map;
+    }
 }
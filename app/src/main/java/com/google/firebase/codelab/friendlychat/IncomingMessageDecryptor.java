@@ -0,0 +1,223 @@
+package com.google.firebase.codelab.friendlychat;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.firebase.codelab.friendlychat.encrypt.CryptoExecutors;
+import com.google.firebase.codelab.friendlychat.encrypt.Hash;
+import com.google.firebase.codelab.friendlychat.encrypt.Hex;
+import com.google.firebase.codelab.friendlychat.encrypt.LruCache;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 受信したFriendlyMessageの本文を復号してキャッシュする
+ * <p>
+ * 復号は{@link CryptoExecutors#async()}で行い、結果をLRUキャッシュに保持する。
+ * {@link MessageCrypto}(鍵の読み込みや生成を伴う)は最初の復号の際にそのスレッドで取得するため、
+ * 暗号化されたメッセージを受信しない限りUIスレッドでもバックグラウンドでも鍵を扱わない。
+ * キャッシュのキーはメッセージのキーと暗号文のハッシュ値のため、本文が書き換えられた場合は復号し直す。
+ * 表示の際はキャッシュから本文を設定するだけで、未復号の場合は仮の文字列を設定して復号を始める。
+ * 復号が済んだメッセージのキーはまとめてUIスレッドで{@link Listener}に通知する。
+ * </p>
+ * <p>
+ * {@link #bind(FriendlyMessage)}・{@link #prefetch(FriendlyMessage)}・{@link #close()}はUIスレッドから呼ぶこと。
+ * </p>
+ */
+public final class IncomingMessageDecryptor {
+    private static final String TAG = "IncomingMsgDecryptor";
+
+    /**
+     * キャッシュが使うメモリの上限(バイト)の既定値
+     */
+    public static final int DEFAULT_CACHE_BYTES =
+            (int) Math.min(Runtime.getRuntime().maxMemory() / 64, 4 * 1024 * 1024);
+
+    /**
+     * キャッシュの1エントリあたりの文字列以外のおおよそのバイト数
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * キャッシュのキーに使う暗号文のハッシュ値のバイト数
+     */
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    /**
+     * 復号が済んだことの通知先
+     */
+    public interface Listener {
+        /**
+         * UIスレッドで呼ばれる
+         * @param messageIds 復号が済んだメッセージのキー
+         */
+        void onDecrypted(Set<String> messageIds);
+    }
+
+    private final Context mContext;
+    private final Hash mHash;
+    private final String mDecryptingText;
+    private final String mUndecryptableText;
+    private final Executor mMainExecutor;
+    private final Listener mListener;
+    private final LruCache<String, String> mCache;
+    private final Set<String> mInFlight =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> mDecrypted = new HashSet<>();
+    private boolean mNotifyPosted = false;
+    private volatile boolean mClosed = false;
+
+    private final Runnable mNotify = new Runnable() {
+        @Override
+        public void run() {
+            Set<String> ids;
+            synchronized (mDecrypted) {
+                mNotifyPosted = false;
+                ids = new HashSet<>(mDecrypted);
+                mDecrypted.clear();
+            }
+            if (!mClosed) {
+                mListener.onDecrypted(ids);
+            }
+        }
+    };
+
+    /**
+     * @param context
+     * @param decryptingText 復号が済むまで表示する本文
+     * @param undecryptableText 復号できなかった場合に表示する本文
+     * @param mainExecutor UIスレッドで実行するExecutor
+     * @param listener 復号が済んだことの通知先
+     * @param cacheBytes キャッシュが使うメモリの上限(バイト)
+     * @throws NoSuchAlgorithmException
+     */
+    public IncomingMessageDecryptor(Context context, String decryptingText,
+                                    String undecryptableText, Executor mainExecutor,
+                                    Listener listener, int cacheBytes)
+            throws NoSuchAlgorithmException {
+        mContext = context.getApplicationContext();
+        mHash = new Hash(Hash.Algorithm.SHA256);
+        mDecryptingText = decryptingText;
+        mUndecryptableText = undecryptableText;
+        mMainExecutor = mainExecutor;
+        mListener = listener;
+        mCache = new LruCache<String, String>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, String value) {
+                return (key.length() + value.length()) * 2 + ENTRY_OVERHEAD;
+            }
+        };
+    }
+
+    /**
+     * 表示するメッセージの本文をキャッシュから設定する
+     * <p>
+     * 未復号の場合は仮の文字列を設定してpendingにし、復号を始める。
+     * 暗号化されていないメッセージはそのままにする。
+     * </p>
+     * @param message 受信したメッセージ(idが設定済みであること)
+     */
+    public void bind(FriendlyMessage message) {
+        if (message.getCipher() == null) {
+            return;
+        }
+        String key = cacheKey(mHash, message);
+        String text = mCache.get(key);
+        if (text != null) {
+            message.setText(text);
+            return;
+        }
+        request(key, message);
+        message.setText(mDecryptingText);
+        message.setPending(true);
+    }
+
+    /**
+     * 受信したメッセージを表示する前に復号しておく
+     * @param message 受信したメッセージ(idが設定済みであること)
+     */
+    public void prefetch(FriendlyMessage message) {
+        if (message.getCipher() == null) {
+            return;
+        }
+        String key = cacheKey(mHash, message);
+        if (mCache.get(key) == null) {
+            request(key, message);
+        }
+    }
+
+    /**
+     * 以降の通知をやめ、キャッシュを破棄する(実行中の復号は完了するが通知しない)
+     */
+    public void close() {
+        mClosed = true;
+        mCache.clear();
+    }
+
+    private void request(final String key, FriendlyMessage message) {
+        if (mClosed || !mInFlight.add(key)) {
+            return;
+        }
+        final String id = message.getId();
+        final String cipher = message.getCipher();
+        final String sealed = message.getText();
+        try {
+            CryptoExecutors.async().execute(new Runnable() {
+                @Override
+                public void run() {
+                    String text;
+                    try {
+                        text = MessageCrypto.getInstance(mContext).decrypt(cipher, sealed, id);
+                    } catch (GeneralSecurityException e) {
+                        Log.w(TAG, "Cannot decrypt message " + id + ": " + e.getMessage());
+                        // 失敗も覚えておき、表示のたびに復号し直さない
+                        text = mUndecryptableText;
+                    }
+                    if (!mClosed) {
+                        mCache.put(key, text);
+                    }
+                    mInFlight.remove(key);
+                    notifyDecrypted(id);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 次に表示する際にやり直す
+            mInFlight.remove(key);
+        }
+    }
+
+    private void notifyDecrypted(String id) {
+        synchronized (mDecrypted) {
+            mDecrypted.add(id);
+            if (mNotifyPosted) {
+                return;
+            }
+            mNotifyPosted = true;
+        }
+        mMainExecutor.execute(mNotify);
+    }
+
+    /**
+     * @param hash 暗号文のハッシュ値の計算に使うHash
+     * @param message 受信したメッセージ
+     * @return メッセージのキーと暗号方式・暗号文のハッシュ値から作るキャッシュのキー
+     */
+    static String cacheKey(Hash hash, FriendlyMessage message) {
+        byte[] fingerprint;
+        try {
+            fingerprint = hash.valueOf(message.getCipher() + '\n' + message.getText());
+        } catch (UnsupportedEncodingException e) {
+            // should not occur.
+            throw new IllegalStateException(e);
+        }
+        return message.getId() + ':' + Hex.toString(fingerprint, 0, FINGERPRINT_LENGTH);
+    }
+}
@@ -56,16 +56,26 @@ import com.google.firebase.appindexing.builders.Indexables;
 import com.google.firebase.appindexing.builders.PersonBuilder;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.codelab.friendlychat.encrypt.CryptoCalibration;
+import com.google.firebase.codelab.friendlychat.encrypt.CryptoCallback;
+import com.google.firebase.codelab.friendlychat.encrypt.CryptoExecutors;
 import com.google.firebase.codelab.friendlychat.encrypt.SymmetricCipher;
 import com.google.firebase.crash.FirebaseCrash;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.remoteconfig.FirebaseRemoteConfig;
 import com.google.firebase.remoteconfig.FirebaseRemoteConfigSettings;
 
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.crypto.SecretKey;
 
@@ -112,6 +122,10 @@ public class MainActivity extends AppCompatActivity implements
     private AdView mAdView;
     private FirebaseRemoteConfig mFirebaseRemoteConfig;
     private GoogleApiClient mGoogleApiClient;
+    private Future<byte[]> mPendingCrypto;
+    private OutgoingMessagePipeline mOutgoingMessages;
+    private IncomingMessageDecryptor mMessageDecryptor;
+    private ChildEventListener mMessagePrefetcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -125,6 +139,11 @@ public class MainActivity extends AppCompatActivity implements
         mFirebaseAuth = FirebaseAuth.getInstance();
         mFirebaseUser = mFirebaseAuth.getCurrentUser();
 
+        AndroidCryptoPlatform.install();
+
+        // 端末で速い暗号方式・ハッシュアルゴリズムをバックグラウンドで選んでおく
+        // (前回の計測結果が使える場合は読み込むだけ)
+        CryptoCalibration.calibrateAsync(getCacheDir());
         encrypt();
 
         if (mFirebaseUser == null) {
@@ -148,6 +167,31 @@ public class MainActivity extends AppCompatActivity implements
         mLinearLayoutManager.setStackFromEnd(true);
 
         mFirebaseDatabaseReference = FirebaseDatabase.getInstance().getReference();
+        mOutgoingMessages = OutgoingMessagePipeline.getInstance(this);
+        if (MessageCrypto.isSupported()) {
+            // 鍵の読み込み・生成は、暗号化されたメッセージを最初に復号する際にバックグラウンドで行う
+            try {
+                mMessageDecryptor = new IncomingMessageDecryptor(this,
+                        getString(R.string.message_decrypting),
+                        getString(R.string.message_undecryptable),
+                        MainThreadExecutor.getInstance(),
+                        new IncomingMessageDecryptor.Listener() {
+                            @Override
+                            public void onDecrypted(Set<String> messageIds) {
+                                // 復号が済んだメッセージを表示し直す(キャッシュから設定される)
+                                for (int i = mFirebaseAdapter.getItemCount() - 1; i >= 0; i--) {
+                                    if (messageIds.contains(mFirebaseAdapter.getRef(i).getKey())) {
+                                        mFirebaseAdapter.notifyItemChanged(i);
+                                    }
+                                }
+                            }
+                        },
+                        IncomingMessageDecryptor.DEFAULT_CACHE_BYTES);
+            } catch (NoSuchAlgorithmException e) {
+                // 暗号化されたメッセージは読めないが、平文のメッセージは送受信できる
+                Log.w(TAG, "Message decryption is unavailable: " + e.getMessage());
+            }
+        }
         mFirebaseAdapter = new FirebaseRecyclerAdapter<FriendlyMessage, MessageViewHolder>(
                 FriendlyMessage.class,
                 R.layout.item_message,
@@ -159,6 +203,12 @@ public class MainActivity extends AppCompatActivity implements
                 FriendlyMessage friendlyMessage = super.parseSnapshot(snapshot);
                 if (friendlyMessage != null) {
                     friendlyMessage.setId(snapshot.getKey());
+                    // 復号はバックグラウンドで済ませ、ここではキャッシュから設定するだけにする
+                    if (mMessageDecryptor != null) {
+                        mMessageDecryptor.bind(friendlyMessage);
+                    } else if (friendlyMessage.getCipher() != null) {
+                        friendlyMessage.setText(getString(R.string.message_undecryptable));
+                    }
                 }
                 return friendlyMessage;
             }
@@ -177,6 +227,11 @@ public class MainActivity extends AppCompatActivity implements
                             .into(viewHolder.messengerImageView);
                 }
 
+                if (friendlyMessage.isPending()) {
+                    // 復号が済んで表示し直すまで索引には書かない
+                    return;
+                }
+
                 // write this message to the on-device index
                 FirebaseAppIndex.getInstance().update(getMessageIndexable(friendlyMessage));
 
@@ -185,6 +240,43 @@ public class MainActivity extends AppCompatActivity implements
             }
         };
 
+        if (mMessageDecryptor != null) {
+            // 表示する前から、受信したメッセージを順に復号しておく
+            mMessagePrefetcher = new ChildEventListener() {
+                @Override
+                public void onChildAdded(DataSnapshot snapshot, String previousChildName) {
+                    prefetch(snapshot);
+                }
+
+                @Override
+                public void onChildChanged(DataSnapshot snapshot, String previousChildName) {
+                    prefetch(snapshot);
+                }
+
+                @Override
+                public void onChildRemoved(DataSnapshot snapshot) {
+                }
+
+                @Override
+                public void onChildMoved(DataSnapshot snapshot, String previousChildName) {
+                }
+
+                @Override
+                public void onCancelled(DatabaseError error) {
+                    Log.w(TAG, "Message prefetch cancelled: " + error.getMessage());
+                }
+
+                private void prefetch(DataSnapshot snapshot) {
+                    FriendlyMessage friendlyMessage = snapshot.getValue(FriendlyMessage.class);
+                    if (friendlyMessage != null) {
+                        friendlyMessage.setId(snapshot.getKey());
+                        mMessageDecryptor.prefetch(friendlyMessage);
+                    }
+                }
+            };
+            mFirebaseDatabaseReference.child(MESSAGES_CHILD).addChildEventListener(mMessagePrefetcher);
+        }
+
         mFirebaseAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
             public void onItemRangeInserted(int positionStart, int itemCount) {
@@ -260,7 +352,8 @@ public class MainActivity extends AppCompatActivity implements
             public void onClick(View view) {
                 FriendlyMessage friendlyMessage = new FriendlyMessage(mMessageEditText.getText().toString(), mUsername,
                         mPhotoUrl);
-                mFirebaseDatabaseReference.child(MESSAGES_CHILD).push().setValue(friendlyMessage);
+                // 書き込み(有効な場合は暗号化も)はバックグラウンドで行い、続けて送ったものはまとめて書き込む
+                mOutgoingMessages.enqueue(friendlyMessage);
                 mMessageEditText.setText("");
                 mFirebaseAnalytics.logEvent(MESSAGE_SENT_EVENT, null);
             }
@@ -315,6 +408,18 @@ public class MainActivity extends AppCompatActivity implements
         if (mAdView != null) {
             mAdView.destroy();
         }
+        if (mPendingCrypto != null) {
+            // 破棄後にコールバックが呼ばれないよう取り消す
+            mPendingCrypto.cancel(true);
+            mPendingCrypto = null;
+        }
+        if (mMessagePrefetcher != null) {
+            mFirebaseDatabaseReference.child(MESSAGES_CHILD).removeEventListener(mMessagePrefetcher);
+            mMessagePrefetcher = null;
+        }
+        if (mMessageDecryptor != null) {
+            mMessageDecryptor.close();
+        }
         super.onDestroy();
     }
 
@@ -325,6 +430,14 @@ public class MainActivity extends AppCompatActivity implements
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem encryptItem = menu.findItem(R.id.encrypt_messages_menu);
+        encryptItem.setVisible(MessageCrypto.isSupported());
+        encryptItem.setChecked(MessageCrypto.isEnabled(this));
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -346,22 +459,79 @@ public class MainActivity extends AppCompatActivity implements
             case R.id.fresh_config_menu:
                 fetchConfig();
                 return true;
+            case R.id.encrypt_messages_menu:
+                // 以降に送るメッセージから切り替わる
+                MessageCrypto.setEnabled(this, !item.isChecked());
+                item.setChecked(!item.isChecked());
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
     private void encrypt(){
-        SecretKey sKey = null;
+        final SharedKeyMaterial keyMaterial;
         try{
-            sKey = new SymmetricCipher().generateKey();
-            byte[] aaa = new SymmetricCipher().encrypt(new byte[]{1, 1, 1}, sKey);
-            byte[] bbb = new SymmetricCipher().decrypt(aaa, sKey);
-            Log.v("abe", bbb.toString());
-        }catch(Exception e){
+            keyMaterial = SharedKeyMaterial.getInstance();
+        }catch(GeneralSecurityException e){
             Log.v("abe", e.getMessage());
+            return;
         }
+        // プールが空の場合は鍵を生成することになるため、UIスレッドでは取り出さない
+        try {
+            CryptoExecutors.async().execute(new Runnable() {
+                @Override
+                public void run() {
+                    final SecretKey sKey;
+                    try {
+                        sKey = keyMaterial.getPool().takeKey();
+                    } catch (NoSuchAlgorithmException e) {
+                        Log.v("abe", e.getMessage());
+                        return;
+                    }
+                    MainThreadExecutor.getInstance().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isFinishing()) {
+                                encrypt(keyMaterial.getCipher(), sKey);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.v("abe", "Too many pending crypto tasks.");
+        }
+    }
 
+    private void encrypt(final SymmetricCipher cipher, final SecretKey sKey){
+        // 暗号化・復号は暗号処理用のスレッドで行い、結果だけをUIスレッドで受け取る
+        mPendingCrypto = cipher.encryptAsync(new byte[]{1, 1, 1}, sKey,
+                MainThreadExecutor.getInstance(), new CryptoCallback<byte[]>() {
+                    @Override
+                    public void onSuccess(byte[] aaa) {
+                        mPendingCrypto = cipher.decryptAsync(aaa, sKey,
+                                MainThreadExecutor.getInstance(), new CryptoCallback<byte[]>() {
+                                    @Override
+                                    public void onSuccess(byte[] bbb) {
+                                        mPendingCrypto = null;
+                                        Log.v("abe", bbb.toString());
+                                    }
+
+                                    @Override
+                                    public void onFailure(Throwable tr) {
+                                        mPendingCrypto = null;
+                                        Log.v("abe", tr.getMessage());
+                                    }
+                                });
+                    }
+
+                    @Override
+                    public void onFailure(Throwable tr) {
+                        mPendingCrypto = null;
+                        Log.v("abe", tr.getMessage());
+                    }
+                });
     }
 
     private void causeCrash() {
@@ -0,0 +1,32 @@
+package com.google.firebase.codelab.friendlychat;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * UIスレッドで実行するExecutor
+ * <p>
+ * 暗号処理の非同期APIの結果をUIスレッドで受け取るために使う。
+ * 常にUIスレッドのメッセージキューに積んでから実行する。
+ * </p>
+ */
+public final class MainThreadExecutor implements Executor {
+    private static final MainThreadExecutor INSTANCE = new MainThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private MainThreadExecutor() {
+    }
+
+    public static MainThreadExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        // UIスレッドから呼ばれた場合も、呼び出し元に再入しないよう後で実行する
+        mHandler.post(command);
+    }
+}
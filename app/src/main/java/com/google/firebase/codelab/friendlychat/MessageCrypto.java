@@ -0,0 +1,173 @@
+package com.google.firebase.codelab.friendlychat;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Base64;
+
+import com.google.firebase.codelab.friendlychat.encrypt.CipherMode;
+import com.google.firebase.codelab.friendlychat.encrypt.Padding;
+import com.google.firebase.codelab.friendlychat.encrypt.SecurityUtils;
+import com.google.firebase.codelab.friendlychat.encrypt.SymmetricCipher;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * FriendlyMessageの本文の暗号化と復号
+ * <p>
+ * 本文はChaCha20-Poly1305で暗号化し、メッセージのキー(push()で得たID)を追加認証データにする。
+ * そのため暗号文を別のメッセージに付け替えると復号に失敗する。
+ * 暗号方式は端末ごとの標準設定に依らず固定し、メッセージのcipherに記録する。
+ * </p>
+ * <p>
+ * 鍵は初回に生成してSharedPreferencesに保存する。
+ * 同じ鍵を持つ端末の間でのみ読めるが、鍵の受け渡しは扱わない。
+ * 他の端末からは読めず、再インストールすると自分の過去のメッセージも読めなくなるため、
+ * 送信時の暗号化は{@link CodelabPreferences#ENCRYPT_MESSAGES}で有効にした場合のみ行う(既定は無効)。
+ * 有効・無効はメニューから切り替える({@link #setEnabled(Context, boolean)})。
+ * Cipher.updateAADなどAPI 19で追加されたAPIを使うため、それより前の端末では使えない。
+ * 任意のスレッドから使ってよい。
+ * </p>
+ */
+public final class MessageCrypto {
+    /**
+     * 暗号方式(アルゴリズム/利用モード/パディング/鍵サイズ)
+     */
+    public static final String CIPHER = "CHACHA20/POLY1305/None/256";
+
+    private static MessageCrypto sInstance;
+
+    private final SymmetricCipher mCipher;
+    private final SecretKey mKey;
+
+    private MessageCrypto(SymmetricCipher cipher, SecretKey key) {
+        mCipher = cipher;
+        mKey = key;
+    }
+
+    /**
+     * @param context
+     * @return 送信するメッセージを暗号化する場合はtrue(既定はfalse)
+     */
+    public static boolean isEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext())
+                .getBoolean(CodelabPreferences.ENCRYPT_MESSAGES, false);
+    }
+
+    /**
+     * 送信するメッセージを暗号化するかどうかを設定する
+     * <p>
+     * 同じ鍵を持たない端末からは暗号化したメッセージを読めないことに注意。
+     * </p>
+     * @param context
+     * @param enabled
+     */
+    public static void setEnabled(Context context, boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext())
+                .edit()
+                .putBoolean(CodelabPreferences.ENCRYPT_MESSAGES, enabled)
+                .apply();
+    }
+
+    /**
+     * @return 認証付き暗号に必要なAPI(API 19以降)が使える場合はtrue
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * @param context
+     * @return 共有のインスタンス(初回は鍵の読み込みまたは生成を行う)
+     * @throws GeneralSecurityException 暗号方式が使えない場合、API 19より前の端末の場合
+     */
+    public static synchronized MessageCrypto getInstance(Context context)
+            throws GeneralSecurityException {
+        if (!isSupported()) {
+            // NoSuchMethodErrorなどで落ちないよう、暗号処理に入る前に断る
+            throw new GeneralSecurityException(
+                    "Message encryption requires API " + Build.VERSION_CODES.KITKAT + ".");
+        }
+        if (sInstance == null) {
+            SymmetricCipher cipher = new SymmetricCipher(SymmetricCipher.Algorithm.CHACHA20,
+                    CipherMode.POLY1305, Padding.None, 256);
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(
+                    context.getApplicationContext());
+            String keyStr = prefs.getString(CodelabPreferences.MESSAGE_KEY, null);
+            SecretKey key;
+            if (keyStr != null) {
+                key = SecurityUtils.stringToSecretKey(keyStr);
+            } else {
+                key = cipher.generateKey();
+                prefs.edit()
+                        .putString(CodelabPreferences.MESSAGE_KEY, SecurityUtils.secretKeyToString(key))
+                        .apply();
+            }
+            sInstance = new MessageCrypto(cipher, key);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 本文を暗号化する
+     * @param text 本文
+     * @param messageId メッセージのキー
+     * @return 暗号化した本文(Base64)
+     * @throws GeneralSecurityException
+     */
+    public String encrypt(String text, String messageId) throws GeneralSecurityException {
+        byte[] plain = utf8(text);
+        try {
+            byte[] sealed = mCipher.encryptAuthenticated(plain, utf8(messageId), mKey);
+            return Base64.encodeToString(sealed, Base64.NO_WRAP);
+        } finally {
+            SecurityUtils.zeroOut(plain);
+        }
+    }
+
+    /**
+     * {@link #encrypt(String, String)}で暗号化した本文を復号する
+     * @param cipher メッセージに記録された暗号方式
+     * @param text 暗号化した本文(Base64)
+     * @param messageId メッセージのキー
+     * @return 本文
+     * @throws GeneralSecurityException 暗号方式が異なる場合、鍵が異なる場合、改竄された場合
+     */
+    public String decrypt(String cipher, String text, String messageId)
+            throws GeneralSecurityException {
+        if (!CIPHER.equals(cipher)) {
+            throw new GeneralSecurityException("Unsupported cipher: " + cipher);
+        }
+        if (text == null) {
+            throw new GeneralSecurityException("No ciphertext.");
+        }
+        byte[] sealed;
+        try {
+            sealed = Base64.decode(text, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException(e);
+        }
+        byte[] plain = mCipher.decryptAuthenticated(sealed, utf8(messageId), mKey);
+        try {
+            return new String(plain, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // should not occur.
+            throw new IllegalStateException(e);
+        } finally {
+            SecurityUtils.zeroOut(plain);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // should not occur.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.google.firebase.codelab.friendlychat;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 送信するFriendlyMessageを書き込むパイプライン
+ * <p>
+ * {@link MessageCrypto#isEnabled(Context)}がtrueの場合は本文を暗号化し、falseの場合は平文のまま書き込む。
+ * 本文の暗号化はバックグラウンドの1つのスレッドで行うため、送信ボタンを押したUIスレッドを待たせない。
+ * 続けて送られたメッセージは{@link #COALESCE_DELAY_MILLIS}だけ待ってまとめ、
+ * 1回のupdateChildren()で書き込む(最大{@link #MAX_BATCH_SIZE}件)。
+ * </p>
+ * <p>
+ * メッセージのキーは{@link #enqueue(FriendlyMessage)}の時点でpush()により決めるため、
+ * まとめ方によらず送った順に並ぶ。
+ * 暗号化が有効な場合、暗号化に失敗したメッセージは平文で送らずに破棄する。
+ * Activityより長く生きるよう、プロセスで1つのインスタンスを共有する。
+ * </p>
+ */
+public final class OutgoingMessagePipeline {
+    private static final String TAG = "OutgoingMsgPipeline";
+
+    /**
+     * 続けて送られたメッセージをまとめるために待つ時間
+     */
+    public static final long COALESCE_DELAY_MILLIS = 50;
+
+    /**
+     * 1回の書き込みにまとめるメッセージの最大数
+     */
+    public static final int MAX_BATCH_SIZE = 50;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static OutgoingMessagePipeline sInstance;
+
+    private final Context mContext;
+    private final DatabaseReference mMessagesRef;
+    private final LinkedBlockingQueue<FriendlyMessage> mQueue = new LinkedBlockingQueue<>();
+    private final AtomicInteger mQueuedCount = new AtomicInteger();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor mWorker;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private OutgoingMessagePipeline(Context context, DatabaseReference messagesRef) {
+        mContext = context;
+        mMessagesRef = messagesRef;
+        mWorker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "outgoing-messages");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mWorker.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        mWorker.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param context
+     * @return 共有のインスタンス
+     */
+    public static synchronized OutgoingMessagePipeline getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new OutgoingMessagePipeline(context.getApplicationContext(),
+                    FirebaseDatabase.getInstance().getReference().child(MainActivity.MESSAGES_CHILD));
+        }
+        return sInstance;
+    }
+
+    /**
+     * メッセージを送信待ちに加える
+     * <p>
+     * 本文の暗号化は後で行うため、UIスレッドから呼んでよい。
+     * 以降messageを変更しないこと。
+     * </p>
+     * @param message 送信するメッセージ(本文は平文)
+     * @return メッセージのキー
+     */
+    public String enqueue(FriendlyMessage message) {
+        String key = mMessagesRef.push().getKey();
+        message.setId(key);
+        mQueuedCount.incrementAndGet();
+        mQueue.add(message);
+        if (mScheduled.compareAndSet(false, true)) {
+            mWorker.schedule(mDrain, COALESCE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return key;
+    }
+
+    /**
+     * @return 送信待ちのメッセージ数(updateChildren()に渡したものは含まない)
+     */
+    public int getQueuedCount() {
+        return mQueuedCount.get();
+    }
+
+    private void drain() {
+        mScheduled.set(false);
+        List<FriendlyMessage> batch = new ArrayList<>(Math.min(mQueue.size(), MAX_BATCH_SIZE));
+        mQueue.drainTo(batch, MAX_BATCH_SIZE);
+        // 残りはすぐに次の書き込みにする
+        if (!mQueue.isEmpty() && mScheduled.compareAndSet(false, true)) {
+            mWorker.execute(mDrain);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> updates = new HashMap<>();
+        if (MessageCrypto.isEnabled(mContext)) {
+            encrypt(batch, updates);
+        } else {
+            for (FriendlyMessage message : batch) {
+                updates.put(message.getId(), message.toMap());
+            }
+        }
+        mQueuedCount.addAndGet(-batch.size());
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        final int count = updates.size();
+        mMessagesRef.updateChildren(updates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError error, DatabaseReference ref) {
+                if (error != null) {
+                    Log.w(TAG, "Failed to send " + count + " messages: " + error.getMessage());
+                }
+            }
+        });
+    }
+
+    private void encrypt(List<FriendlyMessage> batch, Map<String, Object> updates) {
+        MessageCrypto crypto;
+        try {
+            crypto = MessageCrypto.getInstance(mContext);
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "Dropped " + batch.size() + " messages: " + e.getMessage());
+            return;
+        }
+        for (FriendlyMessage message : batch) {
+            try {
+                FriendlyMessage sealed = new FriendlyMessage(
+                        crypto.encrypt(message.getText(), message.getId()),
+                        message.getName(), message.getPhotoUrl());
+                sealed.setCipher(MessageCrypto.CIPHER);
+                updates.put(message.getId(), sealed.toMap());
+            } catch (GeneralSecurityException e) {
+                Log.w(TAG, "Dropped message " + message.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.google.firebase.codelab.friendlychat;
+
+import com.google.firebase.codelab.friendlychat.encrypt.KeyMaterialPool;
+import com.google.firebase.codelab.friendlychat.encrypt.SymmetricCipher;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * プロセスで共有するSymmetricCipherとKeyMaterialPool
+ * <p>
+ * KeyMaterialPoolは作った時点からバックグラウンドで鍵を用意し始めるため、
+ * Activityごとに作り直さずにプロセスで1つを共有する。
+ * 鍵を使う前にできるだけ早く{@link #getInstance()}を呼んでおくこと。
+ * 任意のスレッドから使ってよい。
+ * </p>
+ */
+public final class SharedKeyMaterial {
+    private static SharedKeyMaterial sInstance;
+
+    private final SymmetricCipher mCipher;
+    private final KeyMaterialPool mPool;
+
+    private SharedKeyMaterial(SymmetricCipher cipher) {
+        mCipher = cipher;
+        mPool = new KeyMaterialPool(cipher);
+    }
+
+    /**
+     * @return 共有のインスタンス(初回はプールへの鍵の補充を始める)
+     * @throws GeneralSecurityException 標準設定の暗号方式が使えない場合
+     */
+    public static synchronized SharedKeyMaterial getInstance() throws GeneralSecurityException {
+        if (sInstance == null) {
+            sInstance = new SharedKeyMaterial(new SymmetricCipher(
+                    SymmetricCipher.DEFAULT_ALGORITHM, SymmetricCipher.DEFAULT_CIPHER_MODE,
+                    SymmetricCipher.DEFAULT_PADDING, SymmetricCipher.DEFAULT_KEY_SIZE));
+        }
+        return sInstance;
+    }
+
+    public SymmetricCipher getCipher() {
+        return mCipher;
+    }
+
+    public KeyMaterialPool getPool() {
+        return mPool;
+    }
+}
@@ -0,0 +1,63 @@
+package com.google.firebase.codelab.friendlychat;
+
+import com.google.firebase.codelab.friendlychat.encrypt.Hash;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IncomingMessageDecryptorTest {
+    private Hash mHash;
+
+    @Before
+    public void setUp() throws Exception {
+        mHash = new Hash(Hash.Algorithm.SHA256);
+    }
+
+    private static FriendlyMessage message(String id, String cipher, String text) {
+        FriendlyMessage message = new FriendlyMessage(text, "name", null);
+        message.setId(id);
+        message.setCipher(cipher);
+        return message;
+    }
+
+    @Test
+    public void sameMessageHasSameKey() {
+        assertEquals(IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "sealed")),
+                IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "sealed")));
+    }
+
+    @Test
+    public void keyStartsWithMessageId() {
+        String key = IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "sealed"));
+        assertTrue(key.startsWith("id1:"));
+    }
+
+    @Test
+    public void keyChangesWhenCiphertextChanges() {
+        assertNotEquals(IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "sealed")),
+                IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "resealed")));
+    }
+
+    @Test
+    public void keyChangesWhenCipherChanges() {
+        assertNotEquals(IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "sealed")),
+                IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v2", "sealed")));
+    }
+
+    @Test
+    public void keyDiffersBetweenMessages() {
+        assertNotEquals(IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "sealed")),
+                IncomingMessageDecryptor.cacheKey(mHash, message("id2", "v1", "sealed")));
+    }
+
+    /**
+     * 暗号方式と暗号文の区切りがずれただけの組み合わせを区別する
+     */
+    @Test
+    public void cipherAndTextAreSeparated() {
+        assertNotEquals(IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1", "xsealed")),
+                IncomingMessageDecryptor.cacheKey(mHash, message("id1", "v1x", "sealed")));
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Hashのベンチマーク
+ * <p>
+ * アルゴリズムとデータサイズごとに、ストレッチング無しとソルト・ストレッチング付きを計測する。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class HashBenchmark {
+	@Param({ "SHA256", "SHA384", "SHA512", "SHA", "MD5" })
+	public String algorithm;
+
+	/**
+	 * データのバイト数
+	 */
+	@Param({ "16", "1024", "65536", "1048576" })
+	public int size;
+
+	private Hash hash;
+	private byte[] data;
+
+	/**
+	 * ストレッチングの回数
+	 * <p>
+	 * ストレッチング無しの計測をデータサイズだけで済ませるため、別のStateに分ける。
+	 * </p>
+	 */
+	@State(Scope.Thread)
+	public static class Stretching {
+		@Param({ "100", "10000" })
+		public int count;
+
+		private byte[] salt;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			this.salt = new byte[16];
+			new Random(this.count).nextBytes(this.salt);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.hash = new Hash(Hash.Algorithm.valueOf(this.algorithm));
+		this.data = new byte[this.size];
+		new Random(this.size).nextBytes(this.data);
+	}
+
+	@Benchmark
+	public byte[] valueOf() {
+		return this.hash.valueOf(this.data);
+	}
+
+	@Benchmark
+	public byte[] valueOfStretched(final Stretching stretching) {
+		return this.hash.valueOf(this.data, stretching.salt, stretching.count);
+	}
+}
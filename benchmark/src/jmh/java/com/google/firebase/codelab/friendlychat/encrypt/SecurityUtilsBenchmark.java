@@ -0,0 +1,68 @@
+/**
+ * SecurityUtilsのベンチマーク
+ * <p>
+ * 16進数文字列との相互変換とストリームの読み込みを計測する。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class SecurityUtilsBenchmark {
+	/**
+	 * データのバイト数
+	 */
+	@Param({ "32", "1024", "65536", "1048576" })
+	public int size;
+
+	private byte[] data;
+	private String hex;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.data = new byte[this.size];
+		new Random(this.size).nextBytes(this.data);
+		this.hex = SecurityUtils.byteArrayToString(this.data);
+	}
+
+	@Benchmark
+	public String byteArrayToString() {
+		return SecurityUtils.byteArrayToString(this.data);
+	}
+
+	@Benchmark
+	public byte[] stringToByteArray() {
+		return SecurityUtils.stringToByteArray(this.hex);
+	}
+
+	@Benchmark
+	public byte[] streamToByteArray() throws Exception {
+		return SecurityUtils.streamToByteArray(new ByteArrayInputStream(this.data));
+	}
+
+	@Benchmark
+	public byte[] streamToByteArrayHinted() throws Exception {
+		return SecurityUtils.streamToByteArray(new ByteArrayInputStream(this.data), this.size);
+	}
+
+	@Benchmark
+	public ByteBuffer streamToByteBuffer() throws Exception {
+		return SecurityUtils.streamToByteBuffer(new ByteArrayInputStream(this.data), this.size);
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * SymmetricCipherの暗号化・復号のベンチマーク
+ * <p>
+ * 暗号アルゴリズム・利用モード・パディング・鍵サイズの組み合わせとデータサイズごとに、
+ * byte[]版とByteBuffer版(ダイレクトバッファ)を計測する。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class SymmetricCipherBenchmark {
+	/**
+	 * {@link CryptoCalibration.CipherChoice#toString()}の形式
+	 */
+	@Param({
+			"AES/CBC/PKCS5/128",
+			"AES/CBC/ISO10126/128",
+			"AES/CTR/None/128",
+			"AES/GCM/None/128",
+			"AES/GCM/None/256",
+			"CHACHA20/POLY1305/None/256",
+		})
+	public String cipher;
+
+	/**
+	 * 平文のバイト数
+	 */
+	@Param({ "64", "1024", "65536", "1048576" })
+	public int size;
+
+	private SymmetricCipher symmetricCipher;
+	private SecretKey key;
+	private byte[] plain;
+	private byte[] encrypted;
+	private ByteBuffer directSrc;
+	private ByteBuffer directDst;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.symmetricCipher = CryptoCalibration.CipherChoice.parse(this.cipher).newCipher();
+		this.key = this.symmetricCipher.generateKey();
+		this.plain = new byte[this.size];
+		new Random(this.size).nextBytes(this.plain);
+		this.encrypted = this.symmetricCipher.encrypt(this.plain, this.key);
+
+		this.directSrc = ByteBuffer.allocateDirect(this.size);
+		this.directSrc.put(this.plain).flip();
+		this.directDst = ByteBuffer.allocateDirect(this.symmetricCipher.getEncryptOutputSize(this.size));
+	}
+
+	@Benchmark
+	public byte[] encrypt() throws Exception {
+		return this.symmetricCipher.encrypt(this.plain, this.key);
+	}
+
+	@Benchmark
+	public byte[] decrypt() throws Exception {
+		return this.symmetricCipher.decrypt(this.encrypted, this.key);
+	}
+
+	@Benchmark
+	public int encryptDirect() throws Exception {
+		this.directSrc.rewind();
+		this.directDst.clear();
+		return this.symmetricCipher.encrypt(this.directSrc, this.directDst, this.key);
+	}
+}
@@ -3,14 +3,11 @@
  */
 package com.google.firebase.codelab.friendlychat.encrypt;
 
-import android.util.Log;
-
 import com.google.firebase.codelab.friendlychat.PRNGAlgorithm;
 
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
@@ -26,6 +23,7 @@ public abstract class AbstractCipher {
 	private CipherMode mode;
 	private Padding padding;
 	private int keySize;
+	private volatile CryptoMetrics.Recorder[] metrics;
 
 	public static PRNGAlgorithm DEFAULT_PRNG = PRNGAlgorithm.SHA1PRNG;
 
@@ -43,8 +41,46 @@ public abstract class AbstractCipher {
 		this.keySize = keySize;
 	}
 
+	/**
+	 * @return 暗号アルゴリズム名({@link CryptoMetrics}の記録に使う)
+	 */
+	protected abstract String getAlgorithmName();
+
+	/**
+	 * 呼び出し元が専有できるCipherを返す
+	 * <p>
+	 * 使用後は{@link #releaseCipher(Cipher)}で返却すること。
+	 * </p>
+	 * @return 初期化前のCipher
+	 */
 	protected abstract Cipher getCipher();
 
+	/**
+	 * {@link #getCipher()}で取得したCipherを返却する
+	 * @param cipher
+	 */
+	protected void releaseCipher(final Cipher cipher) {
+		CipherPool.release(cipher);
+	}
+
+	/**
+	 * このインスタンスのアルゴリズム・利用モードで操作を記録する先を返す
+	 * @param operation
+	 * @return 記録先
+	 */
+	CryptoMetrics.Recorder metrics(final CryptoMetrics.Operation operation) {
+		CryptoMetrics.Recorder[] m = this.metrics;
+		if (m == null) {
+			CryptoMetrics.Operation[] ops = CryptoMetrics.Operation.values();
+			m = new CryptoMetrics.Recorder[ops.length];
+			for (CryptoMetrics.Operation op : ops)
+				m[op.ordinal()] = CryptoMetrics.recorder(this.getAlgorithmName(),
+																								 this.mode.toString(), op);
+			this.metrics = m;
+		}
+		return m[operation.ordinal()];
+	}
+
 	/**
 	 * @return 暗号利用モード
 	 */
@@ -89,11 +125,14 @@ public abstract class AbstractCipher {
 
 		final String tag = TAG+".encrypt";
 
+		long start = System.nanoTime();
 		Cipher cipher = this.getCipher();
 		try {
 			cipher.init(Cipher.ENCRYPT_MODE, key,
-									SecureRandom.getInstance(this.getPRNGAlgorithm().toString()));
-			return cipher.doFinal(data);
+									RandomSource.get(this.getPRNGAlgorithm()));
+			byte[] out = cipher.doFinal(data);
+			this.metrics(CryptoMetrics.Operation.ENCRYPT).record(data.length, System.nanoTime() - start);
+			return out;
 
 		} catch (InvalidKeyException exn) {
 			Log.w(tag, exn.getMessage());
@@ -110,6 +149,9 @@ public abstract class AbstractCipher {
 		} catch (BadPaddingException exn) {
 			Log.w(tag, exn.getMessage());
 			throw exn;
+
+		} finally {
+			this.releaseCipher(cipher);
 		}
 	}
 
@@ -129,11 +171,14 @@ public abstract class AbstractCipher {
 
 		final String tag = TAG+".decrypt";
 
+		long start = System.nanoTime();
 		Cipher cipher = this.getCipher();
 		try {
 			cipher.init(Cipher.DECRYPT_MODE, key,
-									SecureRandom.getInstance(this.getPRNGAlgorithm().toString()));
-			return cipher.doFinal(data);
+									RandomSource.get(this.getPRNGAlgorithm()));
+			byte[] out = cipher.doFinal(data);
+			this.metrics(CryptoMetrics.Operation.DECRYPT).record(data.length, System.nanoTime() - start);
+			return out;
 
 		} catch (InvalidKeyException exn) {
 			Log.w(tag, exn.getMessage());
@@ -150,6 +195,9 @@ public abstract class AbstractCipher {
 		} catch (BadPaddingException exn) {
 			Log.w(tag, exn.getMessage());
 			throw exn;
+
+		} finally {
+			this.releaseCipher(cipher);
 		}
 	}
 }
@@ -0,0 +1,233 @@
+/**
+ * 端末に適した認証付き暗号を選ぶ計測
+ * <p>
+ * AES命令を持つCPUではAES/GCMが、持たないCPUではChaCha20-Poly1305が速い。
+ * CPUの機能はJavaから調べられないため、実際に両方で暗号化して処理速度を比べる。
+ * 計測は数十ミリ秒かかるので、起動時に{@link #runAsync()}でバックグラウンド実行しておき、
+ * 暗号化の際に{@link #newCipher()}で選ばれた方式のSymmetricCipherを作る。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+public class AeadProbe {
+	private static final String TAG = "AeadProbe";
+
+	/**
+	 * 1回の暗号化で処理するバイト数
+	 */
+	private static final int PROBE_DATA_LENGTH = 16 * 1024;
+
+	/**
+	 * 候補ごとの計測時間
+	 */
+	private static final long PROBE_NANOS = 20L * 1000 * 1000;
+
+	/**
+	 * 計測の繰り返し回数(候補を交互に計測し、最も速かった回を採る)
+	 */
+	private static final int PROBE_ROUNDS = 3;
+
+	private static volatile Result result;
+
+	/**
+	 * 計測結果
+	 */
+	public static final class Result {
+		private final SymmetricCipher.Algorithm algorithm;
+		private final CipherMode mode;
+		private final int keySize;
+		private final double aesThroughput;
+		private final double chachaThroughput;
+
+		Result(final SymmetricCipher.Algorithm algorithm, final CipherMode mode,
+					 final int keySize, final double aesThroughput,
+					 final double chachaThroughput) {
+			this.algorithm = algorithm;
+			this.mode = mode;
+			this.keySize = keySize;
+			this.aesThroughput = aesThroughput;
+			this.chachaThroughput = chachaThroughput;
+		}
+
+		/**
+		 * @return 選ばれた暗号アルゴリズム
+		 */
+		public SymmetricCipher.Algorithm getAlgorithm() {
+			return this.algorithm;
+		}
+
+		/**
+		 * @return 選ばれた利用モード
+		 */
+		public CipherMode getCipherMode() {
+			return this.mode;
+		}
+
+		/**
+		 * @return 選ばれた鍵サイズ
+		 */
+		public int getKeySize() {
+			return this.keySize;
+		}
+
+		/**
+		 * @return AES/GCMの処理速度(バイト/秒、利用できない場合は0)
+		 */
+		public double getAesThroughput() {
+			return this.aesThroughput;
+		}
+
+		/**
+		 * @return ChaCha20-Poly1305の処理速度(バイト/秒、利用できない場合は0)
+		 */
+		public double getChaChaThroughput() {
+			return this.chachaThroughput;
+		}
+
+		/**
+		 * 選ばれた方式のSymmetricCipherを作る
+		 * @return SymmetricCipher
+		 * @throws GeneralSecurityException
+		 */
+		public SymmetricCipher newCipher() throws GeneralSecurityException {
+			return new SymmetricCipher(this.algorithm, this.mode, Padding.None, this.keySize);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s/%s (AES/GCM %.1f MB/s, ChaCha20-Poly1305 %.1f MB/s)",
+													 this.algorithm, this.mode,
+													 this.aesThroughput / (1024 * 1024),
+													 this.chachaThroughput / (1024 * 1024));
+		}
+	}
+
+	/**
+	 * 計測して結果を記録する
+	 * @return 計測結果
+	 * @throws GeneralSecurityException どちらの方式も利用できない場合
+	 */
+	public static Result run() throws GeneralSecurityException {
+		Candidate aesGcm = Candidate.create(SymmetricCipher.Algorithm.AES, CipherMode.GCM, 128);
+		Candidate chaCha = Candidate.create(SymmetricCipher.Algorithm.CHACHA20,
+																				CipherMode.POLY1305, 256);
+		if (aesGcm == null && chaCha == null)
+			throw new GeneralSecurityException("No AEAD cipher is available.");
+
+		// JITコンパイルの進み具合で先に計測した方が不利にならないよう、交互に繰り返す
+		double aes = 0;
+		double chacha = 0;
+		for (int i = 0; i < PROBE_ROUNDS; i++) {
+			if (aesGcm != null)
+				aes = Math.max(aes, aesGcm.measure());
+			if (chaCha != null)
+				chacha = Math.max(chacha, chaCha.measure());
+		}
+
+		Result r = (chacha > aes)
+			? new Result(SymmetricCipher.Algorithm.CHACHA20, CipherMode.POLY1305, 256, aes, chacha)
+			: new Result(SymmetricCipher.Algorithm.AES, CipherMode.GCM, 128, aes, chacha);
+		record(r);
+		return r;
+	}
+
+	/**
+	 * 計測結果を記録する
+	 * <p>
+	 * {@link CryptoCalibration}がキャッシュから復元した結果もここで記録する。
+	 * </p>
+	 */
+	static void record(final Result r) {
+		result = r;
+		Log.i(TAG, "Selected " + r);
+	}
+
+	/**
+	 * 共有スレッドプールで計測する
+	 * @return 計測結果のFuture
+	 */
+	public static Future<Result> runAsync() {
+		return CryptoExecutors.computation().submit(new Callable<Result>() {
+				@Override
+				public Result call() throws GeneralSecurityException {
+					return run();
+				}
+			});
+	}
+
+	/**
+	 * @return 記録された計測結果(未計測の場合はnull)
+	 */
+	public static Result getResult() {
+		return result;
+	}
+
+	/**
+	 * 記録された計測結果に従ってSymmetricCipherを作る
+	 * <p>
+	 * 未計測の場合はその場で計測する。
+	 * </p>
+	 * @return SymmetricCipher
+	 * @throws GeneralSecurityException
+	 */
+	public static SymmetricCipher newCipher() throws GeneralSecurityException {
+		Result r = result;
+		if (r == null)
+			r = run();
+		return r.newCipher();
+	}
+
+	/**
+	 * 計測対象
+	 */
+	private static final class Candidate {
+		private final SymmetricCipher cipher;
+		private final SecretKey key;
+		private final byte[] data = new byte[PROBE_DATA_LENGTH];
+
+		private Candidate(final SymmetricCipher cipher, final SecretKey key) {
+			this.cipher = cipher;
+			this.key = key;
+		}
+
+		/**
+		 * @return 計測対象(利用できない場合はnull)
+		 */
+		static Candidate create(final SymmetricCipher.Algorithm algorithm,
+														final CipherMode mode, final int keySize) {
+			try {
+				SymmetricCipher cipher = new SymmetricCipher(algorithm, mode, Padding.None, keySize);
+				Candidate c = new Candidate(cipher, cipher.generateKey());
+				c.cipher.encryptAuthenticated(c.data, null, c.key);
+				return c;
+
+			} catch (GeneralSecurityException exn) {
+				Log.w(TAG, algorithm + ": " + exn.getMessage());
+				return null;
+			}
+		}
+
+		/**
+		 * 暗号化の処理速度を計測する
+		 * @return バイト/秒
+		 */
+		double measure() throws GeneralSecurityException {
+			long start = System.nanoTime();
+			long deadline = start + PROBE_NANOS;
+			long bytes = 0;
+			long now;
+			do {
+				this.cipher.encryptAuthenticated(this.data, null, this.key);
+				bytes += this.data.length;
+				now = System.nanoTime();
+			} while (now < deadline);
+			return bytes * 1e9 / (now - start);
+		}
+	}
+}
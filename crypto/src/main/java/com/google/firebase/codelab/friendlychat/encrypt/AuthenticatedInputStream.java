@@ -0,0 +1,133 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * {@link AuthenticatedOutputStream}で暗号化したデータをチャンクごとに検証・復号する入力ストリーム
+ * <p>
+ * 認証タグを検証できたチャンクだけを読み出せるため、受信側は全体を受け取る前に処理を始められる。
+ * 改竄、チャンクの並べ替え、最終チャンクより前での切断はIOExceptionとして報告する。
+ * </p>
+ */
+class AuthenticatedInputStream extends InputStream {
+	private final SymmetricCipher cipher;
+	private final DataInputStream in;
+	private final SecretKey key;
+
+	private byte[] header;
+	private byte[] noncePrefix;
+	private int maxSealedLength;
+
+	/**
+	 * 受信したチャンクと復号したチャンク(BufferPoolから借り、足りなくなったら借り直す)
+	 */
+	private byte[] sealed;
+	private byte[] chunk;
+	private int chunkLength = 0;
+	private int position = 0;
+	private long index = 0;
+	private boolean finished = false;
+
+	AuthenticatedInputStream(final SymmetricCipher cipher, final InputStream is,
+													 final SecretKey key) {
+		this.cipher = cipher;
+		this.in = new DataInputStream(is);
+		this.key = key;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int n = this.read(b, 0, 1);
+		return (n < 0) ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+		throws IOException {
+
+		if (len == 0)
+			return 0;
+
+		while (this.position == this.chunkLength) {
+			if (this.finished)
+				return -1;
+			this.readChunk();
+		}
+
+		int n = Math.min(len, this.chunkLength - this.position);
+		System.arraycopy(this.chunk, this.position, b, off, n);
+		this.position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return this.chunkLength - this.position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		BufferPool.release(this.sealed);
+		BufferPool.release(this.chunk);
+		this.sealed = null;
+		this.chunk = null;
+		this.chunkLength = this.position = 0;
+		this.finished = true;
+		this.in.close();
+	}
+
+	private void readHeader() throws IOException {
+		int prefixLength =
+			this.cipher.getIvLength() - AuthenticatedOutputStream.NONCE_SUFFIX_LENGTH;
+		this.noncePrefix = new byte[prefixLength];
+		this.in.readFully(this.noncePrefix);
+
+		int chunkSize = this.in.readInt();
+		if (chunkSize <= 0 || chunkSize > AuthenticatedOutputStream.MAX_CHUNK_SIZE)
+			throw new IOException("Invalid chunk size: " + chunkSize);
+
+		this.header = AuthenticatedOutputStream.header(this.noncePrefix, chunkSize);
+		this.maxSealedLength = chunkSize + this.cipher.getTagLength();
+	}
+
+	private void readChunk() throws IOException {
+		if (this.header == null)
+			this.readHeader();
+
+		try {
+			int h = this.in.readInt();
+			boolean last = (h & AuthenticatedOutputStream.LAST_CHUNK_FLAG) != 0;
+			int length = h & ~AuthenticatedOutputStream.LAST_CHUNK_FLAG;
+			if (length < this.cipher.getTagLength() || length > this.maxSealedLength)
+				throw new IOException("Invalid chunk length: " + length);
+
+			// ヘッダのチャンク長は信用できないため、実際に受信した長さに合わせて借りる
+			if (this.sealed == null || this.sealed.length < length) {
+				BufferPool.release(this.sealed);
+				BufferPool.release(this.chunk);
+				this.sealed = BufferPool.acquire(length);
+				this.chunk = BufferPool.acquire(length);
+			}
+			this.in.readFully(this.sealed, 0, length);
+
+			this.chunkLength = this.position = 0;
+			this.chunkLength = this.cipher.open(
+				this.key, AuthenticatedOutputStream.nonce(this.noncePrefix, this.index, last),
+				this.header, this.sealed, 0, length, this.chunk, 0);
+			this.index++;
+			this.finished = last;
+
+		} catch (EOFException exn) {
+			throw new EOFException("Stream truncated before the last chunk.");
+		} catch (GeneralSecurityException exn) {
+			throw new IOException("Chunk " + this.index + " failed authentication.", exn);
+		}
+	}
+}
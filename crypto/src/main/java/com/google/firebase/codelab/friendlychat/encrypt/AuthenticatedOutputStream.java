@@ -0,0 +1,187 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.SecretKey;
+
+/**
+ * 書き込まれたデータをチャンクごとに認証付きで暗号化する出力ストリーム
+ * <p>
+ * 出力形式は次の通り。
+ * </p>
+ * <pre>
+ * [nonceプレフィックス(nonce長 - 5)][チャンク長(int)]     (ヘッダ)
+ * [フラグ|暗号文の長さ(int)][暗号文と認証タグ] ...        (チャンクの数だけ繰り返す)
+ * </pre>
+ * <p>
+ * 各チャンクのnonceは nonceプレフィックス || チャンク番号(4バイト) || 最終チャンクなら1、それ以外は0
+ * とし、ヘッダ全体を追加認証データとする。
+ * これにより、チャンクの並べ替え・差し替え・途中での切断を受信側で検知できる。
+ * 最終チャンクは長さの最上位ビットでも示す。
+ * </p>
+ */
+class AuthenticatedOutputStream extends FilterOutputStream {
+
+	/**
+	 * チャンク長の既定値
+	 */
+	static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * チャンク長の上限
+	 * <p>
+	 * 受信側はヘッダのチャンク長を認証前に信用できないため、これを超える値は不正として扱う。
+	 * </p>
+	 */
+	static final int MAX_CHUNK_SIZE = BufferPool.MAX_SIZE;
+
+	/**
+	 * 最終チャンクを示すフラグ
+	 */
+	static final int LAST_CHUNK_FLAG = 0x80000000;
+
+	/**
+	 * nonceのうちチャンク番号と最終フラグが占めるバイト数
+	 */
+	static final int NONCE_SUFFIX_LENGTH = 5;
+
+	private final SymmetricCipher cipher;
+	private final SecretKey key;
+	private final byte[] header;
+	private final byte[] noncePrefix;
+	private final int chunkSize;
+	private final byte[] buffer;
+	private final byte[] sealed;
+	private int count = 0;
+	private long index = 0;
+	private boolean closed = false;
+
+	AuthenticatedOutputStream(final SymmetricCipher cipher, final OutputStream os,
+														final SecretKey key, final int chunkSize)
+		throws NoSuchAlgorithmException, IOException {
+
+		super(os);
+		if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE)
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		this.cipher = cipher;
+		this.key = key;
+		this.noncePrefix = RandomSource.nextIv(cipher.getPRNGAlgorithm(),
+																					 cipher.getIvLength() - NONCE_SUFFIX_LENGTH);
+		this.header = header(this.noncePrefix, chunkSize);
+		this.chunkSize = chunkSize;
+
+		this.out.write(this.header);
+		this.buffer = BufferPool.acquire(chunkSize);
+		this.sealed = BufferPool.acquire(chunkSize + cipher.getTagLength());
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		this.write(new byte[]{(byte)b}, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len)
+		throws IOException {
+
+		if (this.closed)
+			throw new IOException("Stream closed.");
+
+		int o = off;
+		int remaining = len;
+		while (remaining > 0) {
+			// 最終チャンクかどうかはclose()まで分からないため、満杯のチャンクは次の書き込みで送る
+			if (this.count == this.chunkSize)
+				this.writeChunk(false);
+
+			int n = Math.min(remaining, this.chunkSize - this.count);
+			System.arraycopy(b, o, this.buffer, this.count, n);
+			this.count += n;
+			o += n;
+			remaining -= n;
+		}
+	}
+
+	/**
+	 * バッファ中のデータを(最終でない)チャンクとして送り出す
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!this.closed && this.count > 0)
+			this.writeChunk(false);
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed)
+			return;
+		this.closed = true;
+		try {
+			this.writeChunk(true);
+			this.out.flush();
+		} finally {
+			BufferPool.release(this.buffer);
+			BufferPool.release(this.sealed);
+			this.out.close();
+		}
+	}
+
+	private void writeChunk(final boolean last) throws IOException {
+		if (this.index > 0xffffffffL)
+			throw new IOException("Too many chunks.");
+
+		try {
+			int n = this.cipher.seal(this.key, nonce(this.noncePrefix, this.index, last),
+															 this.header, this.buffer, 0, this.count,
+															 this.sealed, 0);
+			writeInt(this.out, last ? (LAST_CHUNK_FLAG | n) : n);
+			this.out.write(this.sealed, 0, n);
+			this.index++;
+			this.count = 0;
+
+		} catch (GeneralSecurityException exn) {
+			throw new IOException(exn);
+		}
+	}
+
+	/**
+	 * ヘッダを組み立てる
+	 */
+	static byte[] header(final byte[] noncePrefix, final int chunkSize) {
+		byte[] header = new byte[noncePrefix.length + 4];
+		System.arraycopy(noncePrefix, 0, header, 0, noncePrefix.length);
+		putInt(header, noncePrefix.length, chunkSize);
+		return header;
+	}
+
+	/**
+	 * チャンクのnonceを組み立てる
+	 */
+	static byte[] nonce(final byte[] noncePrefix, final long index,
+											final boolean last) {
+		byte[] nonce = new byte[noncePrefix.length + NONCE_SUFFIX_LENGTH];
+		System.arraycopy(noncePrefix, 0, nonce, 0, noncePrefix.length);
+		putInt(nonce, noncePrefix.length, (int)index);
+		nonce[nonce.length - 1] = (byte)(last ? 1 : 0);
+		return nonce;
+	}
+
+	private static void putInt(final byte[] ba, final int offset, final int v) {
+		ba[offset] = (byte)(v >>> 24);
+		ba[offset + 1] = (byte)(v >>> 16);
+		ba[offset + 2] = (byte)(v >>> 8);
+		ba[offset + 3] = (byte)v;
+	}
+
+	private static void writeInt(final OutputStream os, final int v)
+		throws IOException {
+		byte[] ba = new byte[4];
+		putInt(ba, 0, v);
+		os.write(ba);
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * Base64の符号化・復号
+ * <p>
+ * {@link CryptoPlatform#setBase64Codec(Base64Codec)}で設定する。
+ * 鍵の文字列表現({@link SecurityUtils#secretKeyToString(javax.crypto.SecretKey)})に使う。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+public interface Base64Codec {
+	/**
+	 * 改行とパディング無しで符号化する
+	 * @param data 符号化するバイト列
+	 * @return Base64文字列
+	 */
+	String encode(byte[] data);
+
+	/**
+	 * 復号する
+	 * <p>
+	 * パディングの有無によらず復号でき、改行などの空白は無視する。
+	 * </p>
+	 * @param str Base64文字列
+	 * @return バイト列
+	 * @exception IllegalArgumentException Base64文字列として不正な場合
+	 */
+	byte[] decode(String str);
+}
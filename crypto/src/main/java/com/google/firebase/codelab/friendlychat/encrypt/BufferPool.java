@@ -0,0 +1,517 @@
+/**
+ * 作業用バッファのプール
+ * <p>
+ * ストリームの読み書きやファイルの暗号化で使う作業用のbyte[]とダイレクトByteBufferを、
+ * 2のべき乗の大きさ({@link #MIN_SIZE}から{@link #MAX_SIZE}まで)ごとに保持して再利用する。
+ * acquire()で取得したバッファは呼び出し元が専有し、使用後にrelease()で返却する。
+ * 返却したバッファはゼロで埋めてから保持するため、平文や鍵が残ることはない。
+ * </p>
+ * <p>
+ * {@link #THREAD_LOCAL_MAX_SIZE}以下の大きさはスレッドごとに1つずつ保持し、同じスレッドでの取得・返却は同期を伴わない。
+ * それ以外はスレッド間で共有するプールから取得し、大きさごとに{@link #MAX_IDLE}個まで保持する。
+ * {@link #MAX_SIZE}を超える大きさはプールせず、毎回確保する。
+ * </p>
+ * <p>
+ * 返却の際は、同じバッファが返却したスレッドの保持分と共有プールに既に無いかを同一性で確かめ、
+ * あれば二重の返却として無視する。このため同じスレッドでの二重の返却で、
+ * 1つのバッファが2つの取得元に渡ることはない。
+ * 別のスレッドが保持している分までは確かめないため、スレッドをまたいだ二重の返却は
+ * リーク検出が有効な場合にのみ検出される。
+ * </p>
+ * <p>
+ * {@link #setLeakDetection(boolean)}で有効にすると、返却されないまま回収されたバッファを、
+ * 取得した箇所のスタックトレースと共にログに出力する(デバッグ用、取得ごとにスタックトレースを記録するため遅い)。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BufferPool {
+	private static final String TAG = "BufferPool";
+
+	/**
+	 * プールする最小の大きさ(これより小さい要求もこの大きさで返す)
+	 */
+	public static final int MIN_SIZE = 512;
+
+	/**
+	 * プールする最大の大きさ
+	 */
+	public static final int MAX_SIZE = 1024 * 1024;
+
+	/**
+	 * スレッドごとに保持する最大の大きさ
+	 */
+	public static final int THREAD_LOCAL_MAX_SIZE = 64 * 1024;
+
+	/**
+	 * 大きさごとに共有プールで保持するバッファの最大数
+	 */
+	public static final int MAX_IDLE =
+		Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+	private static final int THREAD_LOCAL_CLASSES =
+		Integer.numberOfTrailingZeros(THREAD_LOCAL_MAX_SIZE) - MIN_SHIFT + 1;
+
+	private static final byte[] ZEROS = new byte[4096];
+
+	private static final Kind HEAP = new Kind();
+	private static final Kind DIRECT = new Kind();
+
+	private static final ThreadLocal<Object[][]> LOCAL = new ThreadLocal<Object[][]>() {
+			@Override
+			protected Object[][] initialValue() {
+				return new Object[][] {
+					new Object[THREAD_LOCAL_CLASSES], new Object[THREAD_LOCAL_CLASSES]
+				};
+			}
+		};
+
+	private static final AtomicLong leaks = new AtomicLong();
+	private static volatile boolean leakDetection = false;
+	private static final ReferenceQueue<Object> LEAKED = new ReferenceQueue<Object>();
+	private static final Map<Integer, List<Tracker>> TRACKERS = new HashMap<Integer, List<Tracker>>();
+
+	/**
+	 * byte[]・ダイレクトByteBufferそれぞれの共有プールと統計
+	 */
+	private static final class Kind {
+		final List<Queue<Object>> pools = new ArrayList<Queue<Object>>(CLASSES);
+		final AtomicLong localHits = new AtomicLong();
+		final AtomicLong sharedHits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final AtomicLong oversized = new AtomicLong();
+		final AtomicLong discarded = new AtomicLong();
+
+		Kind() {
+			for (int i = 0; i < CLASSES; i++)
+				this.pools.add(new ArrayBlockingQueue<Object>(MAX_IDLE));
+		}
+
+		void clear() {
+			for (Queue<Object> pool : this.pools)
+				pool.clear();
+		}
+	}
+
+	/**
+	 * 返却されていないバッファの記録
+	 */
+	private static final class Tracker extends WeakReference<Object> {
+		final int hash;
+		final Throwable acquired;
+
+		Tracker(final Object buffer, final int hash) {
+			super(buffer, LEAKED);
+			this.hash = hash;
+			this.acquired = new Throwable("Buffer acquired here was never released.");
+		}
+	}
+
+	/**
+	 * 統計情報
+	 */
+	public static final class Statistics {
+		private final long heapLocalHits;
+		private final long heapSharedHits;
+		private final long heapMisses;
+		private final long heapOversized;
+		private final long heapDiscarded;
+		private final long directLocalHits;
+		private final long directSharedHits;
+		private final long directMisses;
+		private final long directOversized;
+		private final long directDiscarded;
+		private final long leaks;
+
+		Statistics() {
+			this.heapLocalHits = HEAP.localHits.get();
+			this.heapSharedHits = HEAP.sharedHits.get();
+			this.heapMisses = HEAP.misses.get();
+			this.heapOversized = HEAP.oversized.get();
+			this.heapDiscarded = HEAP.discarded.get();
+			this.directLocalHits = DIRECT.localHits.get();
+			this.directSharedHits = DIRECT.sharedHits.get();
+			this.directMisses = DIRECT.misses.get();
+			this.directOversized = DIRECT.oversized.get();
+			this.directDiscarded = DIRECT.discarded.get();
+			this.leaks = BufferPool.leaks.get();
+		}
+
+		/**
+		 * @return byte[]をスレッドごとのプールから取得できた回数
+		 */
+		public long getHeapLocalHits() {
+			return this.heapLocalHits;
+		}
+
+		/**
+		 * @return byte[]を共有プールから取得できた回数
+		 */
+		public long getHeapSharedHits() {
+			return this.heapSharedHits;
+		}
+
+		/**
+		 * @return byte[]をプールから取得できず、確保した回数
+		 */
+		public long getHeapMisses() {
+			return this.heapMisses;
+		}
+
+		/**
+		 * @return {@link #MAX_SIZE}を超えるbyte[]を確保した回数
+		 */
+		public long getHeapOversized() {
+			return this.heapOversized;
+		}
+
+		/**
+		 * @return 返却されたbyte[]をプールが一杯のため破棄した回数
+		 */
+		public long getHeapDiscarded() {
+			return this.heapDiscarded;
+		}
+
+		/**
+		 * @return ダイレクトByteBufferをスレッドごとのプールから取得できた回数
+		 */
+		public long getDirectLocalHits() {
+			return this.directLocalHits;
+		}
+
+		/**
+		 * @return ダイレクトByteBufferを共有プールから取得できた回数
+		 */
+		public long getDirectSharedHits() {
+			return this.directSharedHits;
+		}
+
+		/**
+		 * @return ダイレクトByteBufferをプールから取得できず、確保した回数
+		 */
+		public long getDirectMisses() {
+			return this.directMisses;
+		}
+
+		/**
+		 * @return {@link #MAX_SIZE}を超えるダイレクトByteBufferを確保した回数
+		 */
+		public long getDirectOversized() {
+			return this.directOversized;
+		}
+
+		/**
+		 * @return 返却されたダイレクトByteBufferをプールが一杯のため破棄した回数
+		 */
+		public long getDirectDiscarded() {
+			return this.directDiscarded;
+		}
+
+		/**
+		 * @return 返却されないまま回収されたバッファの数(リーク検出が有効な間のみ数える)
+		 */
+		public long getLeaks() {
+			return this.leaks;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("heap %d+%d/%d hit (%d oversized, %d discarded), direct %d+%d/%d hit (%d oversized, %d discarded), %d leaks",
+													 this.heapLocalHits, this.heapSharedHits,
+													 this.heapLocalHits + this.heapSharedHits + this.heapMisses,
+													 this.heapOversized, this.heapDiscarded,
+													 this.directLocalHits, this.directSharedHits,
+													 this.directLocalHits + this.directSharedHits + this.directMisses,
+													 this.directOversized, this.directDiscarded, this.leaks);
+		}
+	}
+
+	/**
+	 * byte[]を取得する
+	 * @param minSize 必要なバイト数
+	 * @return 長さがminSize以上のbyte[](内容はゼロ)
+	 */
+	public static byte[] acquire(final int minSize) {
+		int c = sizeClass(minSize);
+		if (c < 0) {
+			HEAP.oversized.incrementAndGet();
+			return new byte[minSize];
+		}
+
+		byte[] buf = (byte[])take(HEAP, 0, c);
+		if (buf == null)
+			buf = new byte[MIN_SIZE << c];
+		track(buf);
+		return buf;
+	}
+
+	/**
+	 * {@link #acquire(int)}で取得したbyte[]を返却する
+	 * <p>
+	 * 返却後は使わないこと。
+	 * </p>
+	 * @param buf 返却するbyte[](nullの場合は何もしない)
+	 */
+	public static void release(final byte[] buf) {
+		if (buf == null)
+			return;
+		int c = exactSizeClass(buf.length);
+		if (c >= 0 && (isPooled(HEAP, 0, c, buf) || !untrack(buf)))
+			return;
+		Arrays.fill(buf, (byte)0);
+		if (c >= 0)
+			put(HEAP, 0, c, buf);
+	}
+
+	/**
+	 * ダイレクトByteBufferを取得する
+	 * @param minSize 必要なバイト数
+	 * @return 容量がminSize以上のダイレクトByteBuffer(positionは0、limitは容量、内容はゼロ)
+	 */
+	public static ByteBuffer acquireDirect(final int minSize) {
+		int c = sizeClass(minSize);
+		if (c < 0) {
+			DIRECT.oversized.incrementAndGet();
+			return ByteBuffer.allocateDirect(minSize);
+		}
+
+		ByteBuffer buf = (ByteBuffer)take(DIRECT, 1, c);
+		if (buf == null)
+			buf = ByteBuffer.allocateDirect(MIN_SIZE << c);
+		track(buf);
+		return buf;
+	}
+
+	/**
+	 * {@link #acquireDirect(int)}で取得したダイレクトByteBufferを返却する
+	 * <p>
+	 * 返却後は使わないこと(duplicate()などで作ったビューも含む)。
+	 * </p>
+	 * @param buf 返却するByteBuffer(nullの場合は何もしない)
+	 */
+	public static void releaseDirect(final ByteBuffer buf) {
+		if (buf == null)
+			return;
+		int c = buf.isDirect() ? exactSizeClass(buf.capacity()) : -1;
+		if (c >= 0 && (isPooled(DIRECT, 1, c, buf) || !untrack(buf)))
+			return;
+		buf.clear();
+		while (buf.hasRemaining())
+			buf.put(ZEROS, 0, Math.min(ZEROS.length, buf.remaining()));
+		buf.clear();
+		if (c >= 0)
+			put(DIRECT, 1, c, buf);
+	}
+
+	/**
+	 * @return 統計情報
+	 */
+	public static Statistics getStatistics() {
+		pollLeaks();
+		return new Statistics();
+	}
+
+	/**
+	 * @return リーク検出が有効になってから取得し、まだ返却されていないバッファの数
+	 */
+	static int getOutstandingCount() {
+		int count = 0;
+		synchronized (TRACKERS) {
+			for (List<Tracker> trackers : TRACKERS.values())
+				count += trackers.size();
+		}
+		return count;
+	}
+
+	/**
+	 * 共有プールで保持しているバッファを全て破棄する
+	 * <p>
+	 * スレッドごとに保持しているバッファは、そのスレッドの終了時に破棄される。
+	 * </p>
+	 */
+	public static void clear() {
+		HEAP.clear();
+		DIRECT.clear();
+	}
+
+	/**
+	 * リーク検出を有効・無効にする
+	 * <p>
+	 * 有効にする前に取得したバッファは検出の対象外(返却してもプールには戻らない)。
+	 * 有効な間は、スレッドをまたいで同じバッファを二重に返却した場合もログに出力し、二度目の返却は無視する。
+	 * </p>
+	 * @param enabled
+	 */
+	public static void setLeakDetection(final boolean enabled) {
+		leakDetection = enabled;
+		if (!enabled) {
+			synchronized (TRACKERS) {
+				for (List<Tracker> trackers : TRACKERS.values())
+					for (Tracker t : trackers)
+						t.clear();
+				TRACKERS.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return リーク検出が有効かどうか
+	 */
+	public static boolean isLeakDetectionEnabled() {
+		return leakDetection;
+	}
+
+	private static Object take(final Kind kind, final int local, final int c) {
+		if (c < THREAD_LOCAL_CLASSES) {
+			Object[] slots = LOCAL.get()[local];
+			Object buf = slots[c];
+			if (buf != null) {
+				slots[c] = null;
+				kind.localHits.incrementAndGet();
+				return buf;
+			}
+		}
+
+		Object buf = kind.pools.get(c).poll();
+		if (buf != null)
+			kind.sharedHits.incrementAndGet();
+		else
+			kind.misses.incrementAndGet();
+		return buf;
+	}
+
+	/**
+	 * 返却されたバッファが、このスレッドの保持分か共有プールに既にあるかを返す
+	 * <p>
+	 * ByteBufferのequalsは内容を比べるため、同一性で比べる。
+	 * </p>
+	 * @return 既にある(二重の返却の)場合はtrue
+	 */
+	private static boolean isPooled(final Kind kind, final int local, final int c,
+																	final Object buf) {
+		boolean pooled = false;
+		if (c < THREAD_LOCAL_CLASSES && LOCAL.get()[local][c] == buf)
+			pooled = true;
+		else
+			for (Object o : kind.pools.get(c))
+				if (o == buf) {
+					pooled = true;
+					break;
+				}
+
+		if (pooled)
+			Log.w(TAG, "Released a buffer that is already in the pool (double release).");
+		return pooled;
+	}
+
+	private static void put(final Kind kind, final int local, final int c,
+													final Object buf) {
+		if (c < THREAD_LOCAL_CLASSES) {
+			Object[] slots = LOCAL.get()[local];
+			if (slots[c] == null) {
+				slots[c] = buf;
+				return;
+			}
+		}
+
+		if (!kind.pools.get(c).offer(buf))
+			kind.discarded.incrementAndGet();
+	}
+
+	/**
+	 * @return minSizeを収められる大きさの番号(MAX_SIZEを超える場合は-1)
+	 */
+	private static int sizeClass(final int minSize) {
+		if (minSize <= MIN_SIZE)
+			return 0;
+		if (minSize > MAX_SIZE)
+			return -1;
+		return 32 - Integer.numberOfLeadingZeros(minSize - 1) - MIN_SHIFT;
+	}
+
+	/**
+	 * @return sizeがちょうどプールする大きさの場合はその番号、それ以外は-1
+	 */
+	private static int exactSizeClass(final int size) {
+		if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1)
+			return -1;
+		return Integer.numberOfTrailingZeros(size) - MIN_SHIFT;
+	}
+
+	private static void track(final Object buf) {
+		if (!leakDetection)
+			return;
+
+		pollLeaks();
+		int hash = System.identityHashCode(buf);
+		synchronized (TRACKERS) {
+			List<Tracker> trackers = TRACKERS.get(hash);
+			if (trackers == null) {
+				trackers = new ArrayList<Tracker>(1);
+				TRACKERS.put(hash, trackers);
+			}
+			trackers.add(new Tracker(buf, hash));
+		}
+	}
+
+	/**
+	 * @return プールに戻してよい場合はtrue(リーク検出が有効で、取得中でないバッファの場合はfalse)
+	 */
+	private static boolean untrack(final Object buf) {
+		if (!leakDetection)
+			return true;
+
+		int hash = System.identityHashCode(buf);
+		synchronized (TRACKERS) {
+			List<Tracker> trackers = TRACKERS.get(hash);
+			if (trackers != null) {
+				for (Iterator<Tracker> it = trackers.iterator(); it.hasNext(); ) {
+					Tracker t = it.next();
+					if (t.get() == buf) {
+						it.remove();
+						t.clear();
+						if (trackers.isEmpty())
+							TRACKERS.remove(hash);
+						return true;
+					}
+				}
+			}
+		}
+		Log.w(TAG, "Released a buffer that is not acquired (double release?).");
+		return false;
+	}
+
+	private static void pollLeaks() {
+		Reference<?> ref;
+		while ((ref = LEAKED.poll()) != null) {
+			Tracker t = (Tracker)ref;
+			synchronized (TRACKERS) {
+				List<Tracker> trackers = TRACKERS.get(t.hash);
+				if (trackers == null || !trackers.remove(t))
+					continue;
+				if (trackers.isEmpty())
+					TRACKERS.remove(t.hash);
+			}
+			leaks.incrementAndGet();
+			Log.w(TAG, "Leaked a buffer.", t.acquired);
+		}
+	}
+
+	private BufferPool() {}
+}
@@ -0,0 +1,88 @@
+/**
+ * 消去できるSecretKey
+ * <p>
+ * {@link SecretKeyCache}がキャッシュから破棄する際に、鍵のバイト列をゼロで埋める。
+ * 消去後にgetEncoded()を呼ぶとIllegalStateExceptionとなり、
+ * ゼロで埋められた鍵で暗号化してしまうことはない。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+final class CachedSecretKey implements SecretKey {
+	private static final long serialVersionUID = 1L;
+
+	private final String algorithm;
+	private final byte[] encoded;
+	private volatile boolean destroyed = false;
+
+	/**
+	 * コンストラクタ
+	 * @param algorithm アルゴリズム名
+	 * @param encoded 鍵のバイト列(コピーせずに保持し、消去時にゼロで埋める)
+	 */
+	CachedSecretKey(final String algorithm, final byte[] encoded) {
+		this.algorithm = algorithm;
+		this.encoded = encoded;
+	}
+
+	@Override
+	public String getAlgorithm() {
+		return this.algorithm;
+	}
+
+	@Override
+	public String getFormat() {
+		return "RAW";
+	}
+
+	@Override
+	public byte[] getEncoded() {
+		byte[] copy = this.encoded.clone();
+		if (this.destroyed) {
+			SecurityUtils.zeroOut(copy);
+			throw new IllegalStateException("Key has been destroyed.");
+		}
+		return copy;
+	}
+
+	/**
+	 * 鍵のバイト列をゼロで埋める
+	 */
+	public void destroy() {
+		this.destroyed = true;
+		SecurityUtils.zeroOut(this.encoded);
+	}
+
+	public boolean isDestroyed() {
+		return this.destroyed;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.encoded) ^ this.algorithm.toLowerCase().hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o)
+			return true;
+		if (!(o instanceof SecretKey))
+			return false;
+
+		SecretKey k = (SecretKey)o;
+		if (this.destroyed || !this.algorithm.equalsIgnoreCase(k.getAlgorithm()))
+			return false;
+		byte[] other = k.getEncoded();
+		try {
+			return MessageDigest.isEqual(this.encoded, other);
+		} finally {
+			if (other != null)
+				SecurityUtils.zeroOut(other);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ * ChaCha20ストリーム暗号(RFC 8439)
+ * <p>
+ * 鍵ストリームを生成して入力とXORする。認証は行わないため、単体では使わず
+ * {@link ChaCha20Poly1305Spi}から利用する。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+final class ChaCha20 {
+
+	/**
+	 * 鍵のバイト数
+	 */
+	static final int KEY_LENGTH = 32;
+
+	/**
+	 * nonceのバイト数
+	 */
+	static final int NONCE_LENGTH = 12;
+
+	/**
+	 * 1ブロックのバイト数
+	 */
+	static final int BLOCK_LENGTH = 64;
+
+	private static final int SIGMA0 = 0x61707865;
+	private static final int SIGMA1 = 0x3320646e;
+	private static final int SIGMA2 = 0x79622d32;
+	private static final int SIGMA3 = 0x6b206574;
+
+	private final int[] state = new int[16];
+	private final byte[] keystream = new byte[BLOCK_LENGTH];
+	private int keystreamPosition = BLOCK_LENGTH;
+
+	/**
+	 * 鍵・nonce・ブロックカウンタの初期値を設定する
+	 * @param key 32バイトの鍵
+	 * @param nonce 12バイトのnonce
+	 * @param counter 最初のブロックのカウンタ値
+	 */
+	void init(final byte[] key, final byte[] nonce, final int counter) {
+		this.state[0] = SIGMA0;
+		this.state[1] = SIGMA1;
+		this.state[2] = SIGMA2;
+		this.state[3] = SIGMA3;
+		for (int i = 0; i < 8; i++)
+			this.state[4 + i] = littleEndian(key, i * 4);
+		this.state[12] = counter;
+		for (int i = 0; i < 3; i++)
+			this.state[13 + i] = littleEndian(nonce, i * 4);
+
+		SecurityUtils.zeroOut(this.keystream);
+		this.keystreamPosition = BLOCK_LENGTH;
+	}
+
+	/**
+	 * 鍵・nonceを消去する
+	 */
+	void clear() {
+		for (int i = 0; i < this.state.length; i++)
+			this.state[i] = 0;
+		SecurityUtils.zeroOut(this.keystream);
+		this.keystreamPosition = BLOCK_LENGTH;
+	}
+
+	/**
+	 * 現在のカウンタ値の鍵ストリーム1ブロックをoutに書き込み、カウンタを進める
+	 * @param out 64バイト以上の配列
+	 */
+	void keyBlock(final byte[] out) {
+		this.nextBlock();
+		System.arraycopy(this.keystream, 0, out, 0, BLOCK_LENGTH);
+		SecurityUtils.zeroOut(this.keystream);
+		this.keystreamPosition = BLOCK_LENGTH;
+	}
+
+	/**
+	 * 入力と鍵ストリームのXORをoutに書き込む
+	 * <p>
+	 * 前回の呼び出しで余った鍵ストリームから続けて使うため、任意の長さに分けて呼び出せる。
+	 * inとoutは同じ配列の同じ位置でもよい。
+	 * </p>
+	 */
+	void xor(final byte[] in, final int offset, final int length,
+					 final byte[] out, final int outOffset) {
+		int i = 0;
+		while (i < length) {
+			if (this.keystreamPosition == BLOCK_LENGTH)
+				this.nextBlock();
+
+			int n = Math.min(length - i, BLOCK_LENGTH - this.keystreamPosition);
+			int k = this.keystreamPosition;
+			for (int j = 0; j < n; j++)
+				out[outOffset + i + j] = (byte)(in[offset + i + j] ^ this.keystream[k + j]);
+			this.keystreamPosition += n;
+			i += n;
+		}
+	}
+
+	private void nextBlock() {
+		final int[] s = this.state;
+		int x0 = s[0], x1 = s[1], x2 = s[2], x3 = s[3];
+		int x4 = s[4], x5 = s[5], x6 = s[6], x7 = s[7];
+		int x8 = s[8], x9 = s[9], x10 = s[10], x11 = s[11];
+		int x12 = s[12], x13 = s[13], x14 = s[14], x15 = s[15];
+
+		for (int i = 0; i < 10; i++) {
+			// column round
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 16);
+			x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 12);
+			x0 += x4; x12 = Integer.rotateLeft(x12 ^ x0, 8);
+			x8 += x12; x4 = Integer.rotateLeft(x4 ^ x8, 7);
+
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 16);
+			x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 12);
+			x1 += x5; x13 = Integer.rotateLeft(x13 ^ x1, 8);
+			x9 += x13; x5 = Integer.rotateLeft(x5 ^ x9, 7);
+
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 16);
+			x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 12);
+			x2 += x6; x14 = Integer.rotateLeft(x14 ^ x2, 8);
+			x10 += x14; x6 = Integer.rotateLeft(x6 ^ x10, 7);
+
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 16);
+			x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 12);
+			x3 += x7; x15 = Integer.rotateLeft(x15 ^ x3, 8);
+			x11 += x15; x7 = Integer.rotateLeft(x7 ^ x11, 7);
+
+			// diagonal round
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 16);
+			x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 12);
+			x0 += x5; x15 = Integer.rotateLeft(x15 ^ x0, 8);
+			x10 += x15; x5 = Integer.rotateLeft(x5 ^ x10, 7);
+
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 16);
+			x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 12);
+			x1 += x6; x12 = Integer.rotateLeft(x12 ^ x1, 8);
+			x11 += x12; x6 = Integer.rotateLeft(x6 ^ x11, 7);
+
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 16);
+			x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 12);
+			x2 += x7; x13 = Integer.rotateLeft(x13 ^ x2, 8);
+			x8 += x13; x7 = Integer.rotateLeft(x7 ^ x8, 7);
+
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 16);
+			x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 12);
+			x3 += x4; x14 = Integer.rotateLeft(x14 ^ x3, 8);
+			x9 += x14; x4 = Integer.rotateLeft(x4 ^ x9, 7);
+		}
+
+		final byte[] k = this.keystream;
+		putLittleEndian(k, 0, x0 + s[0]);
+		putLittleEndian(k, 4, x1 + s[1]);
+		putLittleEndian(k, 8, x2 + s[2]);
+		putLittleEndian(k, 12, x3 + s[3]);
+		putLittleEndian(k, 16, x4 + s[4]);
+		putLittleEndian(k, 20, x5 + s[5]);
+		putLittleEndian(k, 24, x6 + s[6]);
+		putLittleEndian(k, 28, x7 + s[7]);
+		putLittleEndian(k, 32, x8 + s[8]);
+		putLittleEndian(k, 36, x9 + s[9]);
+		putLittleEndian(k, 40, x10 + s[10]);
+		putLittleEndian(k, 44, x11 + s[11]);
+		putLittleEndian(k, 48, x12 + s[12]);
+		putLittleEndian(k, 52, x13 + s[13]);
+		putLittleEndian(k, 56, x14 + s[14]);
+		putLittleEndian(k, 60, x15 + s[15]);
+
+		if (++s[12] == 0)
+			throw new IllegalStateException("ChaCha20 block counter overflow.");
+		this.keystreamPosition = 0;
+	}
+
+	static int littleEndian(final byte[] ba, final int offset) {
+		return (ba[offset] & 0xff)
+			| (ba[offset + 1] & 0xff) << 8
+			| (ba[offset + 2] & 0xff) << 16
+			| (ba[offset + 3] & 0xff) << 24;
+	}
+
+	static void putLittleEndian(final byte[] ba, final int offset, final int v) {
+		ba[offset] = (byte)v;
+		ba[offset + 1] = (byte)(v >>> 8);
+		ba[offset + 2] = (byte)(v >>> 16);
+		ba[offset + 3] = (byte)(v >>> 24);
+	}
+}
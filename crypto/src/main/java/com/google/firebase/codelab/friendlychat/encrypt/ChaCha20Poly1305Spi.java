@@ -0,0 +1,337 @@
+/**
+ * ChaCha20-Poly1305認証付き暗号(RFC 8439)のJava実装
+ * <p>
+ * プラットフォームのプロバイダがChaCha20-Poly1305を提供しない端末向けに、
+ * {@link CryptoProvider}を通して"ChaCha20/Poly1305/NoPadding"として登録される。
+ * AEADBadTagExceptionとengineUpdateAADを使うため、AndroidではAPI 19以降でのみ動作する。
+ * AES命令を持たないCPUでも、テーブル参照を伴うソフトウェア実装のAESより高速に動作し、
+ * キャッシュタイミングによる情報漏洩も起こらない。
+ * </p>
+ * <p>
+ * 暗号化は入力をそのまま逐次処理し、doFinalで認証タグを出力する。
+ * 復号は認証タグを検証するまで平文を返さないため、doFinalまで入力を保持する。
+ * nonceの再利用を防ぐため、暗号化ではdoFinalの後に再度initを呼ぶ必要がある。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.CipherSpi;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+public final class ChaCha20Poly1305Spi extends CipherSpi {
+	private static final byte[] EMPTY = new byte[0];
+
+	private final ChaCha20 chacha = new ChaCha20();
+	private final Poly1305 poly = new Poly1305();
+	private final byte[] lengths = new byte[16];
+
+	private int opmode;
+	private byte[] key;
+	private byte[] nonce;
+	private boolean initialized = false;
+	private boolean aadFinished;
+	private long aadLength;
+	private long dataLength;
+
+	/**
+	 * 復号時に認証タグの検証まで保持する入力
+	 */
+	private byte[] buffer = EMPTY;
+	private int buffered = 0;
+
+	public ChaCha20Poly1305Spi() {
+	}
+
+	@Override
+	protected void engineSetMode(final String mode) throws NoSuchAlgorithmException {
+		if (!"Poly1305".equalsIgnoreCase(mode) && !"NONE".equalsIgnoreCase(mode))
+			throw new NoSuchAlgorithmException("Unsupported mode: " + mode);
+	}
+
+	@Override
+	protected void engineSetPadding(final String padding) throws NoSuchPaddingException {
+		if (!"NoPadding".equalsIgnoreCase(padding))
+			throw new NoSuchPaddingException("Unsupported padding: " + padding);
+	}
+
+	@Override
+	protected int engineGetBlockSize() {
+		return 0;
+	}
+
+	@Override
+	protected int engineGetOutputSize(final int inputLen) {
+		if (this.opmode == Cipher.DECRYPT_MODE)
+			return Math.max(0, this.buffered + inputLen - Poly1305.TAG_LENGTH);
+		return inputLen + Poly1305.TAG_LENGTH;
+	}
+
+	@Override
+	protected byte[] engineGetIV() {
+		return (this.nonce == null) ? null : this.nonce.clone();
+	}
+
+	@Override
+	protected AlgorithmParameters engineGetParameters() {
+		return null;
+	}
+
+	@Override
+	protected int engineGetKeySize(final Key key) throws InvalidKeyException {
+		return checkKey(key).length * 8;
+	}
+
+	@Override
+	protected void engineInit(final int opmode, final Key key,
+														final SecureRandom random) throws InvalidKeyException {
+		if (opmode == Cipher.DECRYPT_MODE)
+			throw new InvalidKeyException("Decryption requires a nonce.");
+
+		byte[] nonce = new byte[ChaCha20.NONCE_LENGTH];
+		((random != null) ? random : new SecureRandom()).nextBytes(nonce);
+		this.init(opmode, key, nonce);
+	}
+
+	@Override
+	protected void engineInit(final int opmode, final Key key,
+														final AlgorithmParameterSpec params,
+														final SecureRandom random)
+		throws InvalidKeyException, InvalidAlgorithmParameterException {
+
+		if (params == null) {
+			this.engineInit(opmode, key, random);
+			return;
+		}
+		if (!(params instanceof IvParameterSpec))
+			throw new InvalidAlgorithmParameterException("IvParameterSpec required.");
+
+		byte[] nonce = ((IvParameterSpec)params).getIV();
+		if (nonce.length != ChaCha20.NONCE_LENGTH)
+			throw new InvalidAlgorithmParameterException(
+				"Nonce must be " + ChaCha20.NONCE_LENGTH + " bytes.");
+		this.init(opmode, key, nonce);
+	}
+
+	@Override
+	protected void engineInit(final int opmode, final Key key,
+														final AlgorithmParameters params,
+														final SecureRandom random)
+		throws InvalidKeyException, InvalidAlgorithmParameterException {
+
+		try {
+			this.engineInit(opmode, key,
+											(params == null) ? null : params.getParameterSpec(IvParameterSpec.class),
+											random);
+
+		} catch (InvalidParameterSpecException exn) {
+			throw new InvalidAlgorithmParameterException(exn);
+		}
+	}
+
+	private void init(final int opmode, final Key key, final byte[] nonce)
+		throws InvalidKeyException {
+
+		if (opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE)
+			throw new UnsupportedOperationException("Unsupported opmode: " + opmode);
+
+		byte[] k = checkKey(key);
+		if (this.key != null)
+			SecurityUtils.zeroOut(this.key);
+
+		this.opmode = opmode;
+		this.key = k;
+		this.nonce = nonce.clone();
+		this.reset();
+	}
+
+	/**
+	 * initの直後の状態に戻す
+	 */
+	private void reset() {
+		byte[] block = new byte[ChaCha20.BLOCK_LENGTH];
+		this.chacha.init(this.key, this.nonce, 0);
+		this.chacha.keyBlock(block);
+		this.poly.init(block);
+		SecurityUtils.zeroOut(block);
+
+		SecurityUtils.zeroOut(this.buffer, 0, this.buffered);
+		this.buffered = 0;
+		this.aadFinished = false;
+		this.aadLength = 0;
+		this.dataLength = 0;
+		this.initialized = true;
+	}
+
+	@Override
+	protected void engineUpdateAAD(final byte[] src, final int offset, final int len) {
+		this.checkInitialized();
+		if (this.aadFinished)
+			throw new IllegalStateException("AAD must be supplied before data.");
+
+		this.poly.update(src, offset, len);
+		this.aadLength += len;
+	}
+
+	@Override
+	protected byte[] engineUpdate(final byte[] input, final int inputOffset,
+																final int inputLen) {
+		this.checkInitialized();
+		if (this.opmode == Cipher.DECRYPT_MODE) {
+			this.append(input, inputOffset, inputLen);
+			return EMPTY;
+		}
+
+		byte[] out = new byte[inputLen];
+		this.encryptUpdate(input, inputOffset, inputLen, out, 0);
+		return out;
+	}
+
+	@Override
+	protected int engineUpdate(final byte[] input, final int inputOffset,
+														 final int inputLen, final byte[] output,
+														 final int outputOffset) throws ShortBufferException {
+		this.checkInitialized();
+		if (this.opmode == Cipher.DECRYPT_MODE) {
+			this.append(input, inputOffset, inputLen);
+			return 0;
+		}
+
+		if (output.length - outputOffset < inputLen)
+			throw new ShortBufferException("Need " + inputLen + " bytes.");
+		this.encryptUpdate(input, inputOffset, inputLen, output, outputOffset);
+		return inputLen;
+	}
+
+	@Override
+	protected byte[] engineDoFinal(final byte[] input, final int inputOffset,
+																 final int inputLen)
+		throws IllegalBlockSizeException, BadPaddingException {
+
+		this.checkInitialized();
+		byte[] out = new byte[this.engineGetOutputSize(inputLen)];
+		try {
+			int n = this.engineDoFinal(input, inputOffset, inputLen, out, 0);
+			return (n == out.length) ? out : Arrays.copyOf(out, n);
+
+		} catch (ShortBufferException exn) {
+			// should not occur.
+			throw new IllegalStateException(exn);
+		}
+	}
+
+	@Override
+	protected int engineDoFinal(final byte[] input, final int inputOffset,
+															final int inputLen, final byte[] output,
+															final int outputOffset)
+		throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+
+		this.checkInitialized();
+		int outputSize = this.engineGetOutputSize(inputLen);
+		if (output.length - outputOffset < outputSize)
+			throw new ShortBufferException("Need " + outputSize + " bytes.");
+
+		if (this.opmode == Cipher.ENCRYPT_MODE) {
+			this.encryptUpdate(input, inputOffset, inputLen, output, outputOffset);
+			this.finishMac(output, outputOffset + inputLen);
+			// 同じnonceで再び暗号化しないよう、initを呼ぶまで使えなくする
+			this.initialized = false;
+			return outputSize;
+		}
+
+		if (this.buffered + inputLen < Poly1305.TAG_LENGTH) {
+			this.reset();
+			throw new AEADBadTagException("Input is shorter than the tag.");
+		}
+		this.append(input, inputOffset, inputLen);
+		int ctLength = this.buffered - Poly1305.TAG_LENGTH;
+
+		this.finishAad();
+		this.poly.update(this.buffer, 0, ctLength);
+		this.dataLength = ctLength;
+		byte[] tag = new byte[Poly1305.TAG_LENGTH];
+		this.finishMac(tag, 0);
+
+		boolean valid = MessageDigest.isEqual(
+			tag, Arrays.copyOfRange(this.buffer, ctLength, this.buffered));
+		if (!valid) {
+			this.reset();
+			throw new AEADBadTagException("Tag mismatch!");
+		}
+
+		this.chacha.xor(this.buffer, 0, ctLength, output, outputOffset);
+		this.reset();
+		return ctLength;
+	}
+
+	private void encryptUpdate(final byte[] input, final int inputOffset,
+														 final int inputLen, final byte[] output,
+														 final int outputOffset) {
+		this.finishAad();
+		this.chacha.xor(input, inputOffset, inputLen, output, outputOffset);
+		this.poly.update(output, outputOffset, inputLen);
+		this.dataLength += inputLen;
+	}
+
+	private void finishAad() {
+		if (!this.aadFinished) {
+			this.poly.pad();
+			this.aadFinished = true;
+		}
+	}
+
+	private void finishMac(final byte[] out, final int offset) {
+		this.finishAad();
+		this.poly.pad();
+		putLong(this.lengths, 0, this.aadLength);
+		putLong(this.lengths, 8, this.dataLength);
+		this.poly.update(this.lengths, 0, this.lengths.length);
+		this.poly.finish(out, offset);
+	}
+
+	private void append(final byte[] input, final int offset, final int length) {
+		if (length == 0)
+			return;
+		if (this.buffered + length > this.buffer.length) {
+			byte[] grown = Arrays.copyOf(this.buffer,
+																	 Math.max(this.buffered + length, this.buffer.length * 2));
+			SecurityUtils.zeroOut(this.buffer, 0, this.buffered);
+			this.buffer = grown;
+		}
+		System.arraycopy(input, offset, this.buffer, this.buffered, length);
+		this.buffered += length;
+	}
+
+	private void checkInitialized() {
+		if (!this.initialized)
+			throw new IllegalStateException("Cipher not initialized.");
+	}
+
+	private static byte[] checkKey(final Key key) throws InvalidKeyException {
+		byte[] encoded = (key == null) ? null : key.getEncoded();
+		if (encoded == null || encoded.length != ChaCha20.KEY_LENGTH)
+			throw new InvalidKeyException("Key must be " + ChaCha20.KEY_LENGTH + " bytes.");
+		return encoded;
+	}
+
+	private static void putLong(final byte[] ba, final int offset, final long v) {
+		ChaCha20.putLittleEndian(ba, offset, (int)v);
+		ChaCha20.putLittleEndian(ba, offset + 4, (int)(v >>> 32));
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * ブロック暗号利用モード
+ * <p>
+ * 詳しくは、<a href="http://csrc.nist.gov/publications/nistpubs/800-38a/sp800-38a.pdf">NISTのドキュメント</a>
+ * 等参照のこと。
+ * </p>
+ */
+
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+/**
+ * @author M.Hashimoto
+ *
+ */
+public enum CipherMode {
+	/**
+	 * Electronic codebook
+	 */
+	ECB,
+
+	/**
+	 * Cipher block chaining
+	 */
+	CBC,
+
+	/**
+	 * Output feedback
+	 */
+	OFB,
+
+	/**
+	 * Cipher feedback
+	 */
+	CFB,
+
+	/**
+	 * Counter
+	 */
+	CTR,
+
+	/**
+	 * Cipher Text Stealing
+	 */
+	CTS,
+
+	/**
+	 * Propagating cipher block chaining
+	 */
+	PCBC,
+
+	/**
+	 * Galois/Counter Mode
+	 * <p>
+	 * 認証付き暗号(AEAD)。暗号化と改竄検知を1回の処理で行う。パディングはNoneを指定すること。
+	 * GCMParameterSpecとCipher.updateAADを使うため、AndroidではAPI 19以降が必要。
+	 * </p>
+	 */
+	GCM,
+
+	/**
+	 * Poly1305
+	 * <p>
+	 * ChaCha20と組み合わせる認証付き暗号(RFC 8439)。ブロック暗号利用モードではないが、
+	 * transformation "ChaCha20/Poly1305/NoPadding" の利用モードの位置に指定する。
+	 * パディングはNoneを指定すること。
+	 * GCMと同じくAndroidではAPI 19以降が必要。
+	 * </p>
+	 */
+	POLY1305;
+}
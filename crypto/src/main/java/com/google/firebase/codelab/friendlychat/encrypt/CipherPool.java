@@ -0,0 +1,109 @@
+/**
+ * Cipherインスタンスのプール
+ * <p>
+ * transformation(アルゴリズム/利用モード/パディング)ごとにCipherを保持し、
+ * Cipher.getInstanceによるプロバイダ検索を毎回行わずに再利用する。
+ * acquire()で取得したCipherは呼び出し元が専有し、使用後にrelease()で返却する。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+
+public class CipherPool {
+	private static final String TAG = "CipherPool";
+
+	/**
+	 * transformationごとに保持するCipherの最大数
+	 */
+	public static final int MAX_IDLE =
+		Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+	private static final ConcurrentMap<String, BlockingQueue<Cipher>> POOLS =
+		new ConcurrentHashMap<String, BlockingQueue<Cipher>>();
+
+	/**
+	 * transformation文字列を組み立てる
+	 * @param algorithm 暗号アルゴリズム名
+	 * @param mode 暗号利用モード
+	 * @param padding パディング
+	 * @return "アルゴリズム/利用モード/パディング"形式の文字列
+	 */
+	public static String transformation(final String algorithm,
+																			final CipherMode mode,
+																			final Padding padding) {
+		return algorithm+"/"+mode+"/"+padding;
+	}
+
+	/**
+	 * プールからCipherを取得する
+	 * <p>
+	 * プールが空の場合は新しいインスタンスを生成する。
+	 * </p>
+	 * @param transformation
+	 * @return 未使用のCipher
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchPaddingException
+	 */
+	public static Cipher acquire(final String transformation)
+		throws NoSuchAlgorithmException, NoSuchPaddingException {
+
+		Cipher cipher = pool(transformation).poll();
+		if (cipher != null)
+			return cipher;
+
+		try {
+			return Cipher.getInstance(transformation);
+
+		} catch (NoSuchAlgorithmException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+
+		} catch (NoSuchPaddingException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		}
+	}
+
+	/**
+	 * Cipherをプールに返却する
+	 * <p>
+	 * プールが上限に達している場合は破棄する。
+	 * </p>
+	 * @param cipher acquire()で取得したCipher(nullの場合は何もしない)
+	 */
+	public static void release(final Cipher cipher) {
+		if (cipher == null)
+			return;
+
+		// getAlgorithm()はgetInstance()に渡したtransformationをそのまま返す
+		pool(cipher.getAlgorithm()).offer(cipher);
+	}
+
+	/**
+	 * プールに保持しているCipherを全て破棄する
+	 */
+	public static void clear() {
+		POOLS.clear();
+	}
+
+	private static BlockingQueue<Cipher> pool(final String transformation) {
+		BlockingQueue<Cipher> pool = POOLS.get(transformation);
+		if (pool == null) {
+			BlockingQueue<Cipher> created = new ArrayBlockingQueue<Cipher>(MAX_IDLE);
+			pool = POOLS.putIfAbsent(transformation, created);
+			if (pool == null)
+				pool = created;
+		}
+		return pool;
+	}
+
+	private CipherPool() {}
+}
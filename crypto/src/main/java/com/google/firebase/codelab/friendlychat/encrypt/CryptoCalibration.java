@@ -0,0 +1,615 @@
+/**
+ * 暗号方式・ハッシュアルゴリズムの実測による選択
+ * <p>
+ * 利用可能な暗号アルゴリズム・利用モード・パディングの組み合わせと、ハッシュアルゴリズムの
+ * 処理速度を短時間ずつ計測し、推奨される方式のうち最も速いものを選ぶ。
+ * </p>
+ * <p>
+ * 選んだ方式は{@link #newPreferredCipher()}・{@link #newPreferredHash()}で使えるが、
+ * {@link SymmetricCipher}と{@link Hash}の標準設定は変更しない。
+ * 暗号文には方式が記録されないため、標準設定を変えると保存済みのデータを復号できなくなるからである。
+ * 選んだ方式で保存するデータを暗号化する場合は、{@link CipherChoice#toString()}を暗号文と共に保存し、
+ * 復号の際は{@link CipherChoice#parse(String)}で同じ方式を作ること。
+ * </p>
+ * <p>
+ * 計測結果は端末・JVM・セキュリティプロバイダの構成から求めたフィンガープリントと共にファイルに保存し、
+ * 構成が変わらない限り次回以降は計測せずに読み込んだ結果を使う。
+ * 起動を遅くしないよう、{@link #calibrateAsync(File)}で優先度の低いスレッドで実行すること。
+ * 結果が得られるまでは標準設定の方式が使われる。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import javax.crypto.SecretKey;
+
+public class CryptoCalibration {
+	private static final String TAG = "CryptoCalibration";
+
+	/**
+	 * 計測結果を保存するファイル名
+	 */
+	public static final String CACHE_FILE_NAME = "crypto-calibration.properties";
+
+	/**
+	 * 保存形式や計測方法を変えた場合に増やす(保存済みの結果は無効になる)
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * 1回の処理で扱うバイト数
+	 */
+	private static final int DATA_LENGTH = 16 * 1024;
+
+	/**
+	 * 1つの組み合わせにかける計測時間
+	 */
+	private static final long MEASURE_NANOS = 5L * 1000 * 1000;
+
+	/**
+	 * 計測の繰り返し回数(全ての組み合わせを一巡してから繰り返し、最も速かった回を採る)
+	 */
+	private static final int MEASURE_ROUNDS = 2;
+
+	/**
+	 * フィンガープリントに含めるシステムプロパティ
+	 */
+	private static final String[] FINGERPRINT_PROPERTIES = {
+		"java.vm.name", "java.vm.version", "java.version",
+		"os.name", "os.version", "os.arch",
+	};
+
+	/**
+	 * 標準設定に選べる暗号方式
+	 * <p>
+	 * 計測は利用可能な全ての組み合わせに対して行うが、DES・ECBなどの安全でない方式は選ばない。
+	 * </p>
+	 */
+	private static final CipherChoice[] RECOMMENDED_CIPHERS = {
+		new CipherChoice(SymmetricCipher.Algorithm.AES, CipherMode.GCM, Padding.None, 128),
+		new CipherChoice(SymmetricCipher.Algorithm.CHACHA20, CipherMode.POLY1305, Padding.None, 256),
+		new CipherChoice(SymmetricCipher.Algorithm.AES, CipherMode.CBC, Padding.PKCS5, 128),
+	};
+
+	/**
+	 * 標準設定に選べるハッシュアルゴリズム(SHA-1・MD5は選ばない)
+	 */
+	private static final Hash.Algorithm[] RECOMMENDED_HASHES = {
+		Hash.Algorithm.SHA256, Hash.Algorithm.SHA384, Hash.Algorithm.SHA512,
+	};
+
+	private static volatile Result result;
+
+	/**
+	 * 暗号アルゴリズム・利用モード・パディング・鍵サイズの組み合わせ
+	 */
+	public static final class CipherChoice {
+		private final SymmetricCipher.Algorithm algorithm;
+		private final CipherMode mode;
+		private final Padding padding;
+		private final int keySize;
+
+		CipherChoice(final SymmetricCipher.Algorithm algorithm, final CipherMode mode,
+								 final Padding padding, final int keySize) {
+			this.algorithm = algorithm;
+			this.mode = mode;
+			this.padding = padding;
+			this.keySize = keySize;
+		}
+
+		public SymmetricCipher.Algorithm getAlgorithm() {
+			return this.algorithm;
+		}
+
+		public CipherMode getCipherMode() {
+			return this.mode;
+		}
+
+		public Padding getPadding() {
+			return this.padding;
+		}
+
+		public int getKeySize() {
+			return this.keySize;
+		}
+
+		/**
+		 * この組み合わせのSymmetricCipherを作る
+		 * @return SymmetricCipher
+		 * @throws GeneralSecurityException
+		 */
+		public SymmetricCipher newCipher() throws GeneralSecurityException {
+			return new SymmetricCipher(this.algorithm, this.mode, this.padding, this.keySize);
+		}
+
+		/**
+		 * {@link #toString()}の形式の文字列から組み合わせを作る
+		 * @param s {@link #toString()}で得た文字列
+		 * @return 組み合わせ
+		 * @exception IllegalArgumentException 形式が不正な場合
+		 */
+		public static CipherChoice parse(final String s) {
+			String[] a = s.split("/");
+			if (a.length != 4)
+				throw new IllegalArgumentException("Invalid cipher choice: " + s);
+			return new CipherChoice(SymmetricCipher.Algorithm.valueOf(a[0]),
+															CipherMode.valueOf(a[1]),
+															Padding.valueOf(a[2]),
+															Integer.parseInt(a[3]));
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof CipherChoice))
+				return false;
+			CipherChoice c = (CipherChoice)o;
+			return this.algorithm == c.algorithm && this.mode == c.mode
+				&& this.padding == c.padding && this.keySize == c.keySize;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.toString().hashCode();
+		}
+
+		/**
+		 * @return "アルゴリズム/利用モード/パディング/鍵サイズ"形式の文字列(列挙型の名前を使う)
+		 */
+		@Override
+		public String toString() {
+			return this.algorithm.name() + "/" + this.mode.name() + "/"
+				+ this.padding.name() + "/" + this.keySize;
+		}
+	}
+
+	/**
+	 * 計測結果
+	 */
+	public static final class Result {
+		private final String fingerprint;
+		private final Map<CipherChoice, Double> ciphers;
+		private final Map<Hash.Algorithm, Double> hashes;
+		private final CipherChoice defaultCipher;
+		private final Hash.Algorithm defaultHash;
+
+		Result(final String fingerprint, final Map<CipherChoice, Double> ciphers,
+					 final Map<Hash.Algorithm, Double> hashes) {
+			this.fingerprint = fingerprint;
+			this.ciphers = Collections.unmodifiableMap(ciphers);
+			this.hashes = Collections.unmodifiableMap(hashes);
+			this.defaultCipher = fastest(RECOMMENDED_CIPHERS, ciphers);
+			this.defaultHash = fastest(RECOMMENDED_HASHES, hashes);
+		}
+
+		/**
+		 * @return 計測した環境のフィンガープリント
+		 */
+		public String getFingerprint() {
+			return this.fingerprint;
+		}
+
+		/**
+		 * @return 組み合わせごとの暗号化の処理速度(バイト/秒)
+		 */
+		public Map<CipherChoice, Double> getCipherThroughputs() {
+			return this.ciphers;
+		}
+
+		/**
+		 * @return アルゴリズムごとのハッシュ値計算の処理速度(バイト/秒)
+		 */
+		public Map<Hash.Algorithm, Double> getHashThroughputs() {
+			return this.hashes;
+		}
+
+		/**
+		 * @return 選ばれた暗号方式(推奨される方式がどれも利用できない場合はnull)
+		 */
+		public CipherChoice getDefaultCipher() {
+			return this.defaultCipher;
+		}
+
+		/**
+		 * @return 選ばれたハッシュアルゴリズム(推奨されるアルゴリズムがどれも利用できない場合はnull)
+		 */
+		public Hash.Algorithm getDefaultHash() {
+			return this.defaultHash;
+		}
+
+		/**
+		 * 選ばれた方式を{@link AeadProbe}に記録してログに出力する
+		 * <p>
+		 * {@link SymmetricCipher}と{@link Hash}の標準設定は変更しない。
+		 * </p>
+		 */
+		public void apply() {
+			Double aes = this.ciphers.get(RECOMMENDED_CIPHERS[0]);
+			Double chacha = this.ciphers.get(RECOMMENDED_CIPHERS[1]);
+			if (aes != null || chacha != null) {
+				double a = (aes == null) ? 0 : aes;
+				double c = (chacha == null) ? 0 : chacha;
+				CipherChoice aead = (c > a) ? RECOMMENDED_CIPHERS[1] : RECOMMENDED_CIPHERS[0];
+				AeadProbe.record(new AeadProbe.Result(aead.algorithm, aead.mode, aead.keySize, a, c));
+			}
+			Log.i(TAG, "Preferred: cipher " + this.defaultCipher + ", hash " + this.defaultHash);
+		}
+
+		private static <T> T fastest(final T[] candidates, final Map<T, Double> throughputs) {
+			T best = null;
+			double bestThroughput = 0;
+			for (T c : candidates) {
+				Double t = throughputs.get(c);
+				if (t != null && t > bestThroughput) {
+					best = c;
+					bestThroughput = t;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * 保存済みの計測結果を読み込むか、無ければ計測して保存する
+	 * <p>
+	 * 計測には1秒程度かかることがあるため、UIスレッドからは呼ばないこと。
+	 * </p>
+	 * @param cacheDir 計測結果を保存するディレクトリ(nullの場合は保存しない)
+	 * @return 計測結果
+	 */
+	public static Result calibrate(final File cacheDir) {
+		// プロバイダの構成はフィンガープリントに含まれるため、計測前に登録しておく
+		CryptoProvider.install();
+		String fingerprint = fingerprint();
+		File file = (cacheDir == null) ? null : new File(cacheDir, CACHE_FILE_NAME);
+
+		Result r = (file == null) ? null : load(file, fingerprint);
+		if (r == null) {
+			r = measure(fingerprint);
+			if (file != null)
+				store(file, r);
+		}
+
+		r.apply();
+		result = r;
+		return r;
+	}
+
+	/**
+	 * 優先度の低い共有スレッドで{@link #calibrate(File)}を実行する
+	 * @param cacheDir 計測結果を保存するディレクトリ(nullの場合は保存しない)
+	 * @return 計測結果のFuture
+	 */
+	public static Future<Result> calibrateAsync(final File cacheDir) {
+		return CryptoExecutors.background().submit(new Callable<Result>() {
+				@Override
+				public Result call() {
+					return calibrate(cacheDir);
+				}
+			});
+	}
+
+	/**
+	 * @return 計測結果(未計測の場合はnull)
+	 */
+	public static Result getResult() {
+		return result;
+	}
+
+	/**
+	 * 計測で選ばれた暗号方式を返す
+	 * @return 選ばれた暗号方式(未計測の場合や選べなかった場合は標準設定の方式)
+	 */
+	public static CipherChoice getPreferredCipher() {
+		Result r = result;
+		if (r != null && r.getDefaultCipher() != null)
+			return r.getDefaultCipher();
+		return new CipherChoice(SymmetricCipher.DEFAULT_ALGORITHM, SymmetricCipher.DEFAULT_CIPHER_MODE,
+														SymmetricCipher.DEFAULT_PADDING, SymmetricCipher.DEFAULT_KEY_SIZE);
+	}
+
+	/**
+	 * 計測で選ばれた暗号方式のSymmetricCipherを作る
+	 * <p>
+	 * 保存するデータに使う場合は、{@link #getPreferredCipher()}の文字列表現も保存すること。
+	 * </p>
+	 * @return SymmetricCipher
+	 * @throws GeneralSecurityException
+	 */
+	public static SymmetricCipher newPreferredCipher() throws GeneralSecurityException {
+		return getPreferredCipher().newCipher();
+	}
+
+	/**
+	 * 計測で選ばれたハッシュアルゴリズムのHashを作る
+	 * @return Hash(未計測の場合や選べなかった場合は{@link Hash#DEFAULT_ALGORITHM})
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static Hash newPreferredHash() throws NoSuchAlgorithmException {
+		Result r = result;
+		if (r != null && r.getDefaultHash() != null)
+			return new Hash(r.getDefaultHash());
+		return new Hash(Hash.DEFAULT_ALGORITHM);
+	}
+
+	/**
+	 * 計測する
+	 * @param fingerprint 計測する環境のフィンガープリント
+	 * @return 計測結果
+	 */
+	static Result measure(final String fingerprint) {
+		Map<CipherChoice, Candidate> candidates = new LinkedHashMap<CipherChoice, Candidate>();
+		Set<String> available = SecurityUtils.getAvailableCipherAlgorithms();
+		for (SymmetricCipher.Algorithm algo : SymmetricCipher.Algorithm.values()) {
+			if (algo != SymmetricCipher.Algorithm.CHACHA20 && !available.contains(algo.name()))
+				continue;
+			for (CipherMode mode : CipherMode.values())
+				for (Padding padding : Padding.values())
+					if (isApplicable(algo, mode, padding)) {
+						CipherChoice choice = new CipherChoice(algo, mode, padding, keySize(algo));
+						Candidate c = Candidate.create(choice);
+						if (c != null)
+							candidates.put(choice, c);
+					}
+		}
+
+		Map<CipherChoice, Double> ciphers = new LinkedHashMap<CipherChoice, Double>();
+		Map<Hash.Algorithm, Double> hashes =
+			new EnumMap<Hash.Algorithm, Double>(Hash.Algorithm.class);
+		byte[] data = new byte[DATA_LENGTH];
+		for (int i = 0; i < MEASURE_ROUNDS; i++) {
+			for (Map.Entry<CipherChoice, Candidate> e : candidates.entrySet())
+				max(ciphers, e.getKey(), e.getValue().measure());
+
+			for (Hash.Algorithm algo : Hash.Algorithm.values())
+				max(hashes, algo, measureHash(algo, data));
+		}
+
+		return new Result(fingerprint, ciphers, hashes);
+	}
+
+	private static <K> void max(final Map<K, Double> map, final K key, final double value) {
+		if (value <= 0)
+			return;
+		Double v = map.get(key);
+		if (v == null || v < value)
+			map.put(key, value);
+	}
+
+	/**
+	 * 組み合わせとして意味があるかどうかを返す(非対称暗号用のパディングなどを除く)
+	 */
+	private static boolean isApplicable(final SymmetricCipher.Algorithm algo,
+																			final CipherMode mode, final Padding padding) {
+		if (padding != Padding.None && padding != Padding.PKCS5 && padding != Padding.ISO10126)
+			return false;
+		if ((algo == SymmetricCipher.Algorithm.CHACHA20) != (mode == CipherMode.POLY1305))
+			return false;
+
+		switch (mode) {
+		case GCM:
+			return algo == SymmetricCipher.Algorithm.AES && padding == Padding.None;
+		case POLY1305:
+		case CTR:
+		case CTS:
+			return padding == Padding.None;
+		default:
+			return true;
+		}
+	}
+
+	private static int keySize(final SymmetricCipher.Algorithm algo) {
+		switch (algo) {
+		case CHACHA20:
+			return 256;
+		case DES:
+			return 56;
+		default:
+			return 128;
+		}
+	}
+
+	/**
+	 * ハッシュ値計算の処理速度を計測する
+	 * @return バイト/秒(利用できない場合は0)
+	 */
+	private static double measureHash(final Hash.Algorithm algo, final byte[] data) {
+		Hash hash;
+		try {
+			hash = new Hash(algo);
+		} catch (GeneralSecurityException exn) {
+			return 0;
+		}
+
+		long start = System.nanoTime();
+		long deadline = start + MEASURE_NANOS;
+		long bytes = 0;
+		long now;
+		do {
+			hash.valueOf(data);
+			bytes += data.length;
+			now = System.nanoTime();
+		} while (now < deadline);
+		return bytes * 1e9 / (now - start);
+	}
+
+	/**
+	 * 計測対象の暗号方式
+	 */
+	private static final class Candidate {
+		private final SymmetricCipher cipher;
+		private final SecretKey key;
+		private final ByteBuffer src = ByteBuffer.allocate(DATA_LENGTH);
+		private final ByteBuffer dst;
+
+		private Candidate(final SymmetricCipher cipher, final SecretKey key) {
+			this.cipher = cipher;
+			this.key = key;
+			this.dst = ByteBuffer.allocate(cipher.getEncryptOutputSize(DATA_LENGTH));
+		}
+
+		/**
+		 * @return 計測対象(利用できない場合はnull)
+		 */
+		static Candidate create(final CipherChoice choice) {
+			try {
+				SymmetricCipher cipher = choice.newCipher();
+				Candidate c = new Candidate(cipher, cipher.generateKey());
+				c.encrypt();
+				return c;
+
+			} catch (GeneralSecurityException exn) {
+				Log.w(TAG, choice + ": " + exn.getMessage());
+				return null;
+
+			} catch (LinkageError exn) {
+				// API 19より前のAndroidではGCMParameterSpecなどが無い
+				Log.w(TAG, choice + ": " + exn);
+				return null;
+			}
+		}
+
+		/**
+		 * 暗号化の処理速度を計測する
+		 * @return バイト/秒(失敗した場合は0)
+		 */
+		double measure() {
+			try {
+				long start = System.nanoTime();
+				long deadline = start + MEASURE_NANOS;
+				long bytes = 0;
+				long now;
+				do {
+					this.encrypt();
+					bytes += DATA_LENGTH;
+					now = System.nanoTime();
+				} while (now < deadline);
+				return bytes * 1e9 / (now - start);
+
+			} catch (GeneralSecurityException exn) {
+				Log.w(TAG, exn.getMessage());
+				return 0;
+			}
+		}
+
+		private void encrypt() throws GeneralSecurityException {
+			this.src.clear();
+			this.dst.clear();
+			this.cipher.encrypt(this.src, this.dst, this.key);
+		}
+	}
+
+	/**
+	 * 計測結果に影響する環境のフィンガープリントを求める
+	 * <p>
+	 * JVM・OS・CPU数・セキュリティプロバイダの構成が変わると値が変わる。
+	 * </p>
+	 * @return フィンガープリント
+	 */
+	static String fingerprint() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("format=").append(FORMAT_VERSION).append('\n');
+		for (String key : FINGERPRINT_PROPERTIES)
+			sb.append(key).append('=').append(System.getProperty(key)).append('\n');
+		sb.append("processors=").append(Runtime.getRuntime().availableProcessors()).append('\n');
+		for (Provider p : Security.getProviders())
+			sb.append("provider=").append(p.getName()).append(' ').append(p.getVersion()).append('\n');
+		return SecurityUtils.generateHash(sb.toString());
+	}
+
+	/**
+	 * 保存済みの計測結果を読み込む
+	 * @return 計測結果(無い場合、フィンガープリントが異なる場合、形式が不正な場合はnull)
+	 */
+	static Result load(final File file, final String fingerprint) {
+		if (!file.exists())
+			return null;
+
+		Properties props = new Properties();
+		FileInputStream fis = null;
+		try {
+			fis = new FileInputStream(file);
+			props.load(fis);
+
+		} catch (IOException exn) {
+			Log.w(TAG, exn.getMessage());
+			return null;
+
+		} finally {
+			SecurityUtils.closeSilently(fis);
+		}
+
+		if (!fingerprint.equals(props.getProperty("fingerprint")))
+			return null;
+
+		try {
+			Map<CipherChoice, Double> ciphers = new LinkedHashMap<CipherChoice, Double>();
+			Map<Hash.Algorithm, Double> hashes =
+				new EnumMap<Hash.Algorithm, Double>(Hash.Algorithm.class);
+			for (String name : props.stringPropertyNames()) {
+				if (name.startsWith("cipher."))
+					ciphers.put(CipherChoice.parse(name.substring("cipher.".length())),
+											Double.valueOf(props.getProperty(name)));
+				else if (name.startsWith("hash."))
+					hashes.put(Hash.Algorithm.valueOf(name.substring("hash.".length())),
+										 Double.valueOf(props.getProperty(name)));
+			}
+			return new Result(fingerprint, ciphers, hashes);
+
+		} catch (IllegalArgumentException exn) {
+			Log.w(TAG, exn.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * 計測結果を保存する
+	 * <p>
+	 * 一時ファイルに書き込んでから置き換えるため、書き込み途中の内容が読まれることはない。
+	 * </p>
+	 */
+	static void store(final File file, final Result r) {
+		Properties props = new Properties();
+		props.setProperty("fingerprint", r.fingerprint);
+		for (Map.Entry<CipherChoice, Double> e : r.ciphers.entrySet())
+			props.setProperty("cipher." + e.getKey(), e.getValue().toString());
+		for (Map.Entry<Hash.Algorithm, Double> e : r.hashes.entrySet())
+			props.setProperty("hash." + e.getKey().name(), e.getValue().toString());
+
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fos = null;
+		try {
+			fos = new FileOutputStream(tmp);
+			props.store(fos, "crypto calibration");
+			fos.close();
+			fos = null;
+			if (!tmp.renameTo(file))
+				throw new IOException("Cannot rename " + tmp + " to " + file);
+
+		} catch (IOException exn) {
+			Log.w(TAG, exn.getMessage());
+			tmp.delete();
+
+		} finally {
+			SecurityUtils.closeSilently(fos);
+		}
+	}
+
+	private CryptoCalibration() {}
+}
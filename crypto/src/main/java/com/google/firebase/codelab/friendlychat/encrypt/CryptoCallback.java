@@ -0,0 +1,23 @@
+/**
+ * 非同期の暗号処理の結果を受け取るコールバック
+ * <p>
+ * encryptAsync()などに渡したExecutor上で、どちらか一方が一度だけ呼ばれる。
+ * 呼ばれる前に処理をキャンセルした場合はどちらも呼ばれない。
+ * </p>
+ * @param <V> 結果の型
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+public interface CryptoCallback<V> {
+	/**
+	 * 処理が成功した
+	 * @param result 結果
+	 */
+	void onSuccess(V result);
+
+	/**
+	 * 処理が失敗した
+	 * @param tr 処理が投げた例外(実行待ちが一杯で受け付けられなかった場合はRejectedExecutionException)
+	 */
+	void onFailure(Throwable tr);
+}
@@ -0,0 +1,203 @@
+/**
+ * 暗号処理を並列実行するスレッドプール
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CryptoExecutors {
+	private static final String TAG = "CryptoExecutors";
+
+	/**
+	 * 並列実行するスレッド数(CPUのコア数)
+	 */
+	public static final int PARALLELISM =
+		Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * {@link #async()}で実行を待てるタスクの数
+	 */
+	public static final int ASYNC_QUEUE_CAPACITY = 256;
+
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static volatile ExecutorService computation;
+
+	private static volatile ExecutorService background;
+
+	private static volatile ExecutorService async;
+
+	/**
+	 * CPU処理向けの共有スレッドプールを返す
+	 * <p>
+	 * スレッド数は{@link #PARALLELISM}で、一定時間使われないスレッドは終了する。
+	 * このプールで実行するタスクから、同じプールに投入した別のタスクの完了を待たないこと。
+	 * </p>
+	 * @return ExecutorService
+	 */
+	public static ExecutorService computation() {
+		ExecutorService executor = computation;
+		if (executor == null) {
+			synchronized (CryptoExecutors.class) {
+				executor = computation;
+				if (executor == null) {
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(
+						PARALLELISM, PARALLELISM,
+						KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>(),
+						new CryptoThreadFactory("crypto-computation-"));
+					pool.allowCoreThreadTimeOut(true);
+					computation = executor = pool;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * 急がない処理向けの共有スレッドを返す
+	 * <p>
+	 * 優先度の低い1つのスレッドで順に実行するため、計測や事前計算などを
+	 * UIや他の暗号処理の妨げにならないように実行できる。
+	 * </p>
+	 * @return ExecutorService
+	 */
+	public static ExecutorService background() {
+		ExecutorService executor = background;
+		if (executor == null) {
+			synchronized (CryptoExecutors.class) {
+				executor = background;
+				if (executor == null) {
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(
+						1, 1,
+						KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>(),
+						new CryptoThreadFactory("crypto-background-", Thread.MIN_PRIORITY));
+					pool.allowCoreThreadTimeOut(true);
+					background = executor = pool;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * 非同期APIの処理向けの共有スレッドプールを返す
+	 * <p>
+	 * スレッド数は{@link #PARALLELISM}で、実行を待てるタスクは{@link #ASYNC_QUEUE_CAPACITY}まで。
+	 * それを超えて投入するとRejectedExecutionExceptionとなる。
+	 * 処理の中で{@link #computation()}を使って並列化してもよいよう、computation()とは別のスレッドで実行する。
+	 * </p>
+	 * @return ExecutorService
+	 */
+	public static ExecutorService async() {
+		ExecutorService executor = async;
+		if (executor == null) {
+			synchronized (CryptoExecutors.class) {
+				executor = async;
+				if (executor == null) {
+					ThreadPoolExecutor pool = new ThreadPoolExecutor(
+						PARALLELISM, PARALLELISM,
+						KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE_CAPACITY),
+						new CryptoThreadFactory("crypto-async-"));
+					pool.allowCoreThreadTimeOut(true);
+					async = executor = pool;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * {@link #async()}で処理を実行し、結果をコールバックに渡す
+	 * <p>
+	 * 実行待ちが一杯で受け付けられなかった場合も例外は投げず、
+	 * RejectedExecutionExceptionで失敗したFutureを返す(コールバックにも渡す)。
+	 * 返したFutureのcancel(true)で、実行前の処理は取り消し、実行中の処理には割り込む。
+	 * </p>
+	 * @param callable 処理
+	 * @param callbackExecutor コールバックを呼ぶExecutor(nullの場合は処理したスレッドで呼ぶ)
+	 * @param callback コールバック(nullの場合は呼ばない)
+	 * @return 処理結果のFuture
+	 */
+	static <V> Future<V> submitAsync(final Callable<V> callable,
+																	 final Executor callbackExecutor,
+																	 final CryptoCallback<? super V> callback) {
+		CryptoTask<V> task = new CryptoTask<V>(callable, callbackExecutor, callback);
+		try {
+			async().execute(task);
+		} catch (RejectedExecutionException exn) {
+			Log.w(TAG, "Too many pending crypto tasks.");
+			task.reject(exn);
+		}
+		return task;
+	}
+
+	/**
+	 * Futureの完了を待ち、例外をIOExceptionに変換して返す
+	 * @param future
+	 * @return 結果
+	 * @throws IOException タスクがIOExceptionを投げた場合、または待機中に割り込まれた場合
+	 */
+	static <T> T await(final Future<T> future) throws IOException {
+		try {
+			return future.get();
+
+		} catch (InterruptedException exn) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(exn.getMessage());
+
+		} catch (ExecutionException exn) {
+			Throwable cause = exn.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * 名前付きのデーモンスレッドを生成するThreadFactory
+	 */
+	static class CryptoThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final int priority;
+		private final AtomicInteger count = new AtomicInteger();
+
+		CryptoThreadFactory(final String prefix) {
+			this(prefix, Thread.NORM_PRIORITY);
+		}
+
+		CryptoThreadFactory(final String prefix, final int priority) {
+			this.prefix = prefix;
+			this.priority = priority;
+		}
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			Thread t = new Thread(r, this.prefix + this.count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(this.priority);
+			return t;
+		}
+	}
+
+	private CryptoExecutors() {}
+}
@@ -0,0 +1,27 @@
+/**
+ * 暗号処理のログの出力先
+ * <p>
+ * {@link CryptoPlatform#setLogger(CryptoLogger)}で設定する。
+ * 優先度の値はandroid.util.Logと同じ。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+public interface CryptoLogger {
+	int DEBUG = 3;
+	int INFO = 4;
+	int WARN = 5;
+	int ERROR = 6;
+
+	/**
+	 * ログを出力する
+	 * <p>
+	 * 暗号処理を行う任意のスレッドから呼ばれる。
+	 * </p>
+	 * @param priority 優先度({@link #DEBUG}, {@link #INFO}, {@link #WARN}, {@link #ERROR})
+	 * @param tag タグ
+	 * @param msg メッセージ(nullの場合がある)
+	 * @param tr 例外(無い場合はnull)
+	 */
+	void log(int priority, String tag, String msg, Throwable tr);
+}
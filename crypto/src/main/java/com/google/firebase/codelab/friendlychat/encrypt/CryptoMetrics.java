@@ -0,0 +1,391 @@
+/**
+ * 暗号処理の計測値
+ * <p>
+ * アルゴリズム・利用モード・操作(暗号化、復号、ハッシュ計算、鍵生成)の組み合わせごとに、
+ * 回数・処理したバイト数・所要時間の合計と、所要時間のヒストグラムを記録する。
+ * ヒストグラムは2のべき乗ナノ秒ごとの区間で数える。
+ * </p>
+ * <p>
+ * 記録はスレッドごとに分けたカウンタに加算するため、複数スレッドから同時に記録しても競合しない。
+ * {@link #snapshot()}は全カウンタを合計した値を返す。
+ * 記録中に取得したスナップショットや{@link #reset()}は、その時点で実行中の記録を含むことも含まないこともある。
+ * </p>
+ * <p>
+ * 計測の対象は結果をその場で返す操作(バイト列・ByteBuffer・ファイルの暗号化と復号、ハッシュ計算、鍵生成)。
+ * 読み出し・書き込みに応じて処理するストリームは対象外。
+ * 失敗した操作は記録しない。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class CryptoMetrics {
+	/**
+	 * 操作
+	 */
+	public enum Operation {
+		ENCRYPT,
+		DECRYPT,
+		HASH,
+		KEYGEN;
+	}
+
+	/**
+	 * ヒストグラムの区間数(区間iは2^i以上2^(i+1)未満のナノ秒)
+	 */
+	public static final int HISTOGRAM_BUCKETS = 64;
+
+	private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+	private static final int COUNT = 0;
+	private static final int BYTES = 1;
+	private static final int NANOS = 2;
+	private static final int HISTOGRAM = 3;
+	/**
+	 * ストライプ1つあたりの要素数
+	 * (隣のストライプと同じキャッシュラインを共有しないよう、使う要素数より8以上多くする)
+	 */
+	private static final int STRIDE = 80;
+
+	private static final ConcurrentMap<String, Recorder> RECORDERS =
+		new ConcurrentHashMap<String, Recorder>();
+
+	private static volatile boolean enabled = true;
+
+	private CryptoMetrics() {
+	}
+
+	/**
+	 * アルゴリズム・利用モード・操作の組み合わせごとの記録先
+	 */
+	static final class Recorder {
+		private final String algorithm;
+		private final String mode;
+		private final Operation operation;
+		private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+
+		private Recorder(final String algorithm, final String mode,
+										 final Operation operation) {
+			this.algorithm = algorithm;
+			this.mode = mode;
+			this.operation = operation;
+		}
+
+		/**
+		 * 成功した操作を1回記録する
+		 * @param bytes 処理した入力のバイト数
+		 * @param nanos 所要時間(ナノ秒)
+		 */
+		void record(final long bytes, final long nanos) {
+			if (!enabled)
+				return;
+
+			int base = stripe() * STRIDE;
+			this.cells.incrementAndGet(base + COUNT);
+			this.cells.addAndGet(base + BYTES, bytes);
+			this.cells.addAndGet(base + NANOS, nanos);
+			this.cells.incrementAndGet(base + HISTOGRAM + bucket(nanos));
+		}
+
+		/**
+		 * まとめて処理した複数の操作を記録する
+		 * <p>
+		 * 個々の所要時間は計らず、平均の所要時間をヒストグラムに記録する。
+		 * 小さなデータを多数処理する場合に、1件ごとの時刻の取得を避けるために使う。
+		 * </p>
+		 * @param count 操作の回数
+		 * @param bytes 処理した入力のバイト数の合計
+		 * @param nanos 所要時間の合計(ナノ秒)
+		 */
+		void recordBatch(final int count, final long bytes, final long nanos) {
+			if (!enabled || count <= 0)
+				return;
+
+			int base = stripe() * STRIDE;
+			this.cells.addAndGet(base + COUNT, count);
+			this.cells.addAndGet(base + BYTES, bytes);
+			this.cells.addAndGet(base + NANOS, nanos);
+			this.cells.addAndGet(base + HISTOGRAM + bucket(nanos / count), count);
+		}
+
+		private Entry sum() {
+			long count = 0, bytes = 0, nanos = 0;
+			long[] histogram = new long[HISTOGRAM_BUCKETS];
+			for (int s = 0; s < STRIPES; s++) {
+				int base = s * STRIDE;
+				count += this.cells.get(base + COUNT);
+				bytes += this.cells.get(base + BYTES);
+				nanos += this.cells.get(base + NANOS);
+				for (int i = 0; i < HISTOGRAM_BUCKETS; i++)
+					histogram[i] += this.cells.get(base + HISTOGRAM + i);
+			}
+			return new Entry(this.algorithm, this.mode, this.operation,
+											 count, bytes, nanos, histogram);
+		}
+
+		private void reset() {
+			for (int i = 0; i < this.cells.length(); i++)
+				this.cells.set(i, 0);
+		}
+	}
+
+	/**
+	 * ある組み合わせの計測値
+	 */
+	public static final class Entry {
+		private final String algorithm;
+		private final String mode;
+		private final Operation operation;
+		private final long count;
+		private final long bytes;
+		private final long totalNanos;
+		private final long[] histogram;
+
+		Entry(final String algorithm, final String mode, final Operation operation,
+					final long count, final long bytes, final long totalNanos,
+					final long[] histogram) {
+			this.algorithm = algorithm;
+			this.mode = mode;
+			this.operation = operation;
+			this.count = count;
+			this.bytes = bytes;
+			this.totalNanos = totalNanos;
+			this.histogram = histogram;
+		}
+
+		/**
+		 * @return アルゴリズム名
+		 */
+		public String getAlgorithm() {
+			return this.algorithm;
+		}
+
+		/**
+		 * @return 利用モード(ハッシュ計算の場合はnull)
+		 */
+		public String getMode() {
+			return this.mode;
+		}
+
+		public Operation getOperation() {
+			return this.operation;
+		}
+
+		/**
+		 * @return 回数
+		 */
+		public long getCount() {
+			return this.count;
+		}
+
+		/**
+		 * @return 処理した入力のバイト数の合計
+		 */
+		public long getBytes() {
+			return this.bytes;
+		}
+
+		/**
+		 * @return 所要時間の合計(ナノ秒)
+		 */
+		public long getTotalNanos() {
+			return this.totalNanos;
+		}
+
+		/**
+		 * @return 平均の所要時間(ナノ秒、記録が無い場合は0)
+		 */
+		public long getMeanNanos() {
+			return (this.count == 0) ? 0 : this.totalNanos / this.count;
+		}
+
+		/**
+		 * @return 処理速度(バイト/秒、記録が無い場合は0)
+		 */
+		public double getBytesPerSecond() {
+			return (this.totalNanos == 0) ? 0 : this.bytes * 1e9 / this.totalNanos;
+		}
+
+		/**
+		 * 所要時間のパーセンタイルを返す
+		 * <p>
+		 * ヒストグラムの区間の上限で近似するため、実際の値の2倍未満の誤差がある。
+		 * </p>
+		 * @param percentile 0より大きく100以下
+		 * @return 所要時間(ナノ秒、記録が無い場合は0)
+		 */
+		public long getPercentileNanos(final double percentile) {
+			if (percentile <= 0 || percentile > 100)
+				throw new IllegalArgumentException("percentile must be in (0, 100]");
+			if (this.count == 0)
+				return 0;
+
+			long rank = (long)Math.ceil(this.count * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+				seen += this.histogram[i];
+				if (seen >= rank)
+					return (i >= HISTOGRAM_BUCKETS - 1) ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+			}
+			// 記録中に取得した場合は回数とヒストグラムの合計がずれることがある
+			return this.getMeanNanos();
+		}
+
+		/**
+		 * @return 所要時間のヒストグラム(要素iは2^i以上2^(i+1)未満のナノ秒だった回数)
+		 */
+		public long[] getHistogram() {
+			return this.histogram.clone();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s/%s %s: %d ops, %d bytes, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, %.1f MB/s",
+													 this.algorithm, (this.mode != null) ? this.mode : "-", this.operation,
+													 this.count, this.bytes, this.getMeanNanos() / 1e6,
+													 this.getPercentileNanos(50) / 1e6, this.getPercentileNanos(99) / 1e6,
+													 this.getBytesPerSecond() / (1024 * 1024));
+		}
+	}
+
+	/**
+	 * 全ての組み合わせの計測値
+	 */
+	public static final class Snapshot {
+		private final long timestamp;
+		private final List<Entry> entries;
+
+		Snapshot(final long timestamp, final List<Entry> entries) {
+			this.timestamp = timestamp;
+			this.entries = Collections.unmodifiableList(entries);
+		}
+
+		/**
+		 * @return 取得した時刻(System.currentTimeMillis())
+		 */
+		public long getTimestamp() {
+			return this.timestamp;
+		}
+
+		/**
+		 * @return 組み合わせごとの計測値(1回以上記録したもののみ)
+		 */
+		public List<Entry> getEntries() {
+			return this.entries;
+		}
+
+		/**
+		 * @param algorithm アルゴリズム名
+		 * @param mode 利用モード(ハッシュ計算の場合はnull)
+		 * @param operation 操作
+		 * @return 計測値(記録が無い場合はnull)
+		 */
+		public Entry get(final String algorithm, final String mode,
+										 final Operation operation) {
+			for (Entry e : this.entries)
+				if (e.algorithm.equals(algorithm) && e.operation == operation
+						&& (e.mode == null ? mode == null : e.mode.equals(mode)))
+					return e;
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Entry e : this.entries)
+				sb.append(e).append('\n');
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * @return 計測値を記録するかどうか
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * 計測値を記録するかどうかを設定する(既定は記録する)
+	 * @param enabled
+	 */
+	public static void setEnabled(final boolean enabled) {
+		CryptoMetrics.enabled = enabled;
+	}
+
+	/**
+	 * @return 現在の計測値
+	 */
+	public static Snapshot snapshot() {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Map.Entry<String, Recorder> e : new TreeMap<String, Recorder>(RECORDERS).entrySet()) {
+			Entry entry = e.getValue().sum();
+			if (entry.count > 0)
+				entries.add(entry);
+		}
+		return new Snapshot(System.currentTimeMillis(), entries);
+	}
+
+	/**
+	 * 全ての計測値を0に戻す
+	 */
+	public static void reset() {
+		for (Recorder r : RECORDERS.values())
+			r.reset();
+	}
+
+	/**
+	 * 組み合わせに対応する記録先を返す
+	 * <p>
+	 * 記録のたびに探さずに済むよう、呼び出し元で保持しておくこと。
+	 * </p>
+	 * @param algorithm アルゴリズム名
+	 * @param mode 利用モード(無い場合はnull)
+	 * @param operation 操作
+	 * @return 記録先
+	 */
+	static Recorder recorder(final String algorithm, final String mode,
+													 final Operation operation) {
+		String key = algorithm + '/' + ((mode != null) ? mode : "") + '/' + operation;
+		Recorder r = RECORDERS.get(key);
+		if (r != null)
+			return r;
+
+		r = new Recorder(algorithm, mode, operation);
+		Recorder previous = RECORDERS.putIfAbsent(key, r);
+		return (previous != null) ? previous : r;
+	}
+
+	/**
+	 * @return 呼び出し元のスレッドが使うストライプ
+	 */
+	private static int stripe() {
+		long id = Thread.currentThread().getId();
+		return (int)(id ^ (id >>> 32)) & (STRIPES - 1);
+	}
+
+	/**
+	 * @return 所要時間が入るヒストグラムの区間
+	 */
+	private static int bucket(final long nanos) {
+		return (nanos <= 1) ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	/**
+	 * @return プロセッサ数以上の2のべき乗(上限16)
+	 */
+	private static int stripes(final int processors) {
+		int n = 1;
+		while (n < processors && n < 16)
+			n <<= 1;
+		return n;
+	}
+}
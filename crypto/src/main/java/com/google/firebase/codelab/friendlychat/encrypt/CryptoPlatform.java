@@ -0,0 +1,77 @@
+/**
+ * 実行環境に依存する処理の差し替え口
+ * <p>
+ * このパッケージはJavaの標準APIのみで動作し、ログはjava.util.loggingに出力し、
+ * Base64はJavaのみの実装を使う。
+ * Androidアプリなどではアプリの起動時に環境に合った実装を設定する。
+ * 設定は暗号処理を始める前に行うこと(途中で変更した場合、実行中の処理には反映されないことがある)。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public final class CryptoPlatform {
+	private static volatile CryptoLogger logger = new JavaUtilLogger();
+	private static volatile Base64Codec base64Codec = new PortableBase64Codec();
+
+	private CryptoPlatform() {
+	}
+
+	/**
+	 * java.util.loggingへのログ出力(既定の実装)
+	 */
+	private static final class JavaUtilLogger implements CryptoLogger {
+		@Override
+		public void log(final int priority, final String tag, final String msg,
+										final Throwable tr) {
+			Level level;
+			switch (priority) {
+			case DEBUG:
+				level = Level.FINE;
+				break;
+			case INFO:
+				level = Level.INFO;
+				break;
+			case WARN:
+				level = Level.WARNING;
+				break;
+			default:
+				level = Level.SEVERE;
+				break;
+			}
+			Logger.getLogger(tag).log(level, msg, tr);
+		}
+	}
+
+	/**
+	 * @return ログの出力先
+	 */
+	public static CryptoLogger getLogger() {
+		return logger;
+	}
+
+	/**
+	 * ログの出力先を設定する
+	 * @param logger ログの出力先(nullの場合は既定のjava.util.logging)
+	 */
+	public static void setLogger(final CryptoLogger logger) {
+		CryptoPlatform.logger = (logger != null) ? logger : new JavaUtilLogger();
+	}
+
+	/**
+	 * @return Base64の実装
+	 */
+	public static Base64Codec getBase64Codec() {
+		return base64Codec;
+	}
+
+	/**
+	 * Base64の実装を設定する
+	 * @param codec Base64の実装(nullの場合は既定のJavaのみの実装)
+	 */
+	public static void setBase64Codec(final Base64Codec codec) {
+		CryptoPlatform.base64Codec = (codec != null) ? codec : new PortableBase64Codec();
+	}
+}
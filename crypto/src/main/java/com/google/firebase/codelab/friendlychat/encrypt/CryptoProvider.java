@@ -0,0 +1,49 @@
+/**
+ * このパッケージのJava実装を提供するセキュリティプロバイダ
+ * <p>
+ * {@link #install()}で優先順位が最も低い位置に追加されるため、
+ * プラットフォームが同じアルゴリズムを提供している場合はそちらが使われる。
+ * 登録するChaCha20-Poly1305はAndroidではAPI 19以降でのみ使える。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.security.Provider;
+import java.security.Security;
+
+public final class CryptoProvider extends Provider {
+	private static final String TAG = "CryptoProvider";
+
+	/**
+	 * プロバイダ名
+	 */
+	public static final String NAME = "FriendlyChat";
+
+	/**
+	 * ChaCha20-Poly1305のtransformation
+	 */
+	public static final String CHACHA20_POLY1305 = "ChaCha20/Poly1305/NoPadding";
+
+	private static final long serialVersionUID = 1L;
+
+	private CryptoProvider() {
+		super(NAME, 1.0, "FriendlyChat pure-Java fallbacks");
+		this.put("Cipher." + CHACHA20_POLY1305, ChaCha20Poly1305Spi.class.getName());
+		this.put("Alg.Alias.Cipher.ChaCha20-Poly1305", CHACHA20_POLY1305);
+	}
+
+	/**
+	 * プロバイダを登録する(登録済みの場合は何もしない)
+	 */
+	public static synchronized void install() {
+		if (Security.getProvider(NAME) != null)
+			return;
+
+		try {
+			Security.addProvider(new CryptoProvider());
+
+		} catch (SecurityException exn) {
+			Log.w(TAG, exn.getMessage());
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * 非同期の暗号処理
+ * <p>
+ * 完了時に結果をコールバックへ渡す。
+ * コールバックは指定したExecutor上で呼ぶ。
+ * コールバックを呼ぶ前にcancel()した場合は、処理が完了していても呼ばない
+ * (Activityの破棄時などにキャンセルすれば、破棄後に呼ばれることはない)。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+class CryptoTask<V> extends FutureTask<V> {
+	private static final String TAG = "CryptoTask";
+
+	private final Executor callbackExecutor;
+	private final CryptoCallback<? super V> callback;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * @param callable 処理
+	 * @param callbackExecutor コールバックを呼ぶExecutor(nullの場合は処理したスレッドで呼ぶ)
+	 * @param callback コールバック(nullの場合は呼ばない)
+	 */
+	CryptoTask(final Callable<V> callable, final Executor callbackExecutor,
+						 final CryptoCallback<? super V> callback) {
+		super(callable);
+		this.callbackExecutor = callbackExecutor;
+		this.callback = callback;
+	}
+
+	/**
+	 * 実行できなかったことを結果とする
+	 * @param exn
+	 */
+	void reject(final RejectedExecutionException exn) {
+		this.setException(exn);
+	}
+
+	@Override
+	public boolean cancel(final boolean mayInterruptIfRunning) {
+		this.cancelled = true;
+		return super.cancel(mayInterruptIfRunning);
+	}
+
+	@Override
+	protected void done() {
+		if (this.callback == null || this.cancelled)
+			return;
+
+		Runnable notification = new Runnable() {
+				@Override
+				public void run() {
+					// 通知を待つ間にキャンセルされた場合も呼ばない
+					if (CryptoTask.this.cancelled)
+						return;
+					notifyCallback();
+				}
+			};
+		if (this.callbackExecutor == null) {
+			notification.run();
+			return;
+		}
+		try {
+			this.callbackExecutor.execute(notification);
+		} catch (RejectedExecutionException exn) {
+			Log.w(TAG, "Callback executor rejected the notification.", exn);
+		}
+	}
+
+	private void notifyCallback() {
+		V result;
+		try {
+			result = this.get();
+		} catch (ExecutionException exn) {
+			this.callback.onFailure(exn.getCause());
+			return;
+		} catch (InterruptedException exn) {
+			// 完了済みのため待つことはない
+			Thread.currentThread().interrupt();
+			return;
+		}
+		this.callback.onSuccess(result);
+	}
+}
@@ -0,0 +1,875 @@
+/**
+ * ハッシュ値計算
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * @author M.Hashimoto
+ *
+ */
+public class Hash {
+	private static final String TAG = "Hash";
+	private static final int BUFFER_LENGTH = 8 * 1024;
+
+	/**
+	 * ファイルをFileChannel経由で読み込む際のバッファ長
+	 */
+	private static final int CHANNEL_BUFFER_LENGTH = 64 * 1024;
+
+	/**
+	 * 一度にメモリマップする領域の最大長
+	 */
+	private static final long MAP_REGION_LENGTH = 64L * 1024 * 1024;
+
+	/**
+	 * メモリマップを使い始めるファイルサイズの既定値
+	 */
+	public static final long DEFAULT_MAPPING_THRESHOLD = 16L * 1024 * 1024;
+
+	/**
+	 * ツリーハッシュのチャンク長の既定値
+	 */
+	public static final int DEFAULT_TREE_CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * valuesOf()を並列に実行し始める入力の件数
+	 */
+	public static final int PARALLEL_BATCH_THRESHOLD = 1024;
+
+	/**
+	 * calibrateStretching()で1回の計測にかける最短時間
+	 */
+	private static final long CALIBRATION_MIN_NANOS = 50L * 1000 * 1000;
+
+	/**
+	 * calibrateStretching()で回数を決めた後に計測し直す回数
+	 */
+	private static final int CALIBRATION_ROUNDS = 3;
+
+	/**
+	 * アルゴリズム列挙型
+	 * @author M.Hashimoto
+	 *
+	 */
+	public enum Algorithm {
+		/**
+		 * SHA
+		 */
+		SHA("SHA"),
+
+		/**
+		 * SHA-256
+		 */
+		SHA256("SHA-256"),
+
+		/**
+		 * SHA-384
+		 */
+		SHA384("SHA-384"),
+
+		/**
+		 * SHA-512
+		 */
+		SHA512("SHA-512"),
+
+		/**
+		 * MD5
+		 */
+		MD5("MD5");
+		private String name;
+		private Algorithm(String name) {
+			this.name = name;
+		}
+		/**
+		 * @return アルゴリズム名
+		 */
+		public String getName() {
+			return this.name;
+		}
+	}
+
+	/**
+	 * デフォルトコンストラクタで使うアルゴリズム
+	 * <p>
+	 * 端末で最も速いアルゴリズムは{@link CryptoCalibration#newPreferredHash()}で使える。
+	 * </p>
+	 */
+	public static final Algorithm DEFAULT_ALGORITHM = Algorithm.SHA256;
+
+	private Algorithm algo;
+	private MessageDigest messageDigest;
+	private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>();
+	private volatile long mappingThreshold = DEFAULT_MAPPING_THRESHOLD;
+	private final CryptoMetrics.Recorder metrics;
+
+	/**
+	 * コンストラクタ
+	 * @param algo
+	 * @throws NoSuchAlgorithmException
+	 */
+	public Hash(final Algorithm algo) throws NoSuchAlgorithmException {
+		this.algo = algo;
+		this.metrics = CryptoMetrics.recorder(algo.toString(), null, CryptoMetrics.Operation.HASH);
+		try {
+			this.messageDigest = MessageDigest.getInstance(algo.getName());
+
+		} catch (NoSuchAlgorithmException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		}
+	}
+
+	/**
+	 * デフォルトコンストラクタ
+	 * <p>
+	 * アルゴリズムは{@link #DEFAULT_ALGORITHM}。
+	 * </p>
+	 * @throws Exception
+	 */
+	public Hash() throws NoSuchAlgorithmException {
+		this(DEFAULT_ALGORITHM);
+	}
+
+	/**
+	 * アルゴリズムを返す
+	 * @return アルゴリズム
+	 */
+	public Algorithm getAlgorithm() {
+		return this.algo;
+	}
+
+	/**
+	 * valueOf(File)でメモリマップを使い始めるファイルサイズを返す
+	 * @return バイト数
+	 */
+	public long getMappingThreshold() {
+		return this.mappingThreshold;
+	}
+
+	/**
+	 * valueOf(File)でメモリマップを使い始めるファイルサイズを設定する
+	 * <p>
+	 * これより小さいファイルはダイレクトバッファ経由で読み込む。
+	 * </p>
+	 * @param threshold バイト数
+	 */
+	public void setMappingThreshold(final long threshold) {
+		this.mappingThreshold = threshold;
+	}
+
+	/**
+	 * 文字列のハッシュ値を計算する
+	 * <p>
+	 * 文字コードはUTF-8
+	 * </p>
+	 * @param message
+	 * @return ハッシュ値
+	 * @throws UnsupportedEncodingException
+	 */
+	public byte[] valueOf(final String message)
+		throws UnsupportedEncodingException {
+
+		return this.valueOf(message, "UTF-8");
+	}
+
+	/**
+	 * 文字列のハッシュ値を計算する
+	 * @param message
+	 * @param charsetName
+	 * @return ハッシュ値
+	 * @throws UnsupportedEncodingException
+	 */
+	public byte[] valueOf(final String message, final String charsetName)
+			throws UnsupportedEncodingException {
+
+		return this.valueOf(message.getBytes(charsetName));
+	}
+
+	/**
+	 * 文字列のハッシュ値をソルトとストレッチング付きで計算する
+	 * @param message ハッシュ計算の対象となる文字列
+	 * @param charsetName 文字コード
+	 * @param salt ソルト(nullまたはサイズ0の場合はソルト無し)
+	 * @param stretching ストレッチングの回数。但し1以下が指定された場合は1回(ストレッチング無し)
+	 * @return ハッシュ値
+	 * @throws UnsupportedEncodingException 
+	 */
+	public byte[] valueOf(final String message, final String charsetName,
+												final byte[] salt, final int stretching)
+			throws UnsupportedEncodingException {
+
+		return this.valueOf(message.getBytes(charsetName), salt, stretching);
+	}
+
+	/**
+	 * バイト列のハッシュ値を計算する
+	 * @param data
+	 * @return ハッシュ値
+	 */
+	public byte[] valueOf(final byte[] data) {
+		return this.valueOf(data, null, 1);
+	}
+
+	/**
+	 * バイト列のハッシュ値をソルトとストレッチング付きで計算する
+	 * @param data ハッシュ計算の対象となるバイト列
+	 * @param salt ソルト(nullまたはサイズ0の場合はソルト無し)
+	 * @param stretching ストレッチングの回数。但し1以下が指定された場合は1回(ストレッチング無し)
+	 * @return ハッシュ値
+	 */
+	public byte[] valueOf(final byte[] data, final byte[] salt,
+												final int stretching) {
+		int saltLength = (salt != null) ? salt.length : 0;
+		int count = (stretching > 1) ? stretching : 1;
+
+		long start = System.nanoTime();
+		MessageDigest md = this.getMessageDigest();
+		int digestLength = md.getDigestLength();
+
+		// [直前のハッシュ値][data][salt] の順に並べておき、各回の入力を一度のupdateで渡す
+		byte[] scratch = new byte[digestLength + data.length + saltLength];
+		System.arraycopy(data, 0, scratch, digestLength, data.length);
+		if (saltLength > 0)
+			System.arraycopy(salt, 0, scratch, digestLength + data.length, saltLength);
+
+		try {
+			// 初回は直前のハッシュ値が空
+			md.update(scratch, digestLength, scratch.length - digestLength);
+			md.digest(scratch, 0, digestLength);
+			for (int i = 1; i < count; i++) {
+				md.update(scratch, 0, scratch.length);
+				md.digest(scratch, 0, digestLength);
+			}
+			byte[] value = Arrays.copyOf(scratch, digestLength);
+			this.metrics.record((long)scratch.length * count - digestLength,
+													System.nanoTime() - start);
+			return value;
+
+		} catch (DigestException exn) {
+			// should not occur.
+			throw new IllegalStateException(exn);
+		} finally {
+			SecurityUtils.zeroOut(scratch);
+		}
+	}
+
+	/**
+	 * 現在の環境でストレッチング1回あたりの時間を計測し、
+	 * 指定した時間で処理できるストレッチング回数を求める
+	 * @param targetMillis 1回のハッシュ計算にかける時間(ミリ秒)
+	 * @param dataLength 想定するデータのバイト数
+	 * @param saltLength 想定するソルトのバイト数
+	 * @return ストレッチングの回数(1以上)
+	 */
+	public int calibrateStretching(final long targetMillis, final int dataLength,
+																 final int saltLength) {
+		byte[] data = new byte[dataLength];
+		byte[] salt = new byte[saltLength];
+
+		// 計測誤差を抑えるため、CALIBRATION_MIN_NANOS以上かかるまで回数を増やす
+		int trial = 256;
+		long elapsed;
+		while (true) {
+			long start = System.nanoTime();
+			this.valueOf(data, salt, trial);
+			elapsed = System.nanoTime() - start;
+			if (elapsed >= CALIBRATION_MIN_NANOS || trial >= Integer.MAX_VALUE / 2)
+				break;
+			trial *= 2;
+		}
+		// 同じ回数で数回計測し、最も速かった結果を採用する
+		for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+			long start = System.nanoTime();
+			this.valueOf(data, salt, trial);
+			elapsed = Math.min(elapsed, System.nanoTime() - start);
+		}
+
+		double count = (double)trial * targetMillis * 1000000L / Math.max(1, elapsed);
+		return (int)Math.max(1, Math.min(Integer.MAX_VALUE, count));
+	}
+
+	/**
+	 * @return ハッシュ値のバイト数
+	 */
+	public int getDigestLength() {
+		return this.getMessageDigest().getDigestLength();
+	}
+
+	/**
+	 * 複数のバイト列のハッシュ値をまとめて計算する
+	 * @param inputs ハッシュ計算の対象となるバイト列のList
+	 * @return 各ハッシュ値を入力順に連結したバイト列
+	 * @see #valuesOf(byte[][], byte[], int)
+	 */
+	public byte[] valuesOf(final List<byte[]> inputs) {
+		return this.valuesOf(inputs.toArray(new byte[inputs.size()][]));
+	}
+
+	/**
+	 * 複数のバイト列のハッシュ値をまとめて計算する
+	 * @param inputs ハッシュ計算の対象となるバイト列
+	 * @return 各ハッシュ値を入力順に連結したバイト列
+	 * @see #valuesOf(byte[][], byte[], int)
+	 */
+	public byte[] valuesOf(final byte[][] inputs) {
+		byte[] out = new byte[inputs.length * this.getDigestLength()];
+		this.valuesOf(inputs, out, 0);
+		return out;
+	}
+
+	/**
+	 * 複数のバイト列のハッシュ値をまとめて計算し、指定した配列に書き込む
+	 * <p>
+	 * i番目の入力のハッシュ値は out[offset + i * getDigestLength()] から書き込まれる。
+	 * 入力が{@link #PARALLEL_BATCH_THRESHOLD}件以上の場合は、入力を分割して
+	 * {@link CryptoExecutors#computation()}上で並列に計算する。
+	 * </p>
+	 * @param inputs ハッシュ計算の対象となるバイト列
+	 * @param out 書き込み先
+	 * @param offset 書き込み開始位置
+	 */
+	public void valuesOf(final byte[][] inputs, final byte[] out,
+											 final int offset) {
+		final int digestLength = this.getDigestLength();
+		if (out.length - offset < inputs.length * digestLength)
+			throw new IllegalArgumentException("Output buffer too small.");
+
+		int slices = (inputs.length >= PARALLEL_BATCH_THRESHOLD)
+			? Math.min(CryptoExecutors.PARALLELISM, inputs.length / PARALLEL_BATCH_THRESHOLD * 2)
+			: 1;
+		if (slices <= 1) {
+			this.digestRange(inputs, 0, inputs.length, out, offset);
+			return;
+		}
+
+		int sliceLength = (inputs.length + slices - 1) / slices;
+		List<Future<?>> futures = new ArrayList<Future<?>>(slices - 1);
+		try {
+			// 最初の区間は呼び出したスレッドで計算する
+			for (int from = sliceLength; from < inputs.length; from += sliceLength) {
+				final int start = from;
+				final int end = Math.min(inputs.length, from + sliceLength);
+				futures.add(CryptoExecutors.computation().submit(new Runnable() {
+					@Override
+					public void run() {
+						digestRange(inputs, start, end, out, offset);
+					}
+				}));
+			}
+			this.digestRange(inputs, 0, sliceLength, out, offset);
+
+			for (Future<?> future : futures)
+				CryptoExecutors.await(future);
+
+		} catch (IOException exn) {
+			// 割り込まれた場合のみ
+			throw new IllegalStateException(exn);
+		} finally {
+			for (Future<?> future : futures)
+				future.cancel(false);
+		}
+	}
+
+	private void digestRange(final byte[][] inputs, final int start,
+													 final int end, final byte[] out,
+													 final int offset) {
+		long startNanos = System.nanoTime();
+		MessageDigest md = this.getMessageDigest();
+		int digestLength = md.getDigestLength();
+		try {
+			long bytes = 0;
+			for (int i = start; i < end; i++) {
+				md.update(inputs[i]);
+				md.digest(out, offset + i * digestLength, digestLength);
+				bytes += inputs[i].length;
+			}
+			this.metrics.recordBatch(end - start, bytes, System.nanoTime() - startNanos);
+		} catch (DigestException exn) {
+			// should not occur.
+			throw new IllegalStateException(exn);
+		}
+	}
+
+	/**
+	 * ファイルのハッシュ値を計算する
+	 * <p>
+	 * {@link #getMappingThreshold()}未満のファイルはダイレクトバッファ経由で、
+	 * それ以上のファイルはメモリマップした領域から直接MessageDigestに渡す。
+	 * </p>
+	 * @param file
+	 * @return ハッシュ値
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public byte[] valueOf(final File file)
+		throws FileNotFoundException, IOException {
+
+		FileInputStream fis;
+		try {
+			fis = new FileInputStream(file);
+		} catch (FileNotFoundException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		}
+
+		FileChannel channel = fis.getChannel();
+		try {
+			long start = System.nanoTime();
+			MessageDigest md = this.getMessageDigest();
+			long size = channel.size();
+			if (size >= this.mappingThreshold)
+				updateMapped(md, channel, size);
+			else
+				updateBuffered(md, channel);
+			byte[] value = md.digest();
+			this.metrics.record(size, System.nanoTime() - start);
+			return value;
+
+		} catch (IOException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		} finally {
+			SecurityUtils.closeSilently(channel);
+			SecurityUtils.closeSilently(fis);
+		}
+	}
+
+	/**
+	 * バイト列のハッシュ値を計算する処理を{@link CryptoExecutors#async()}で実行する
+	 * <p>
+	 * 返したFutureのcancel()で実行前の処理を取り消せる。
+	 * </p>
+	 * @param data 計算の対象となるバイト列(完了するまで変更しないこと)
+	 * @param callbackExecutor コールバックを呼ぶExecutor(nullの場合は計算したスレッドで呼ぶ)
+	 * @param callback コールバック(nullの場合は呼ばない)
+	 * @return ハッシュ値のFuture
+	 */
+	public Future<byte[]> hashAsync(final byte[] data,
+																	final Executor callbackExecutor,
+																	final CryptoCallback<? super byte[]> callback) {
+		return CryptoExecutors.submitAsync(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return valueOf(data);
+				}
+			}, callbackExecutor, callback);
+	}
+
+	/**
+	 * ファイルのハッシュ値を計算する処理を{@link CryptoExecutors#async()}で実行する
+	 * <p>
+	 * 返したFutureのcancel(true)で、計算中の場合も読み込みを中断する
+	 * (コールバックは呼ばれない)。
+	 * </p>
+	 * @param file
+	 * @param callbackExecutor コールバックを呼ぶExecutor(nullの場合は計算したスレッドで呼ぶ)
+	 * @param callback コールバック(nullの場合は呼ばない)
+	 * @return ハッシュ値のFuture
+	 * @see #valueOf(File)
+	 */
+	public Future<byte[]> hashAsync(final File file,
+																	final Executor callbackExecutor,
+																	final CryptoCallback<? super byte[]> callback) {
+		return CryptoExecutors.submitAsync(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return valueOf(file);
+				}
+			}, callbackExecutor, callback);
+	}
+
+	/**
+	 * チャネルの内容をダイレクトバッファ経由でMessageDigestに渡す
+	 * @param md
+	 * @param channel
+	 * @throws IOException
+	 */
+	private static void updateBuffered(final MessageDigest md,
+																		 final FileChannel channel)
+		throws IOException {
+
+		ByteBuffer buf = BufferPool.acquireDirect(CHANNEL_BUFFER_LENGTH);
+		try {
+			while (channel.read(buf) >= 0) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		} finally {
+			BufferPool.releaseDirect(buf);
+		}
+	}
+
+	/**
+	 * チャネルの内容を領域ごとにメモリマップしてMessageDigestに渡す
+	 * @param md
+	 * @param channel
+	 * @param size ファイルサイズ
+	 * @throws IOException
+	 */
+	private static void updateMapped(final MessageDigest md,
+																	 final FileChannel channel, final long size)
+		throws IOException {
+
+		for (long pos = 0; pos < size; pos += MAP_REGION_LENGTH) {
+			long len = Math.min(MAP_REGION_LENGTH, size - pos);
+			MappedByteBuffer region =
+				channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+			md.update(region);
+		}
+	}
+
+	/**
+	 * 入力ストリームのハッシュ値を計算する
+	 * @param is
+	 * @return ハッシュ値
+	 * @throws IOException
+	 */
+	public byte[] valueOf(final InputStream is) throws IOException {
+		MessageDigest md = this.getMessageDigest();
+		DigestInputStream dis = new DigestInputStream(is, md);
+		dis.on(true);
+
+		int n = 0;
+		long total = 0;
+		byte[] buf = BufferPool.acquire(BUFFER_LENGTH);
+
+		long start = System.nanoTime();
+		try {
+			while (true) {
+				n = dis.read(buf);
+				if (n < 0)
+					break;
+				total += n;
+			}
+			byte[] value = md.digest();
+			this.metrics.record(total, System.nanoTime() - start);
+			return value;
+
+		} catch (IOException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		} finally {
+			BufferPool.release(buf);
+			SecurityUtils.closeSilently(dis);
+			SecurityUtils.closeSilently(is);
+		}
+	}
+
+	/**
+	 * ファイルのツリーハッシュを既定のチャンク長で計算する
+	 * @param file
+	 * @return ツリーハッシュ
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 * @see #treeValueOf(File, int)
+	 */
+	public TreeHash treeValueOf(final File file)
+		throws FileNotFoundException, IOException {
+
+		return this.treeValueOf(file, DEFAULT_TREE_CHUNK_SIZE);
+	}
+
+	/**
+	 * ファイルのツリーハッシュを計算する
+	 * <p>
+	 * 各チャンクのハッシュ値は{@link CryptoExecutors#computation()}上で並列に計算する。
+	 * </p>
+	 * @param file
+	 * @param chunkSize チャンクのバイト数
+	 * @return ツリーハッシュ
+	 * @throws FileNotFoundException
+	 * @throws IOException
+	 */
+	public TreeHash treeValueOf(final File file, final int chunkSize)
+		throws FileNotFoundException, IOException {
+
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize <= 0");
+
+		FileInputStream fis;
+		try {
+			fis = new FileInputStream(file);
+		} catch (FileNotFoundException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		}
+
+		final FileChannel channel = fis.getChannel();
+		try {
+			long size = channel.size();
+			int count = (int)Math.max(1, (size + chunkSize - 1) / chunkSize);
+
+			List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(count);
+			try {
+				for (int i = 0; i < count; i++) {
+					final long position = (long)i * chunkSize;
+					final long length = Math.min(chunkSize, size - position);
+					futures.add(CryptoExecutors.computation().submit(new Callable<byte[]>() {
+						@Override
+						public byte[] call() throws IOException {
+							return leafOf(channel, position, length);
+						}
+					}));
+				}
+
+				byte[][] leaves = new byte[count][];
+				for (int i = 0; i < count; i++)
+					leaves[i] = CryptoExecutors.await(futures.get(i));
+				return new TreeHash(this.algo, chunkSize, leaves, this.getMessageDigest());
+
+			} finally {
+				for (Future<byte[]> future : futures)
+					future.cancel(false);
+			}
+
+		} catch (IOException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		} finally {
+			SecurityUtils.closeSilently(channel);
+			SecurityUtils.closeSilently(fis);
+		}
+	}
+
+	/**
+	 * 入力ストリームのツリーハッシュを計算する
+	 * <p>
+	 * ストリームは呼び出したスレッドで順に読み込み、各チャンクのハッシュ値は
+	 * {@link CryptoExecutors#computation()}上で並列に計算する。
+	 * 同時に保持するチャンクは{@link CryptoExecutors#PARALLELISM}の2倍までに制限する。
+	 * 途中で失敗した場合、まだ実行されていないタスクのチャンクは呼び出したスレッドで返却する。
+	 * </p>
+	 * @param is
+	 * @param chunkSize チャンクのバイト数
+	 * @return ツリーハッシュ
+	 * @throws IOException
+	 */
+	public TreeHash treeValueOf(final InputStream is, final int chunkSize)
+		throws IOException {
+
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("chunkSize <= 0");
+
+		final int maxInFlight = CryptoExecutors.PARALLELISM * 2;
+		List<byte[]> leaves = new ArrayList<byte[]>();
+		LinkedList<LeafTask> inFlight = new LinkedList<LeafTask>();
+		try {
+			boolean first = true;
+			while (true) {
+				byte[] chunk = BufferPool.acquire(chunkSize);
+				int length;
+				try {
+					length = readFully(is, chunk, chunkSize);
+				} catch (IOException exn) {
+					BufferPool.release(chunk);
+					throw exn;
+				}
+				if (length == 0 && !first) {
+					BufferPool.release(chunk);
+					break;
+				}
+				first = false;
+
+				if (inFlight.size() >= maxInFlight) {
+					leaves.add(CryptoExecutors.await(inFlight.getFirst().future));
+					inFlight.removeFirst();
+				}
+
+				LeafTask task = new LeafTask(chunk, length);
+				try {
+					task.future = CryptoExecutors.computation().submit(task);
+				} catch (RuntimeException exn) {
+					task.release();
+					throw exn;
+				}
+				inFlight.addLast(task);
+				if (length < chunkSize)
+					break;
+			}
+			while (!inFlight.isEmpty()) {
+				leaves.add(CryptoExecutors.await(inFlight.getFirst().future));
+				inFlight.removeFirst();
+			}
+
+			return new TreeHash(this.algo, chunkSize, leaves, this.getMessageDigest());
+
+		} catch (IOException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		} finally {
+			for (LeafTask task : inFlight) {
+				task.future.cancel(false);
+				task.release();
+			}
+			SecurityUtils.closeSilently(is);
+		}
+	}
+
+	/**
+	 * ファイルの指定範囲をリーフとしてハッシュする
+	 * <p>
+	 * 位置指定の読み込みを使うため、複数のスレッドから同じチャネルを共有できる。
+	 * </p>
+	 */
+	private byte[] leafOf(final FileChannel channel, final long position,
+												final long length) throws IOException {
+		MessageDigest md = this.getMessageDigest();
+		md.update(TreeHash.LEAF_PREFIX);
+
+		ByteBuffer buf = BufferPool.acquireDirect(CHANNEL_BUFFER_LENGTH);
+		try {
+			long pos = position;
+			long end = position + length;
+			while (pos < end) {
+				buf.clear();
+				buf.limit((int)Math.min(buf.capacity(), end - pos));
+				int n = channel.read(buf, pos);
+				if (n < 0)
+					throw new EOFException("Unexpected end of file at " + pos);
+				buf.flip();
+				md.update(buf);
+				pos += n;
+			}
+			return md.digest();
+		} finally {
+			BufferPool.releaseDirect(buf);
+		}
+	}
+
+	/**
+	 * BufferPoolから借りたチャンクをリーフとしてハッシュするタスク
+	 * <p>
+	 * チャンクは実行を始めたタスクか{@link #release()}を呼んだ側のどちらか一方だけが返却する。
+	 * 取り消されて実行されなかったタスクのチャンクも、呼び出し側が{@link #release()}で返却できる。
+	 * </p>
+	 */
+	private final class LeafTask implements Callable<byte[]> {
+		private final AtomicReference<byte[]> chunk;
+		private final int length;
+		Future<byte[]> future;
+
+		LeafTask(final byte[] chunk, final int length) {
+			this.chunk = new AtomicReference<byte[]>(chunk);
+			this.length = length;
+		}
+
+		@Override
+		public byte[] call() {
+			byte[] ba = this.chunk.getAndSet(null);
+			if (ba == null)
+				throw new CancellationException();
+			try {
+				MessageDigest md = getMessageDigest();
+				md.update(TreeHash.LEAF_PREFIX);
+				md.update(ba, 0, this.length);
+				return md.digest();
+			} finally {
+				BufferPool.release(ba);
+			}
+		}
+
+		/**
+		 * タスクがまだチャンクを使い始めていなければ、BufferPoolに返却する
+		 */
+		void release() {
+			byte[] ba = this.chunk.getAndSet(null);
+			if (ba != null)
+				BufferPool.release(ba);
+		}
+	}
+
+	/**
+	 * lengthバイトかストリームの終端まで読み込む
+	 * @return 読み込んだバイト数
+	 */
+	private static int readFully(final InputStream is, final byte[] buf,
+															 final int length)
+		throws IOException {
+
+		int total = 0;
+		while (total < length) {
+			int n = is.read(buf, total, length - total);
+			if (n < 0)
+				break;
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * 呼び出したスレッド専用のMessageDigestを返す
+	 * <p>
+	 * コンストラクタで生成したインスタンスを雛形として、スレッドごとに複製して使う。
+	 * 返されるインスタンスはリセット済み。
+	 * </p>
+	 * @return MessageDigest
+	 */
+	private MessageDigest getMessageDigest() {
+		MessageDigest md = this.digests.get();
+		if (md == null) {
+			md = newMessageDigest(this.messageDigest);
+			this.digests.set(md);
+		} else {
+			md.reset();
+		}
+		return md;
+	}
+
+	/**
+	 * 雛形のMessageDigestを複製する
+	 * <p>
+	 * 複製をサポートしないプロバイダの場合は同じアルゴリズムで新たに生成する。
+	 * </p>
+	 * @param prototype 一度も更新していないMessageDigest
+	 * @return 新しいMessageDigest
+	 */
+	static MessageDigest newMessageDigest(final MessageDigest prototype) {
+		try {
+			return (MessageDigest)prototype.clone();
+
+		} catch (CloneNotSupportedException e) {
+			try {
+				return MessageDigest.getInstance(prototype.getAlgorithm());
+
+			} catch (NoSuchAlgorithmException exn) {
+				// should not occur.
+				throw new IllegalStateException(exn);
+			}
+		}
+	}
+
+	/**
+	 * 利用可能なメッセージダイジェストアルゴリズムを調べる
+	 * @return 利用可能なメッセージダイジェストアルゴリズム名のSet
+	 */
+	public static Set<String> getAvailableAlgorithms() {
+		return SecurityUtils.getAvailableAlgorithms("MessageDigest");
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * 16進数文字列とバイト列の相互変換
+ * <p>
+ * 変換表を使って1バイトずつ変換し、呼び出し元が用意したバッファに直接書き込める。
+ * 出力は小文字、入力は大文字・小文字のどちらも受け付ける。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class Hex {
+	private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * バイト値(0～255)から2文字の16進数表現への変換表
+	 * <p>
+	 * 上位8ビットに1文字目、下位8ビットに2文字目を格納する。
+	 * </p>
+	 */
+	private static final char[] PAIRS = new char[256];
+
+	/**
+	 * 文字から4ビット値への変換表(16進数でない文字は-1)
+	 */
+	private static final byte[] VALUES = new byte[128];
+
+	static {
+		for (int i = 0; i < 256; i++)
+			PAIRS[i] = (char)(DIGITS[i >>> 4] << 8 | DIGITS[i & 0xf]);
+
+		Arrays.fill(VALUES, (byte)-1);
+		for (int i = 0; i < 10; i++)
+			VALUES['0' + i] = (byte)i;
+		for (int i = 0; i < 6; i++) {
+			VALUES['a' + i] = (byte)(10 + i);
+			VALUES['A' + i] = (byte)(10 + i);
+		}
+	}
+
+	/**
+	 * バイト列を16進数文字列に変換する
+	 * @param ba
+	 * @return 16進数文字列
+	 */
+	public static String toString(final byte[] ba) {
+		return toString(ba, 0, ba.length);
+	}
+
+	/**
+	 * バイト列の指定範囲を16進数文字列に変換する
+	 * @param ba
+	 * @param offset
+	 * @param length
+	 * @return 16進数文字列
+	 */
+	public static String toString(final byte[] ba, final int offset,
+																final int length) {
+		char[] ca = new char[length * 2];
+		encode(ba, offset, length, ca, 0);
+		return new String(ca);
+	}
+
+	/**
+	 * 同じ長さで連結された複数のバイト列(ハッシュ値など)を、それぞれ16進数文字列に変換する
+	 * <p>
+	 * 全体を一つのバッファに変換してから切り出す。
+	 * </p>
+	 * @param ba 連結されたバイト列
+	 * @param length 一つあたりのバイト数
+	 * @return 16進数文字列の配列
+	 */
+	public static String[] toStrings(final byte[] ba, final int length) {
+		if (length <= 0 || ba.length % length != 0)
+			throw new IllegalArgumentException(
+				"Array length is not a multiple of " + length + ".");
+
+		char[] ca = new char[ba.length * 2];
+		encode(ba, 0, ba.length, ca, 0);
+
+		String[] strings = new String[ba.length / length];
+		for (int i = 0; i < strings.length; i++)
+			strings[i] = new String(ca, i * length * 2, length * 2);
+		return strings;
+	}
+
+	/**
+	 * バイト列を16進数に変換して文字配列に書き込む
+	 * @param src 変換元
+	 * @param offset 変換元の開始位置
+	 * @param length 変換するバイト数
+	 * @param dst 書き込み先(length * 2文字必要)
+	 * @param dstOffset 書き込み開始位置
+	 * @return 書き込んだ直後の位置
+	 */
+	public static int encode(final byte[] src, final int offset, final int length,
+													 final char[] dst, final int dstOffset) {
+		int j = dstOffset;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			char pair = PAIRS[src[i] & 0xff];
+			dst[j++] = (char)(pair >>> 8);
+			dst[j++] = (char)(pair & 0xff);
+		}
+		return j;
+	}
+
+	/**
+	 * バイト列を16進数に変換してASCIIバイト列として書き込む
+	 * @param src 変換元
+	 * @param offset 変換元の開始位置
+	 * @param length 変換するバイト数
+	 * @param dst 書き込み先(length * 2バイト必要)
+	 * @param dstOffset 書き込み開始位置
+	 * @return 書き込んだ直後の位置
+	 */
+	public static int encode(final byte[] src, final int offset, final int length,
+													 final byte[] dst, final int dstOffset) {
+		int j = dstOffset;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			char pair = PAIRS[src[i] & 0xff];
+			dst[j++] = (byte)(pair >>> 8);
+			dst[j++] = (byte)pair;
+		}
+		return j;
+	}
+
+	/**
+	 * 複数のバイト列を16進数に変換し、連結して文字配列に書き込む
+	 * @param srcs 変換元
+	 * @param dst 書き込み先
+	 * @param dstOffset 書き込み開始位置
+	 * @return 書き込んだ直後の位置
+	 */
+	public static int encode(final byte[][] srcs, final char[] dst,
+													 final int dstOffset) {
+		int j = dstOffset;
+		for (byte[] src : srcs)
+			j = encode(src, 0, src.length, dst, j);
+		return j;
+	}
+
+	/**
+	 * バイト列を16進数に変換してAppendableに書き込む
+	 * @param src 変換元
+	 * @param offset 変換元の開始位置
+	 * @param length 変換するバイト数
+	 * @param out 書き込み先
+	 * @throws IOException
+	 */
+	public static void encode(final byte[] src, final int offset, final int length,
+														final Appendable out) throws IOException {
+		for (int i = offset, end = offset + length; i < end; i++) {
+			char pair = PAIRS[src[i] & 0xff];
+			out.append((char)(pair >>> 8));
+			out.append((char)(pair & 0xff));
+		}
+	}
+
+	/**
+	 * 16進数文字列をバイト列に変換する
+	 * @param hex
+	 * @return バイト列
+	 * @exception IllegalArgumentException 16進数文字列として不正な場合
+	 */
+	public static byte[] decode(final CharSequence hex) {
+		byte[] ba = new byte[hex.length() / 2];
+		decode(hex, 0, hex.length(), ba, 0);
+		return ba;
+	}
+
+	/**
+	 * 16進数文字列の指定範囲をバイト列に変換して書き込む
+	 * @param hex 変換元
+	 * @param offset 変換元の開始位置
+	 * @param length 変換する文字数(偶数)
+	 * @param dst 書き込み先(length / 2バイト必要)
+	 * @param dstOffset 書き込み開始位置
+	 * @return 書き込んだバイト数
+	 * @exception IllegalArgumentException 16進数文字列として不正な場合
+	 */
+	public static int decode(final CharSequence hex, final int offset,
+													 final int length, final byte[] dst,
+													 final int dstOffset) {
+		if ((length & 1) != 0)
+			throw new IllegalArgumentException("Hex string has odd length.");
+
+		int j = dstOffset;
+		for (int i = offset, end = offset + length; i < end; i += 2)
+			dst[j++] = (byte)(valueOf(hex.charAt(i)) << 4 | valueOf(hex.charAt(i + 1)));
+		return j - dstOffset;
+	}
+
+	private static int valueOf(final char c) {
+		int v = (c < VALUES.length) ? VALUES[c] : -1;
+		if (v < 0)
+			throw new IllegalArgumentException("Invalid hex character: " + c);
+		return v;
+	}
+
+	private Hex() {}
+}
@@ -0,0 +1,296 @@
+/**
+ * 事前に生成した共通鍵とinitial vectorのプール
+ * <p>
+ * 共通鍵の生成はKeyGeneratorの取得と乱数の生成を伴うため、UIスレッドで行うと応答が遅れる。
+ * このプールは優先度の低いバックグラウンドスレッド({@link CryptoExecutors#background()})で
+ * 指定した上限まで鍵とinitial vectorを生成しておき、呼び出し元は生成済みのものを待たずに取り出せる。
+ * 取り出して数が減ると、バックグラウンドで上限まで補充する。
+ * プールが空の場合は呼び出し元のスレッドで生成する。
+ * </p>
+ * <p>
+ * 取り出した鍵とinitial vectorは他の呼び出し元に渡されることはない。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+public class KeyMaterialPool {
+	private static final String TAG = "KeyMaterialPool";
+
+	/**
+	 * プールしておく鍵・initial vectorの数の既定値
+	 */
+	public static final int DEFAULT_HIGH_WATER_MARK = 8;
+
+	private final SymmetricCipher cipher;
+	private final int highWaterMark;
+	private final BlockingQueue<SecretKey> keys;
+	private final BlockingQueue<byte[]> ivs;
+	private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+	private final AtomicLong keysGenerated = new AtomicLong();
+	private final AtomicLong ivsGenerated = new AtomicLong();
+	private final AtomicLong keyGenerationNanos = new AtomicLong();
+	private final AtomicLong keyHits = new AtomicLong();
+	private final AtomicLong keyMisses = new AtomicLong();
+	private final AtomicLong ivHits = new AtomicLong();
+	private final AtomicLong ivMisses = new AtomicLong();
+
+	/**
+	 * 統計情報
+	 */
+	public static final class Statistics {
+		private final long keysGenerated;
+		private final long ivsGenerated;
+		private final long keyGenerationNanos;
+		private final long keyHits;
+		private final long keyMisses;
+		private final long ivHits;
+		private final long ivMisses;
+		private final int availableKeys;
+		private final int availableIvs;
+
+		Statistics(final KeyMaterialPool pool) {
+			this.keysGenerated = pool.keysGenerated.get();
+			this.ivsGenerated = pool.ivsGenerated.get();
+			this.keyGenerationNanos = pool.keyGenerationNanos.get();
+			this.keyHits = pool.keyHits.get();
+			this.keyMisses = pool.keyMisses.get();
+			this.ivHits = pool.ivHits.get();
+			this.ivMisses = pool.ivMisses.get();
+			this.availableKeys = pool.keys.size();
+			this.availableIvs = pool.ivs.size();
+		}
+
+		/**
+		 * @return 生成した鍵の数(呼び出し元のスレッドで生成したものを含む)
+		 */
+		public long getKeysGenerated() {
+			return this.keysGenerated;
+		}
+
+		/**
+		 * @return 生成したinitial vectorの数(呼び出し元のスレッドで生成したものを含む)
+		 */
+		public long getIvsGenerated() {
+			return this.ivsGenerated;
+		}
+
+		/**
+		 * @return 鍵1つの生成にかかった平均時間(ナノ秒)
+		 */
+		public long getAverageKeyGenerationNanos() {
+			return (this.keysGenerated == 0) ? 0 : this.keyGenerationNanos / this.keysGenerated;
+		}
+
+		/**
+		 * @return プールから取り出せた鍵の数
+		 */
+		public long getKeyHits() {
+			return this.keyHits;
+		}
+
+		/**
+		 * @return プールが空で、呼び出し元のスレッドで生成した鍵の数
+		 */
+		public long getKeyMisses() {
+			return this.keyMisses;
+		}
+
+		/**
+		 * @return プールから取り出せたinitial vectorの数
+		 */
+		public long getIvHits() {
+			return this.ivHits;
+		}
+
+		/**
+		 * @return プールが空で、呼び出し元のスレッドで生成したinitial vectorの数
+		 */
+		public long getIvMisses() {
+			return this.ivMisses;
+		}
+
+		/**
+		 * @return プールにある鍵の数
+		 */
+		public int getAvailableKeys() {
+			return this.availableKeys;
+		}
+
+		/**
+		 * @return プールにあるinitial vectorの数
+		 */
+		public int getAvailableIvs() {
+			return this.availableIvs;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("keys %d/%d hit (%d generated, %.2f ms avg), ivs %d/%d hit, available %d keys %d ivs",
+													 this.keyHits, this.keyHits + this.keyMisses, this.keysGenerated,
+													 this.getAverageKeyGenerationNanos() / 1e6,
+													 this.ivHits, this.ivHits + this.ivMisses,
+													 this.availableKeys, this.availableIvs);
+		}
+	}
+
+	/**
+	 * コンストラクタ({@link #DEFAULT_HIGH_WATER_MARK}個ずつプールする)
+	 * @param cipher 鍵とinitial vectorを生成するSymmetricCipher
+	 */
+	public KeyMaterialPool(final SymmetricCipher cipher) {
+		this(cipher, DEFAULT_HIGH_WATER_MARK);
+	}
+
+	/**
+	 * コンストラクタ
+	 * <p>
+	 * 生成はすぐにバックグラウンドで始まる。
+	 * </p>
+	 * @param cipher 鍵とinitial vectorを生成するSymmetricCipher
+	 * @param highWaterMark プールしておく鍵・initial vectorそれぞれの数
+	 */
+	public KeyMaterialPool(final SymmetricCipher cipher, final int highWaterMark) {
+		if (highWaterMark <= 0)
+			throw new IllegalArgumentException("highWaterMark <= 0");
+
+		this.cipher = cipher;
+		this.highWaterMark = highWaterMark;
+		this.keys = new ArrayBlockingQueue<SecretKey>(highWaterMark);
+		this.ivs = new ArrayBlockingQueue<byte[]>(highWaterMark);
+		this.refill();
+	}
+
+	/**
+	 * 共通鍵を取り出す
+	 * @return 共通鍵
+	 * @throws NoSuchAlgorithmException プールが空で、生成にも失敗した場合
+	 */
+	public SecretKey takeKey() throws NoSuchAlgorithmException {
+		SecretKey key = this.keys.poll();
+		if (key != null) {
+			this.keyHits.incrementAndGet();
+		} else {
+			this.keyMisses.incrementAndGet();
+			key = this.generateKey();
+		}
+		this.refill();
+		return key;
+	}
+
+	/**
+	 * initial vectorを取り出す
+	 * @return {@link SymmetricCipher#getIvLength()}バイトのinitial vector
+	 * @throws NoSuchAlgorithmException プールが空で、生成にも失敗した場合
+	 */
+	public byte[] takeIv() throws NoSuchAlgorithmException {
+		byte[] iv = this.ivs.poll();
+		if (iv != null) {
+			this.ivHits.incrementAndGet();
+		} else {
+			this.ivMisses.incrementAndGet();
+			iv = this.generateIv();
+		}
+		this.refill();
+		return iv;
+	}
+
+	/**
+	 * @return プールしておく鍵・initial vectorそれぞれの数
+	 */
+	public int getHighWaterMark() {
+		return this.highWaterMark;
+	}
+
+	/**
+	 * @return 統計情報
+	 */
+	public Statistics getStatistics() {
+		return new Statistics(this);
+	}
+
+	/**
+	 * プールしている鍵とinitial vectorを破棄する
+	 * <p>
+	 * 破棄した分はバックグラウンドで補充される。
+	 * </p>
+	 */
+	public void clear() {
+		this.keys.clear();
+		byte[] iv;
+		while ((iv = this.ivs.poll()) != null)
+			SecurityUtils.zeroOut(iv);
+		this.refill();
+	}
+
+	/**
+	 * 上限に満たない場合、バックグラウンドでの補充を始める(既に補充中の場合は何もしない)
+	 */
+	private void refill() {
+		if (this.isFull() || !this.refilling.compareAndSet(false, true))
+			return;
+
+		try {
+			CryptoExecutors.background().execute(new Runnable() {
+					@Override
+					public void run() {
+						fill();
+					}
+				});
+
+		} catch (RejectedExecutionException exn) {
+			Log.w(TAG, exn.getMessage());
+			this.refilling.set(false);
+		}
+	}
+
+	private void fill() {
+		boolean failed = false;
+		try {
+			while (this.keys.remainingCapacity() > 0)
+				if (!this.keys.offer(this.generateKey()))
+					break;
+			while (this.ivs.remainingCapacity() > 0)
+				if (!this.ivs.offer(this.generateIv()))
+					break;
+
+		} catch (NoSuchAlgorithmException exn) {
+			Log.w(TAG, exn.getMessage());
+			failed = true;
+
+		} finally {
+			this.refilling.set(false);
+		}
+
+		// 補充を終える直前に取り出された分を取りこぼさない
+		if (!failed && !this.isFull())
+			this.refill();
+	}
+
+	private boolean isFull() {
+		return this.keys.remainingCapacity() == 0 && this.ivs.remainingCapacity() == 0;
+	}
+
+	private SecretKey generateKey() throws NoSuchAlgorithmException {
+		long start = System.nanoTime();
+		SecretKey key = this.cipher.generateKey();
+		this.keyGenerationNanos.addAndGet(System.nanoTime() - start);
+		this.keysGenerated.incrementAndGet();
+		return key;
+	}
+
+	private byte[] generateIv() throws NoSuchAlgorithmException {
+		byte[] iv = RandomSource.nextIv(this.cipher.getPRNGAlgorithm(), this.cipher.getIvLength());
+		this.ivsGenerated.incrementAndGet();
+		return iv;
+	}
+}
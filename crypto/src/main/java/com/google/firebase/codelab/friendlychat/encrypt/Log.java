@@ -0,0 +1,28 @@
+/**
+ * パッケージ内のログ出力
+ * <p>
+ * android.util.Logと同じ呼び出し方で、{@link CryptoPlatform#getLogger()}に出力する。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+final class Log {
+	private Log() {
+	}
+
+	static void d(final String tag, final String msg) {
+		CryptoPlatform.getLogger().log(CryptoLogger.DEBUG, tag, msg, null);
+	}
+
+	static void i(final String tag, final String msg) {
+		CryptoPlatform.getLogger().log(CryptoLogger.INFO, tag, msg, null);
+	}
+
+	static void w(final String tag, final String msg) {
+		CryptoPlatform.getLogger().log(CryptoLogger.WARN, tag, msg, null);
+	}
+
+	static void w(final String tag, final String msg, final Throwable tr) {
+		CryptoPlatform.getLogger().log(CryptoLogger.WARN, tag, msg, tr);
+	}
+}
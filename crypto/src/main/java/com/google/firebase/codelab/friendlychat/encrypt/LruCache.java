@@ -0,0 +1,203 @@
+/**
+ * 上限付きのLRUキャッシュ
+ * <p>
+ * エントリの大きさ({@link #sizeOf(Object, Object)}、既定は1)の合計が上限を超えた場合は、
+ * 最も長く参照されていないエントリから破棄する。
+ * sizeOf()を上書きすれば、件数ではなくメモリ量などで制限できる。
+ * 全ての操作はスレッドセーフ。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LruCache<K, V> {
+	private final int maxSize;
+	private final LinkedHashMap<K, V> map;
+	private int size = 0;
+
+	/**
+	 * コンストラクタ
+	 * @param maxSize エントリの大きさの合計の上限(sizeOf()が既定の場合はエントリの最大数)
+	 */
+	public LruCache(final int maxSize) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("maxSize <= 0");
+
+		this.maxSize = maxSize;
+		this.map = new LinkedHashMap<K, V>(16, 0.75f, true);
+	}
+
+	/**
+	 * @param key
+	 * @return キャッシュされた値(無い場合はnull)
+	 */
+	public synchronized V get(final K key) {
+		return this.map.get(key);
+	}
+
+	/**
+	 * @param key
+	 * @param value
+	 * @return 以前に同じキーでキャッシュされていた値(無い場合はnull)
+	 */
+	public V put(final K key, final V value) {
+		V previous;
+		List<Map.Entry<K, V>> evicted;
+		synchronized (this) {
+			previous = this.map.put(key, value);
+			this.size += this.safeSizeOf(key, value);
+			if (previous != null)
+				this.size -= this.safeSizeOf(key, previous);
+			evicted = this.trim();
+		}
+
+		if (previous != null && previous != value)
+			this.entryRemoved(false, key, previous, value);
+		for (Map.Entry<K, V> e : evicted)
+			this.entryRemoved(true, e.getKey(), e.getValue(), null);
+		return previous;
+	}
+
+	/**
+	 * 同じキーの値が無い場合に限りキャッシュする
+	 * @param key
+	 * @param value
+	 * @return 既にキャッシュされていた値(無い場合はnullで、valueがキャッシュされる)
+	 */
+	public V putIfAbsent(final K key, final V value) {
+		List<Map.Entry<K, V>> evicted;
+		synchronized (this) {
+			V existing = this.map.get(key);
+			if (existing != null)
+				return existing;
+			this.map.put(key, value);
+			this.size += this.safeSizeOf(key, value);
+			evicted = this.trim();
+		}
+
+		for (Map.Entry<K, V> e : evicted)
+			this.entryRemoved(true, e.getKey(), e.getValue(), null);
+		return null;
+	}
+
+	/**
+	 * @param key
+	 * @return 破棄した値(無い場合はnull)
+	 */
+	public V remove(final K key) {
+		V previous;
+		synchronized (this) {
+			previous = this.map.remove(key);
+			if (previous != null)
+				this.size -= this.safeSizeOf(key, previous);
+		}
+
+		if (previous != null)
+			this.entryRemoved(false, key, previous, null);
+		return previous;
+	}
+
+	/**
+	 * 全てのエントリを破棄する
+	 */
+	public void clear() {
+		this.removeAll();
+	}
+
+	/**
+	 * 全てのエントリを破棄する
+	 * @return 破棄した値
+	 */
+	public List<V> removeAll() {
+		List<Map.Entry<K, V>> removed;
+		synchronized (this) {
+			removed = new ArrayList<Map.Entry<K, V>>(this.map.entrySet());
+			this.map.clear();
+			this.size = 0;
+		}
+
+		List<V> values = new ArrayList<V>(removed.size());
+		for (Map.Entry<K, V> e : removed) {
+			this.entryRemoved(false, e.getKey(), e.getValue(), null);
+			values.add(e.getValue());
+		}
+		return values;
+	}
+
+	/**
+	 * @return 現在のエントリの大きさの合計(sizeOf()が既定の場合はエントリ数)
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return エントリの大きさの合計の上限
+	 */
+	public int maxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * エントリの大きさを返す
+	 * <p>
+	 * ロックの中で呼ばれる。同じエントリに対しては常に同じ値を返すこと。
+	 * 上限より大きいエントリは追加した直後に破棄される。
+	 * </p>
+	 * @param key
+	 * @param value
+	 * @return 0以上の大きさ(既定は1)
+	 */
+	protected int sizeOf(final K key, final V value) {
+		return 1;
+	}
+
+	/**
+	 * エントリがキャッシュから取り除かれた後に呼ばれる
+	 * <p>
+	 * 上限を超えて破棄された場合、remove()・clear()・removeAll()で破棄された場合、
+	 * put()で別の値に置き換えられた場合に、ロックの外で呼ばれる。
+	 * 値が保持する資源の解放などに使う。
+	 * </p>
+	 * @param evicted 上限を超えたために破棄された場合はtrue
+	 * @param key
+	 * @param oldValue 取り除かれた値
+	 * @param newValue 置き換えた値(置き換えでない場合はnull)
+	 */
+	protected void entryRemoved(final boolean evicted, final K key,
+															final V oldValue, final V newValue) {
+	}
+
+	/**
+	 * 上限を超えた分のエントリを古い順に取り除く
+	 * @return 取り除いたエントリ
+	 */
+	private List<Map.Entry<K, V>> trim() {
+		if (this.size <= this.maxSize)
+			return Collections.emptyList();
+
+		List<Map.Entry<K, V>> evicted = new ArrayList<Map.Entry<K, V>>();
+		Iterator<Map.Entry<K, V>> it = this.map.entrySet().iterator();
+		while (this.size > this.maxSize && it.hasNext()) {
+			Map.Entry<K, V> e = it.next();
+			this.size -= this.safeSizeOf(e.getKey(), e.getValue());
+			evicted.add(new AbstractMap.SimpleImmutableEntry<K, V>(e));
+			it.remove();
+		}
+		return evicted;
+	}
+
+	private int safeSizeOf(final K key, final V value) {
+		int n = this.sizeOf(key, value);
+		if (n < 0)
+			throw new IllegalStateException("Negative size: " + key + "=" + value);
+		return n;
+	}
+}
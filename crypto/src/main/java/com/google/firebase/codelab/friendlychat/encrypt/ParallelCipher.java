@@ -0,0 +1,429 @@
+/**
+ * 入力を固定長のセグメントに分割し、複数のスレッドで並列に暗号化・復号する
+ * <p>
+ * 出力形式は次の通り。
+ * </p>
+ * <pre>
+ * [基準nonce(initial vectorの長さ)][セグメント長(int)]
+ * [ヘッダ(int)][暗号文] ... (セグメントの数だけ繰り返す)
+ * </pre>
+ * <p>
+ * ヘッダは暗号文の長さで、最後のセグメントのみ最上位ビット({@link #LAST_SEGMENT})を立てる。
+ * 入力が空の場合も、空の最後のセグメントを1つ書き出す。
+ * </p>
+ * <p>
+ * 各セグメントのinitial vectorは、基準nonce・セグメント番号・最後のセグメントかどうかの
+ * ハッシュ値から導出するため、セグメント同士は独立に処理できる。結果は入力順に書き出し、
+ * 処理中のセグメント数が上限に達すると読み込みを止めて先頭のセグメントの完了を待つ。
+ * </p>
+ * <p>
+ * 最後のセグメントかどうかはinitial vectorに含まれるため、認証付き暗号(GCM, POLY1305)では
+ * 途中で切り詰めて最後の印を付け替えたデータは復号に失敗する。
+ * 認証の無い利用モードでは、改竄や切り詰めを検出できない。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+public class ParallelCipher {
+	private static final String TAG = "ParallelCipher";
+
+	/**
+	 * セグメント長の既定値
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+	/**
+	 * 受け付けるセグメント長の上限
+	 */
+	private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * 最後のセグメントのヘッダに立てるビット
+	 */
+	static final int LAST_SEGMENT = 0x80000000;
+
+	private final SymmetricCipher cipher;
+	private final int segmentSize;
+	private final ExecutorService executor;
+	private final int maxInFlight;
+	private final Hash ivHash;
+
+	private volatile Statistics lastStatistics;
+
+	/**
+	 * 処理結果の統計
+	 */
+	public static class Statistics {
+		private final long bytes;
+		private final int segments;
+		private final long elapsedNanos;
+		private final long busyNanos;
+
+		Statistics(final long bytes, final int segments,
+							 final long elapsedNanos, final long busyNanos) {
+			this.bytes = bytes;
+			this.segments = segments;
+			this.elapsedNanos = elapsedNanos;
+			this.busyNanos = busyNanos;
+		}
+
+		/**
+		 * @return 処理した平文のバイト数
+		 */
+		public long getBytes() {
+			return this.bytes;
+		}
+
+		/**
+		 * @return セグメント数
+		 */
+		public int getSegments() {
+			return this.segments;
+		}
+
+		/**
+		 * @return 全体の処理時間(ナノ秒)
+		 */
+		public long getElapsedNanos() {
+			return this.elapsedNanos;
+		}
+
+		/**
+		 * @return 1秒あたりに処理したバイト数
+		 */
+		public double getThroughput() {
+			return (this.elapsedNanos > 0) ? this.bytes * 1e9 / this.elapsedNanos : 0;
+		}
+
+		/**
+		 * 実効並列度を返す
+		 * <p>
+		 * 各セグメントの暗号処理に要した時間の合計を、全体の処理時間で割った値。
+		 * 1に近い場合は入出力か単一スレッドの処理が律速になっている。
+		 * </p>
+		 * @return 実効並列度
+		 */
+		public double getParallelism() {
+			return (this.elapsedNanos > 0) ? (double)this.busyNanos / this.elapsedNanos : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d bytes in %d segments, %.1f MB/s, parallelism %.2f",
+													 this.bytes, this.segments,
+													 this.getThroughput() / (1024 * 1024),
+													 this.getParallelism());
+		}
+	}
+
+	/**
+	 * コンストラクタ
+	 * <p>
+	 * セグメント長は{@link #DEFAULT_SEGMENT_SIZE}、
+	 * 実行には{@link CryptoExecutors#computation()}を使う。
+	 * </p>
+	 * @param cipher 暗号アルゴリズム・利用モード・パディング
+	 * @throws NoSuchAlgorithmException
+	 */
+	public ParallelCipher(final SymmetricCipher cipher)
+		throws NoSuchAlgorithmException {
+
+		this(cipher, DEFAULT_SEGMENT_SIZE, CryptoExecutors.computation(),
+				 CryptoExecutors.PARALLELISM * 2);
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param cipher 暗号アルゴリズム・利用モード・パディング(ECB以外)
+	 * @param segmentSize セグメント長
+	 * @param executor セグメントの処理に使うExecutorService
+	 * @param maxInFlight 同時に処理中とするセグメントの最大数
+	 * @throws NoSuchAlgorithmException
+	 */
+	public ParallelCipher(final SymmetricCipher cipher, final int segmentSize,
+												final ExecutorService executor, final int maxInFlight)
+		throws NoSuchAlgorithmException {
+
+		if (cipher.getCipherMode() == CipherMode.ECB)
+			throw new UnsupportedOperationException("ECB mode has no initial vector.");
+		if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE)
+			throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight <= 0");
+
+		this.cipher = cipher;
+		this.segmentSize = segmentSize;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.ivHash = new Hash(Hash.Algorithm.SHA256);
+	}
+
+	/**
+	 * @return 直前に完了した処理の統計(まだ処理していない場合はnull)
+	 */
+	public Statistics getLastStatistics() {
+		return this.lastStatistics;
+	}
+
+	/**
+	 * 入力ストリームを暗号化して出力ストリームに書き込む
+	 * <p>
+	 * 入力ストリームは閉じるが、出力ストリームは閉じない。
+	 * </p>
+	 * @param is 平文
+	 * @param os 書き込み先
+	 * @param key 共通鍵
+	 * @return 暗号化した平文のバイト数
+	 * @throws InvalidKeyException
+	 * @throws IOException 入出力、または暗号処理に失敗した場合
+	 */
+	public long encrypt(final InputStream is, final OutputStream os,
+											final SecretKey key)
+		throws InvalidKeyException, IOException {
+
+		final String tag = TAG+".encrypt";
+
+		long start = System.nanoTime();
+		AtomicLong busy = new AtomicLong();
+		LinkedList<Future<byte[]>> inFlight = new LinkedList<Future<byte[]>>();
+		try {
+			byte[] nonce = RandomSource.nextIv(this.cipher.getPRNGAlgorithm(),
+																				 this.cipher.getIvLength());
+			this.checkKey(key, nonce);
+
+			DataOutputStream out = new DataOutputStream(os);
+			out.write(nonce);
+			out.writeInt(this.segmentSize);
+
+			long bytes = 0;
+			int segments = 0;
+			byte[] segment = new byte[this.segmentSize];
+			int length = readFully(is, segment, this.segmentSize);
+			while (true) {
+				// 最後のセグメントかどうかを知るため、1つ先まで読んでおく
+				byte[] next = null;
+				int nextLength = 0;
+				if (length == this.segmentSize) {
+					next = new byte[this.segmentSize];
+					nextLength = readFully(is, next, this.segmentSize);
+				}
+				boolean last = (nextLength == 0);
+
+				if (inFlight.size() >= this.maxInFlight)
+					writeSegment(out, CryptoExecutors.await(inFlight.removeFirst()), false);
+				inFlight.addLast(this.executor.submit(
+					this.task(Cipher.ENCRYPT_MODE, key, nonce, segments, last, segment, length, busy)));
+
+				bytes += length;
+				segments++;
+				if (last)
+					break;
+				segment = next;
+				length = nextLength;
+			}
+			while (inFlight.size() > 1)
+				writeSegment(out, CryptoExecutors.await(inFlight.removeFirst()), false);
+			writeSegment(out, CryptoExecutors.await(inFlight.removeFirst()), true);
+			out.flush();
+
+			this.record(bytes, segments, start, busy);
+			return bytes;
+
+		} catch (NoSuchAlgorithmException exn) {
+			throw new IOException(exn);
+		} catch (IOException exn) {
+			Log.w(tag, exn.getMessage());
+			throw exn;
+		} finally {
+			for (Future<byte[]> future : inFlight)
+				future.cancel(true);
+			SecurityUtils.closeSilently(is);
+		}
+	}
+
+	/**
+	 * {@link #encrypt(InputStream, OutputStream, SecretKey)}で暗号化したデータを復号して
+	 * 出力ストリームに書き込む
+	 * <p>
+	 * 入力ストリームは閉じるが、出力ストリームは閉じない。
+	 * </p>
+	 * @param is 暗号化されたデータ
+	 * @param os 書き込み先
+	 * @param key 共通鍵
+	 * @return 復号した平文のバイト数
+	 * @throws InvalidKeyException
+	 * @throws IOException 入出力、または暗号処理に失敗した場合
+	 */
+	public long decrypt(final InputStream is, final OutputStream os,
+											final SecretKey key)
+		throws InvalidKeyException, IOException {
+
+		final String tag = TAG+".decrypt";
+
+		long start = System.nanoTime();
+		AtomicLong busy = new AtomicLong();
+		LinkedList<Future<byte[]>> inFlight = new LinkedList<Future<byte[]>>();
+		try {
+			DataInputStream in = new DataInputStream(is);
+			byte[] nonce = new byte[this.cipher.getIvLength()];
+			in.readFully(nonce);
+			int size = in.readInt();
+			if (size <= 0 || size > MAX_SEGMENT_SIZE)
+				throw new IOException("Invalid segment size: " + size);
+			this.checkKey(key, nonce);
+
+			// 暗号文はパディングと認証タグの分だけ平文より長くなり得る
+			int maxLength = size + 2 * this.cipher.getBlockSize() + this.cipher.getTagLength();
+			long bytes = 0;
+			int segments = 0;
+			while (true) {
+				// 最後のセグメントより前に終わった場合はEOFExceptionとなる
+				int header = in.readInt();
+				boolean last = (header & LAST_SEGMENT) != 0;
+				int length = header & ~LAST_SEGMENT;
+				if (length > maxLength || (length == 0 && !last))
+					throw new IOException("Invalid segment length: " + length);
+
+				byte[] segment = new byte[length];
+				in.readFully(segment);
+
+				if (inFlight.size() >= this.maxInFlight)
+					bytes += write(os, CryptoExecutors.await(inFlight.removeFirst()));
+				inFlight.addLast(this.executor.submit(
+					this.task(Cipher.DECRYPT_MODE, key, nonce, segments, last, segment, length, busy)));
+				segments++;
+				if (last)
+					break;
+			}
+			while (!inFlight.isEmpty())
+				bytes += write(os, CryptoExecutors.await(inFlight.removeFirst()));
+			os.flush();
+
+			this.record(bytes, segments, start, busy);
+			return bytes;
+
+		} catch (EOFException exn) {
+			Log.w(tag, "Truncated input.");
+			throw exn;
+		} catch (IOException exn) {
+			Log.w(tag, exn.getMessage());
+			throw exn;
+		} finally {
+			for (Future<byte[]> future : inFlight)
+				future.cancel(true);
+			SecurityUtils.closeSilently(is);
+		}
+	}
+
+	/**
+	 * 鍵が利用できるかを呼び出したスレッドで確認する
+	 * <p>
+	 * GCMなどでは同じCipherを同じ鍵とinitial vectorで続けて暗号化用に初期化できないため、
+	 * セグメントでは使わないinitial vectorで復号用に初期化する。
+	 * </p>
+	 */
+	private void checkKey(final SecretKey key, final byte[] nonce)
+		throws InvalidKeyException, IOException {
+
+		Cipher c = this.cipher.getCipher();
+		try {
+			c.init(Cipher.DECRYPT_MODE, key, this.cipher.parameterSpec(nonce));
+
+		} catch (InvalidKeyException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw exn;
+		} catch (GeneralSecurityException exn) {
+			throw new IOException(exn);
+		} finally {
+			this.cipher.releaseCipher(c);
+		}
+	}
+
+	private Callable<byte[]> task(final int opmode, final SecretKey key,
+																final byte[] nonce, final long index,
+																final boolean last,
+																final byte[] segment, final int length,
+																final AtomicLong busy) {
+		return new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws GeneralSecurityException {
+				long start = System.nanoTime();
+				Cipher c = cipher.getCipher();
+				try {
+					c.init(opmode, key, cipher.parameterSpec(segmentIv(nonce, index, last)));
+					return c.doFinal(segment, 0, length);
+				} finally {
+					cipher.releaseCipher(c);
+					busy.addAndGet(System.nanoTime() - start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * セグメントのinitial vectorを導出する
+	 * @param nonce 基準nonce
+	 * @param index セグメント番号
+	 * @param last 最後のセグメントの場合はtrue
+	 * @return H(nonce || index || last) の先頭からnonceと同じ長さのバイト列
+	 */
+	private byte[] segmentIv(final byte[] nonce, final long index, final boolean last) {
+		byte[] input = Arrays.copyOf(nonce, nonce.length + 9);
+		for (int i = 0; i < 8; i++)
+			input[nonce.length + i] = (byte)(index >>> (56 - i * 8));
+		input[nonce.length + 8] = (byte)(last ? 1 : 0);
+		return Arrays.copyOf(this.ivHash.valueOf(input), nonce.length);
+	}
+
+	private void record(final long bytes, final int segments, final long start,
+											final AtomicLong busy) {
+		Statistics stats = new Statistics(bytes, segments,
+																			System.nanoTime() - start, busy.get());
+		this.lastStatistics = stats;
+		Log.d(TAG, stats.toString());
+	}
+
+	private static void writeSegment(final DataOutputStream out, final byte[] segment,
+																	 final boolean last)
+		throws IOException {
+		out.writeInt(last ? segment.length | LAST_SEGMENT : segment.length);
+		out.write(segment);
+	}
+
+	private static int write(final OutputStream os, final byte[] data)
+		throws IOException {
+		os.write(data);
+		return data.length;
+	}
+
+	private static int readFully(final InputStream is, final byte[] buf,
+															 final int length) throws IOException {
+		int total = 0;
+		while (total < length) {
+			int n = is.read(buf, total, length - total);
+			if (n < 0)
+				break;
+			total += n;
+		}
+		return total;
+	}
+}
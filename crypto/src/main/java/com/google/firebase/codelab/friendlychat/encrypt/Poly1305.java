@@ -0,0 +1,201 @@
+/**
+ * Poly1305メッセージ認証コード(RFC 8439)
+ * <p>
+ * 130ビットの演算を26ビットずつ5つのintに分けて行う。
+ * 鍵は1メッセージにつき1回だけ使うこと({@link ChaCha20Poly1305Spi}ではnonceごとに導出する)。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+final class Poly1305 {
+
+	/**
+	 * 鍵のバイト数
+	 */
+	static final int KEY_LENGTH = 32;
+
+	/**
+	 * 認証タグのバイト数
+	 */
+	static final int TAG_LENGTH = 16;
+
+	private static final int MASK26 = 0x3ffffff;
+
+	private int r0, r1, r2, r3, r4;
+	private int s1, s2, s3, s4;
+	private int h0, h1, h2, h3, h4;
+	private int pad0, pad1, pad2, pad3;
+
+	private final byte[] buffer = new byte[TAG_LENGTH];
+	private int buffered = 0;
+
+	/**
+	 * 鍵を設定し、計算途中の値を初期化する
+	 * @param key 32バイトの鍵(先頭16バイトがr、残りがs)
+	 */
+	void init(final byte[] key) {
+		this.r0 = ChaCha20.littleEndian(key, 0) & 0x3ffffff;
+		this.r1 = (ChaCha20.littleEndian(key, 3) >>> 2) & 0x3ffff03;
+		this.r2 = (ChaCha20.littleEndian(key, 6) >>> 4) & 0x3ffc0ff;
+		this.r3 = (ChaCha20.littleEndian(key, 9) >>> 6) & 0x3f03fff;
+		this.r4 = (ChaCha20.littleEndian(key, 12) >>> 8) & 0x00fffff;
+		this.s1 = this.r1 * 5;
+		this.s2 = this.r2 * 5;
+		this.s3 = this.r3 * 5;
+		this.s4 = this.r4 * 5;
+
+		this.pad0 = ChaCha20.littleEndian(key, 16);
+		this.pad1 = ChaCha20.littleEndian(key, 20);
+		this.pad2 = ChaCha20.littleEndian(key, 24);
+		this.pad3 = ChaCha20.littleEndian(key, 28);
+
+		this.h0 = this.h1 = this.h2 = this.h3 = this.h4 = 0;
+		SecurityUtils.zeroOut(this.buffer);
+		this.buffered = 0;
+	}
+
+	/**
+	 * メッセージを追加する
+	 */
+	void update(final byte[] m, final int offset, final int length) {
+		int o = offset;
+		int remaining = length;
+
+		if (this.buffered > 0) {
+			int n = Math.min(remaining, TAG_LENGTH - this.buffered);
+			System.arraycopy(m, o, this.buffer, this.buffered, n);
+			this.buffered += n;
+			o += n;
+			remaining -= n;
+			if (this.buffered < TAG_LENGTH)
+				return;
+			this.block(this.buffer, 0, 1 << 24);
+			this.buffered = 0;
+		}
+
+		while (remaining >= TAG_LENGTH) {
+			this.block(m, o, 1 << 24);
+			o += TAG_LENGTH;
+			remaining -= TAG_LENGTH;
+		}
+
+		if (remaining > 0) {
+			System.arraycopy(m, o, this.buffer, 0, remaining);
+			this.buffered = remaining;
+		}
+	}
+
+	/**
+	 * これまでのメッセージ長が16の倍数になるように0を追加する
+	 */
+	void pad() {
+		if (this.buffered == 0)
+			return;
+		for (int i = this.buffered; i < TAG_LENGTH; i++)
+			this.buffer[i] = 0;
+		this.block(this.buffer, 0, 1 << 24);
+		this.buffered = 0;
+	}
+
+	/**
+	 * 認証タグを計算してoutに書き込み、鍵を消去する
+	 * @param out 書き込み先
+	 * @param offset 書き込み位置
+	 */
+	void finish(final byte[] out, final int offset) {
+		if (this.buffered > 0) {
+			this.buffer[this.buffered] = 1;
+			for (int i = this.buffered + 1; i < TAG_LENGTH; i++)
+				this.buffer[i] = 0;
+			this.block(this.buffer, 0, 0);
+		}
+
+		int h0 = this.h0, h1 = this.h1, h2 = this.h2, h3 = this.h3, h4 = this.h4;
+		int c;
+		c = h1 >>> 26; h1 &= MASK26; h2 += c;
+		c = h2 >>> 26; h2 &= MASK26; h3 += c;
+		c = h3 >>> 26; h3 &= MASK26; h4 += c;
+		c = h4 >>> 26; h4 &= MASK26; h0 += c * 5;
+		c = h0 >>> 26; h0 &= MASK26; h1 += c;
+
+		// h - (2^130 - 5) を計算し、負でなければそちらを選ぶ
+		int g0 = h0 + 5; c = g0 >>> 26; g0 &= MASK26;
+		int g1 = h1 + c; c = g1 >>> 26; g1 &= MASK26;
+		int g2 = h2 + c; c = g2 >>> 26; g2 &= MASK26;
+		int g3 = h3 + c; c = g3 >>> 26; g3 &= MASK26;
+		int g4 = h4 + c - (1 << 26);
+
+		int mask = (g4 >>> 31) - 1;
+		h0 = (h0 & ~mask) | (g0 & mask);
+		h1 = (h1 & ~mask) | (g1 & mask);
+		h2 = (h2 & ~mask) | (g2 & mask);
+		h3 = (h3 & ~mask) | (g3 & mask);
+		h4 = (h4 & ~mask) | (g4 & mask);
+
+		int w0 = h0 | (h1 << 26);
+		int w1 = (h1 >>> 6) | (h2 << 20);
+		int w2 = (h2 >>> 12) | (h3 << 14);
+		int w3 = (h3 >>> 18) | (h4 << 8);
+
+		long f;
+		f = (w0 & 0xffffffffL) + (this.pad0 & 0xffffffffL);
+		ChaCha20.putLittleEndian(out, offset, (int)f);
+		f = (w1 & 0xffffffffL) + (this.pad1 & 0xffffffffL) + (f >>> 32);
+		ChaCha20.putLittleEndian(out, offset + 4, (int)f);
+		f = (w2 & 0xffffffffL) + (this.pad2 & 0xffffffffL) + (f >>> 32);
+		ChaCha20.putLittleEndian(out, offset + 8, (int)f);
+		f = (w3 & 0xffffffffL) + (this.pad3 & 0xffffffffL) + (f >>> 32);
+		ChaCha20.putLittleEndian(out, offset + 12, (int)f);
+
+		this.clear();
+	}
+
+	/**
+	 * 鍵と計算途中の値を消去する
+	 */
+	void clear() {
+		this.r0 = this.r1 = this.r2 = this.r3 = this.r4 = 0;
+		this.s1 = this.s2 = this.s3 = this.s4 = 0;
+		this.h0 = this.h1 = this.h2 = this.h3 = this.h4 = 0;
+		this.pad0 = this.pad1 = this.pad2 = this.pad3 = 0;
+		SecurityUtils.zeroOut(this.buffer);
+		this.buffered = 0;
+	}
+
+	/**
+	 * 16バイトのブロックを1つ処理する
+	 * @param hibit 完全なブロックの場合は2^128に相当する1 << 24、最後の不完全なブロックの場合は0
+	 */
+	private void block(final byte[] m, final int offset, final int hibit) {
+		int h0 = this.h0 + (ChaCha20.littleEndian(m, offset) & MASK26);
+		int h1 = this.h1 + ((ChaCha20.littleEndian(m, offset + 3) >>> 2) & MASK26);
+		int h2 = this.h2 + ((ChaCha20.littleEndian(m, offset + 6) >>> 4) & MASK26);
+		int h3 = this.h3 + ((ChaCha20.littleEndian(m, offset + 9) >>> 6) & MASK26);
+		int h4 = this.h4 + ((ChaCha20.littleEndian(m, offset + 12) >>> 8) | hibit);
+
+		final long r0 = this.r0, r1 = this.r1, r2 = this.r2, r3 = this.r3, r4 = this.r4;
+		final long s1 = this.s1, s2 = this.s2, s3 = this.s3, s4 = this.s4;
+
+		long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+		long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+		long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+		long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+		long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+		long c;
+		c = d0 >>> 26; h0 = (int)d0 & MASK26; d1 += c;
+		c = d1 >>> 26; h1 = (int)d1 & MASK26; d2 += c;
+		c = d2 >>> 26; h2 = (int)d2 & MASK26; d3 += c;
+		c = d3 >>> 26; h3 = (int)d3 & MASK26; d4 += c;
+		c = d4 >>> 26; h4 = (int)d4 & MASK26;
+		h0 += (int)c * 5;
+		h1 += h0 >>> 26;
+		h0 &= MASK26;
+
+		this.h0 = h0;
+		this.h1 = h1;
+		this.h2 = h2;
+		this.h3 = h3;
+		this.h4 = h4;
+	}
+}
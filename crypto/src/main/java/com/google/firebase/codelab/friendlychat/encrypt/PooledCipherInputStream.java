@@ -0,0 +1,149 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+/**
+ * 読み込んだデータを初期化済みのCipherで処理する入力ストリーム
+ * <p>
+ * CipherInputStreamと異なり、作業用のバッファは{@link BufferPool}から借り、
+ * Cipherの出力も借りたバッファに直接書き込ませるため、読み込みのたびに配列を確保しない。
+ * close()時にCipherをCipherPoolへ、バッファをBufferPoolへ返却する。
+ * 認証付き暗号で検証に失敗した場合はIOExceptionとなる。
+ * </p>
+ */
+class PooledCipherInputStream extends FilterInputStream {
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private Cipher cipher;
+	private byte[] ibuffer;
+	private byte[] obuffer;
+	private int ostart = 0;
+	private int ofinish = 0;
+	private boolean done = false;
+
+	PooledCipherInputStream(final InputStream is, final Cipher cipher) {
+		super(is);
+		this.cipher = cipher;
+		this.ibuffer = BufferPool.acquire(BUFFER_SIZE);
+		this.obuffer = BufferPool.acquire(cipher.getOutputSize(BUFFER_SIZE));
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (this.ostart >= this.ofinish)
+			if (this.fill() < 0)
+				return -1;
+		return this.obuffer[this.ostart++] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+		throws IOException {
+
+		if (len == 0)
+			return 0;
+		while (this.ostart >= this.ofinish)
+			if (this.fill() < 0)
+				return -1;
+
+		int n = Math.min(len, this.ofinish - this.ostart);
+		System.arraycopy(this.obuffer, this.ostart, b, off, n);
+		this.ostart += n;
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		long skipped = Math.min(Math.max(n, 0), this.ofinish - this.ostart);
+		this.ostart += (int)skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return this.ofinish - this.ostart;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		Cipher c;
+		synchronized (this) {
+			c = this.cipher;
+			this.cipher = null;
+		}
+		if (c == null)
+			return;
+
+		try {
+			this.in.close();
+		} finally {
+			if (!this.done) {
+				// 途中で閉じた場合もCipherを次の初期化に備えた状態に戻す
+				try {
+					c.doFinal();
+				} catch (GeneralSecurityException exn) {
+					// ignore.
+				}
+			}
+			CipherPool.release(c);
+			BufferPool.release(this.ibuffer);
+			BufferPool.release(this.obuffer);
+			this.ibuffer = null;
+			this.obuffer = null;
+			this.ostart = this.ofinish = 0;
+		}
+	}
+
+	/**
+	 * 次のデータを読み込んで処理する
+	 * @return 処理して得られたバイト数(0の場合がある。終わりに達していた場合は-1)
+	 */
+	private int fill() throws IOException {
+		if (this.done)
+			return -1;
+		if (this.cipher == null)
+			throw new IOException("Stream closed.");
+
+		int n = this.in.read(this.ibuffer, 0, BUFFER_SIZE);
+		try {
+			if (n < 0) {
+				this.done = true;
+				this.ensureOutput(this.cipher.getOutputSize(0));
+				this.ofinish = this.cipher.doFinal(this.obuffer, 0);
+			} else {
+				this.ensureOutput(this.cipher.getOutputSize(n));
+				this.ofinish = this.cipher.update(this.ibuffer, 0, n, this.obuffer, 0);
+			}
+			this.ostart = 0;
+			return this.ofinish;
+
+		} catch (ShortBufferException exn) {
+			// should not occur.
+			throw new IllegalStateException(exn);
+		} catch (GeneralSecurityException exn) {
+			throw new IOException(exn);
+		}
+	}
+
+	/**
+	 * 出力用のバッファがsizeバイトより小さい場合は借り直す
+	 * (認証付き暗号の復号では、検証が済むまで出力が溜まるため大きくなり得る)
+	 */
+	private void ensureOutput(final int size) {
+		if (this.obuffer.length >= size)
+			return;
+		BufferPool.release(this.obuffer);
+		this.obuffer = BufferPool.acquire(size);
+	}
+}
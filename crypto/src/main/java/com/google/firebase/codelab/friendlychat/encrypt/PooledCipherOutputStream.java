@@ -0,0 +1,105 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+
+/**
+ * 書き込んだデータを初期化済みのCipherで処理して書き出す出力ストリーム
+ * <p>
+ * CipherOutputStreamと異なり、Cipherの出力は{@link BufferPool}から借りたバッファに直接書き込ませるため、
+ * 書き込みのたびに配列を確保しない。
+ * close()時にCipherをCipherPoolへ、バッファをBufferPoolへ返却する。
+ * 最後の処理(パディングの除去や認証タグの検証)に失敗した場合、close()はIOExceptionとなる。
+ * </p>
+ */
+class PooledCipherOutputStream extends FilterOutputStream {
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private Cipher cipher;
+	private byte[] obuffer;
+
+	PooledCipherOutputStream(final OutputStream os, final Cipher cipher) {
+		super(os);
+		this.cipher = cipher;
+		this.obuffer = BufferPool.acquire(cipher.getOutputSize(BUFFER_SIZE));
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		this.write(new byte[]{(byte)b}, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len)
+		throws IOException {
+
+		if (this.cipher == null)
+			throw new IOException("Stream closed.");
+
+		try {
+			int o = off;
+			int remaining = len;
+			while (remaining > 0) {
+				int n = Math.min(remaining, BUFFER_SIZE);
+				this.ensureOutput(this.cipher.getOutputSize(n));
+				int produced = this.cipher.update(b, o, n, this.obuffer, 0);
+				if (produced > 0)
+					this.out.write(this.obuffer, 0, produced);
+				o += n;
+				remaining -= n;
+			}
+		} catch (ShortBufferException exn) {
+			// should not occur.
+			throw new IllegalStateException(exn);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		Cipher c;
+		synchronized (this) {
+			c = this.cipher;
+			this.cipher = null;
+		}
+		if (c == null)
+			return;
+
+		try {
+			this.ensureOutput(c.getOutputSize(0));
+			int produced = c.doFinal(this.obuffer, 0);
+			if (produced > 0)
+				this.out.write(this.obuffer, 0, produced);
+			this.out.flush();
+
+		} catch (GeneralSecurityException exn) {
+			throw new IOException(exn);
+
+		} finally {
+			CipherPool.release(c);
+			BufferPool.release(this.obuffer);
+			this.obuffer = null;
+			this.out.close();
+		}
+	}
+
+	/**
+	 * 出力用のバッファがsizeバイトより小さい場合は借り直す
+	 * (認証付き暗号の復号では、検証が済むまで出力が溜まるため大きくなり得る)
+	 */
+	private void ensureOutput(final int size) {
+		if (this.obuffer.length >= size)
+			return;
+		BufferPool.release(this.obuffer);
+		this.obuffer = BufferPool.acquire(size);
+	}
+}
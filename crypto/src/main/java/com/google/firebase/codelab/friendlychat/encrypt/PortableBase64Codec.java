@@ -0,0 +1,95 @@
+/**
+ * JavaのみによるBase64の実装(RFC 4648の標準の文字セット)
+ * <p>
+ * java.util.Base64はJava 8以降・Android API 26以降でしか使えないため、
+ * どの環境でも動く既定の実装として用意する。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.util.Arrays;
+
+final class PortableBase64Codec implements Base64Codec {
+	private static final char[] ALPHABET =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private static final int[] DECODE_TABLE = new int[128]; static {
+		Arrays.fill(DECODE_TABLE, -1);
+		for (int i = 0; i < ALPHABET.length; i++)
+			DECODE_TABLE[ALPHABET[i]] = i;
+	}
+
+	@Override
+	public String encode(final byte[] data) {
+		char[] out = new char[(data.length * 4 + 2) / 3];
+		int i = 0, j = 0;
+		for (; i + 3 <= data.length; i += 3) {
+			int n = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+			out[j++] = ALPHABET[n >>> 18];
+			out[j++] = ALPHABET[(n >>> 12) & 0x3f];
+			out[j++] = ALPHABET[(n >>> 6) & 0x3f];
+			out[j++] = ALPHABET[n & 0x3f];
+		}
+		int rest = data.length - i;
+		if (rest > 0) {
+			int n = (data[i] & 0xff) << 16 | ((rest == 2) ? (data[i + 1] & 0xff) << 8 : 0);
+			out[j++] = ALPHABET[n >>> 18];
+			out[j++] = ALPHABET[(n >>> 12) & 0x3f];
+			if (rest == 2)
+				out[j++] = ALPHABET[(n >>> 6) & 0x3f];
+		}
+		return new String(out);
+	}
+
+	@Override
+	public byte[] decode(final String str) {
+		byte[] out = new byte[str.length() * 3 / 4];
+		int bits = 0, count = 0, j = 0;
+		boolean padding = false;
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == ' ' || c == '\t' || c == '\r' || c == '\n')
+				continue;
+			if (c == '=') {
+				padding = true;
+				continue;
+			}
+			int v = (c < DECODE_TABLE.length) ? DECODE_TABLE[c] : -1;
+			if (v < 0 || padding) {
+				SecurityUtils.zeroOut(out);
+				throw new IllegalArgumentException("Invalid Base64 string.");
+			}
+
+			bits = bits << 6 | v;
+			if (++count == 4) {
+				out[j++] = (byte)(bits >>> 16);
+				out[j++] = (byte)(bits >>> 8);
+				out[j++] = (byte)bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+
+		switch (count) {
+		case 0:
+			break;
+		case 2:
+			out[j++] = (byte)(bits >>> 4);
+			break;
+		case 3:
+			out[j++] = (byte)(bits >>> 10);
+			out[j++] = (byte)(bits >>> 2);
+			break;
+		default:
+			SecurityUtils.zeroOut(out);
+			throw new IllegalArgumentException("Invalid Base64 string.");
+		}
+		if (j == out.length)
+			return out;
+
+		// 鍵を復号することがあるため、切り詰める前のバイト列は消去する
+		byte[] result = Arrays.copyOf(out, j);
+		SecurityUtils.zeroOut(out);
+		return result;
+	}
+}
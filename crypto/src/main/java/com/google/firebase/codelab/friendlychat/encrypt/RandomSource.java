@@ -0,0 +1,140 @@
+/**
+ * 暗号処理で共有する乱数源
+ * <p>
+ * 疑似乱数生成アルゴリズムごとに、スレッド単位で長期間使い回すSecureRandomを保持する。
+ * SecureRandom.getInstanceによるプロバイダ検索とシード生成は各スレッドで初回のみ行われる。
+ * IVやnonceのような短いバイト列は、まとめて生成したバッファから切り出して返す。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import com.google.firebase.codelab.friendlychat.PRNGAlgorithm;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.EnumMap;
+import java.util.Map;
+
+public class RandomSource {
+	private static final String TAG = "RandomSource";
+
+	/**
+	 * IV/nonce用にまとめて生成するバイト数
+	 */
+	public static final int IV_BUFFER_SIZE = 4096;
+
+	private static final Map<PRNGAlgorithm, ThreadLocal<Source>> SOURCES;
+	static {
+		SOURCES = new EnumMap<PRNGAlgorithm, ThreadLocal<Source>>(PRNGAlgorithm.class);
+		for (PRNGAlgorithm prng : PRNGAlgorithm.values())
+			SOURCES.put(prng, new ThreadLocal<Source>());
+	}
+
+	/**
+	 * スレッドごとのSecureRandomとIV用バッファ
+	 */
+	private static class Source {
+		final SecureRandom random;
+		final byte[] buffer = new byte[IV_BUFFER_SIZE];
+		int position = IV_BUFFER_SIZE;
+
+		Source(final SecureRandom random) {
+			this.random = random;
+		}
+	}
+
+	/**
+	 * 呼び出したスレッド専用のSecureRandomを返す
+	 * <p>
+	 * 返されたインスタンスを他のスレッドに渡さないこと。
+	 * </p>
+	 * @param prng 疑似乱数生成アルゴリズム
+	 * @return SecureRandom
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static SecureRandom get(final PRNGAlgorithm prng)
+		throws NoSuchAlgorithmException {
+
+		return source(prng).random;
+	}
+
+	/**
+	 * バイト配列を乱数で埋める
+	 * @param prng 疑似乱数生成アルゴリズム
+	 * @param ba
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static void nextBytes(final PRNGAlgorithm prng, final byte[] ba)
+		throws NoSuchAlgorithmException {
+
+		source(prng).random.nextBytes(ba);
+	}
+
+	/**
+	 * IV/nonce用のランダムなバイト列を生成する
+	 * @param prng 疑似乱数生成アルゴリズム
+	 * @param size バイト数
+	 * @return バイト列
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static byte[] nextIv(final PRNGAlgorithm prng, final int size)
+		throws NoSuchAlgorithmException {
+
+		byte[] iv = new byte[size];
+		nextIv(prng, iv, 0, size);
+		return iv;
+	}
+
+	/**
+	 * IV/nonce用のランダムなバイト列を指定した配列に書き込む
+	 * <p>
+	 * スレッドごとのバッファから切り出すため、短いバイト列を繰り返し生成する場合に
+	 * SecureRandom.nextBytesの呼び出し回数を減らせる。
+	 * </p>
+	 * @param prng 疑似乱数生成アルゴリズム
+	 * @param dst 書き込み先
+	 * @param offset 書き込み開始位置
+	 * @param length バイト数
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static void nextIv(final PRNGAlgorithm prng, final byte[] dst,
+														final int offset, final int length)
+		throws NoSuchAlgorithmException {
+
+		Source source = source(prng);
+		int off = offset;
+		int remaining = length;
+		while (remaining > 0) {
+			if (source.position == IV_BUFFER_SIZE) {
+				source.random.nextBytes(source.buffer);
+				source.position = 0;
+			}
+			int n = Math.min(remaining, IV_BUFFER_SIZE - source.position);
+			System.arraycopy(source.buffer, source.position, dst, off, n);
+			// 一度渡したバイトは再利用されないよう消しておく
+			SecurityUtils.zeroOut(source.buffer, source.position, n);
+			source.position += n;
+			off += n;
+			remaining -= n;
+		}
+	}
+
+	private static Source source(final PRNGAlgorithm prng)
+		throws NoSuchAlgorithmException {
+
+		ThreadLocal<Source> local = SOURCES.get(prng);
+		Source source = local.get();
+		if (source == null) {
+			try {
+				source = new Source(SecureRandom.getInstance(prng.toString()));
+			} catch (NoSuchAlgorithmException exn) {
+				Log.w(TAG, exn.getMessage());
+				throw exn;
+			}
+			local.set(source);
+		}
+		return source;
+	}
+
+	private RandomSource() {}
+}
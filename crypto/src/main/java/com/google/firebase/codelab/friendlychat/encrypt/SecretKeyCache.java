@@ -0,0 +1,162 @@
+/**
+ * 鍵の文字列表現から変換したSecretKeyのキャッシュ
+ * <p>
+ * メッセージごとに鍵の文字列表現を受け取る場合に、分割・Base64デコード・鍵の生成を繰り返さずに済む。
+ * キャッシュは鍵の文字列表現そのものではなく、そのSHA-256値をキーとして保持する。
+ * </p>
+ * <p>
+ * 件数の上限を超えた場合は最も長く参照されていない鍵から、キャッシュから外す。
+ * 有効期間を指定した場合は、キャッシュしてから有効期間が過ぎた鍵を次の参照時にキャッシュから外す。
+ * 上限や有効期間によって外した鍵は、呼び出し側が使っている可能性があるためゼロで埋めない。
+ * </p>
+ * <p>
+ * {@link #invalidate(String)}・{@link #invalidateAll()}で明示的に破棄した鍵に限り、
+ * バイト列をゼロで埋める。それ以降その鍵を使うと{@link IllegalStateException}となるため、
+ * 破棄するのは鍵を使う処理が無くなってからにすること。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.SecretKey;
+
+public class SecretKeyCache {
+	private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+	private static final MessageDigest FINGERPRINT_DIGEST; static {
+		try {
+			FINGERPRINT_DIGEST = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+		} catch (NoSuchAlgorithmException exn) {
+			// should not occur.
+			throw new IllegalStateException(exn);
+		}
+	}
+
+	private static final ThreadLocal<MessageDigest> FINGERPRINT_DIGESTS =
+		new ThreadLocal<MessageDigest>() {
+			@Override
+			protected MessageDigest initialValue() {
+				return Hash.newMessageDigest(FINGERPRINT_DIGEST);
+			}
+		};
+
+	private final long ttlNanos;
+	private final LruCache<ByteBuffer, Entry> cache;
+
+	private static final class Entry {
+		final CachedSecretKey key;
+		final long expiresAt;
+
+		Entry(final CachedSecretKey key, final long expiresAt) {
+			this.key = key;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * コンストラクタ(有効期間なし)
+	 * @param maxSize キャッシュする鍵の最大数
+	 */
+	public SecretKeyCache(final int maxSize) {
+		this(maxSize, 0);
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param maxSize キャッシュする鍵の最大数
+	 * @param ttlMillis キャッシュしてからの有効期間(ミリ秒、0以下の場合は無期限)
+	 */
+	public SecretKeyCache(final int maxSize, final long ttlMillis) {
+		this.ttlNanos = (ttlMillis > 0) ? ttlMillis * 1000 * 1000 : 0;
+		this.cache = new LruCache<ByteBuffer, Entry>(maxSize);
+	}
+
+	/**
+	 * 鍵の文字列表現に対応する鍵を返す
+	 * <p>
+	 * キャッシュに無い場合や有効期間が過ぎている場合は、変換してキャッシュする。
+	 * 複数のスレッドが同時に変換した場合も、キャッシュされた同じ鍵を返す。
+	 * </p>
+	 * @param secretKeyStr {@link SecurityUtils#secretKeyToString(SecretKey)}の形式の文字列
+	 * @return 鍵
+	 * @exception IllegalArgumentException 鍵の文字列表現が不正な場合
+	 */
+	public SecretKey get(final String secretKeyStr) {
+		ByteBuffer fingerprint = fingerprint(secretKeyStr);
+		Entry created = null;
+		while (true) {
+			Entry entry = this.cache.get(fingerprint);
+			long now = System.nanoTime();
+			if (entry != null) {
+				if (this.isValid(entry, now))
+					return this.adopt(entry, created);
+				// 使用中かもしれないため、ゼロで埋めずにキャッシュから外すだけにする
+				this.cache.remove(fingerprint);
+			}
+
+			if (created == null) {
+				String[] a = SecurityUtils.splitSecretKeyString(secretKeyStr);
+				created = new Entry(new CachedSecretKey(a[0], CryptoPlatform.getBase64Codec().decode(a[1])),
+														now + this.ttlNanos);
+			}
+			entry = this.cache.putIfAbsent(fingerprint, created);
+			if (entry == null)
+				return created.key;
+			if (this.isValid(entry, now))
+				return this.adopt(entry, created);
+		}
+	}
+
+	private boolean isValid(final Entry entry, final long now) {
+		return this.ttlNanos == 0 || now - entry.expiresAt < 0;
+	}
+
+	/**
+	 * キャッシュされていた鍵を返し、使われなかった鍵はゼロで埋める
+	 */
+	private SecretKey adopt(final Entry cached, final Entry unused) {
+		if (unused != null)
+			unused.key.destroy();
+		return cached.key;
+	}
+
+	/**
+	 * 鍵の文字列表現に対応する鍵をキャッシュから破棄し、バイト列をゼロで埋める
+	 * @param secretKeyStr 鍵の文字列表現
+	 */
+	public void invalidate(final String secretKeyStr) {
+		Entry entry = this.cache.remove(fingerprint(secretKeyStr));
+		if (entry != null)
+			entry.key.destroy();
+	}
+
+	/**
+	 * 全ての鍵をキャッシュから破棄し、バイト列をゼロで埋める
+	 */
+	public void invalidateAll() {
+		for (Entry entry : this.cache.removeAll())
+			entry.key.destroy();
+	}
+
+	/**
+	 * @return キャッシュしている鍵の数(有効期間が過ぎて未破棄のものを含む)
+	 */
+	public int size() {
+		return this.cache.size();
+	}
+
+	/**
+	 * @return キャッシュする鍵の最大数
+	 */
+	public int maxSize() {
+		return this.cache.maxSize();
+	}
+
+	private static ByteBuffer fingerprint(final String secretKeyStr) {
+		MessageDigest md = FINGERPRINT_DIGESTS.get();
+		return ByteBuffer.wrap(md.digest(secretKeyStr.getBytes(Constants.CHARSET_UTF8)));
+	}
+}
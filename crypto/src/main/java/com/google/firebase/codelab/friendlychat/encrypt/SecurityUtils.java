@@ -0,0 +1,421 @@
+/**
+ *
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import com.google.firebase.codelab.friendlychat.PRNGAlgorithm;
+import com.google.firebase.codelab.friendlychat.encrypt.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+
+/**
+ * @author M.Hashimoto
+ *
+ */
+public class SecurityUtils {
+	private static final PRNGAlgorithm PRNG_ALGORITHM = PRNGAlgorithm.SHA1PRNG;
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final String SECRET_KEY_SEP = ":";
+
+	private static final int BUF_SIZE = 1024;
+
+	/**
+	 * streamToByteBuffer()で見積もりを超えた分を読み込むチャンクの最大バイト数
+	 */
+	private static final int MAX_CHUNK_SIZE = BufferPool.MAX_SIZE;
+
+	/**
+	 * generateHash()の結果をキャッシュする件数
+	 */
+	public static final int HASH_CACHE_SIZE = 256;
+
+	private static MessageDigest MESSAGE_DIGEST; static {
+		try {
+			MESSAGE_DIGEST = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// should not occur.
+			e.printStackTrace();
+			MESSAGE_DIGEST = null;
+		}
+	}
+
+	private static final ThreadLocal<MessageDigest> HASH_DIGESTS =
+		new ThreadLocal<MessageDigest>() {
+			@Override
+			protected MessageDigest initialValue() {
+				return Hash.newMessageDigest(MESSAGE_DIGEST);
+			}
+		};
+
+	private static final LruCache<String, String> HASH_CACHE =
+		new LruCache<String, String>(HASH_CACHE_SIZE);
+
+	/**
+	 * stringToCachedSecretKey()の結果をキャッシュする件数
+	 */
+	public static final int SECRET_KEY_CACHE_SIZE = 64;
+
+	private static final SecretKeyCache SECRET_KEY_CACHE =
+		new SecretKeyCache(SECRET_KEY_CACHE_SIZE);
+
+	/**
+	 * 文字列から、そのハッシュ値を求めます。
+	 * <p>
+	 * 同じ文字列に対する結果は直近{@link #HASH_CACHE_SIZE}件までキャッシュされます。
+	 * </p>
+	 *
+	 * @return ハッシュ値の文字列表現
+	 */
+	public static String generateHash(String id) {
+		String hash = HASH_CACHE.get(id);
+		if (hash == null) {
+			MessageDigest md = HASH_DIGESTS.get();
+			hash = byteArrayToString(md.digest(id.getBytes(Constants.CHARSET_UTF8)));
+			HASH_CACHE.put(id, hash);
+		}
+		return hash;
+	}
+
+//	/**
+//	 * 共通鍵を生成します。
+//	 *
+//	 * @return 共通鍵
+//	 */
+//	public static SecretKey generateSecretKey() {
+//		try {
+//			return new SymmetricCipher().generateKey();
+//		} catch (Exception e) {
+//			// NoSuchAlgorithmException?
+//			return null;
+//		}
+//	}
+
+	/**
+	 * 鍵を文字列に変換します。
+	 *
+	 * @param secretKey 鍵
+	 * @return 鍵の文字列表現
+	 */
+	public static String secretKeyToString(SecretKey secretKey) {
+		return secretKey.getAlgorithm() + SECRET_KEY_SEP +
+			CryptoPlatform.getBase64Codec().encode(secretKey.getEncoded());
+	}
+
+	/**
+	 * 文字列を鍵に変換します。
+	 *
+	 * @param secretKeyStr 鍵の文字列表現
+	 * @return 鍵
+	 * @exception IllegalArgumentException 鍵の文字列表現が不正な場合
+	 */
+	public static SecretKey stringToSecretKey(String secretKeyStr)
+		throws IllegalArgumentException {
+
+		String[] a = splitSecretKeyString(secretKeyStr);
+		return new SecretKeySpec(CryptoPlatform.getBase64Codec().decode(a[1]), a[0]);
+	}
+
+	/**
+	 * 文字列を鍵に変換します。
+	 * <p>
+	 * 同じ文字列に対する結果は直近{@link #SECRET_KEY_CACHE_SIZE}件までキャッシュされます。
+	 * 件数の上限を超えてキャッシュから外れた鍵は消去されないため、取得した鍵を保持しても構いません。
+	 * {@link #invalidateCachedSecretKey(String)}で破棄した鍵のみ消去されます。
+	 * </p>
+	 *
+	 * @param secretKeyStr 鍵の文字列表現
+	 * @return 鍵
+	 * @exception IllegalArgumentException 鍵の文字列表現が不正な場合
+	 * @see SecretKeyCache
+	 */
+	public static SecretKey stringToCachedSecretKey(String secretKeyStr)
+		throws IllegalArgumentException {
+
+		return SECRET_KEY_CACHE.get(secretKeyStr);
+	}
+
+	/**
+	 * {@link #stringToCachedSecretKey(String)}のキャッシュから鍵を破棄します。
+	 * <p>
+	 * 破棄した鍵は消去されるため、その鍵を使う処理が無くなってから呼んでください。
+	 * </p>
+	 *
+	 * @param secretKeyStr 鍵の文字列表現
+	 */
+	public static void invalidateCachedSecretKey(String secretKeyStr) {
+		SECRET_KEY_CACHE.invalidate(secretKeyStr);
+	}
+
+	/**
+	 * 鍵の文字列表現をアルゴリズム名と鍵のBase64表現に分けます。
+	 *
+	 * @param secretKeyStr 鍵の文字列表現
+	 * @return アルゴリズム名と鍵のBase64表現
+	 * @exception IllegalArgumentException アルゴリズム名が無い場合
+	 */
+	static String[] splitSecretKeyString(String secretKeyStr)
+		throws IllegalArgumentException {
+
+		String[] a = secretKeyStr.split(SECRET_KEY_SEP, 2);
+		if (a.length < 2)
+			throw new IllegalArgumentException(
+				"Key string has no algorithm section.");
+		return a;
+	}
+
+	/**
+	 * 利用可能なアルゴリズムを調べる
+	 * @param serviceName
+	 * @return アルゴリズム名のSet
+	 */
+	public static Set<String> getAvailableAlgorithms(String serviceName) {
+		Set<String> s = Security.getAlgorithms(serviceName);
+		return s;
+	}
+
+	/**
+	 * 利用可能な暗号アルゴリズムを調べる
+	 * @return 利用可能な暗号アルゴリズム名のSet
+	 */
+	public static Set<String> getAvailableCipherAlgorithms() {
+		return getAvailableAlgorithms("Cipher");
+	}
+
+
+	/**
+	 * バイト列を文字列に変換
+	 * @param ba
+	 * @return 文字列
+	 */
+	public static String byteArrayToString(byte[] ba) {
+		return Hex.toString(ba);
+	}
+
+	/**
+	 * バイト列の文字列表現をバイト列に変換
+	 *
+	 * @param byteString バイト列の文字列表現
+	 * @return バイト列
+	 * @exception IllegalArgumentException 16進数文字列として不正な場合
+	 */
+	public static byte[] stringToByteArray(String byteString) {
+		return Hex.decode(byteString);
+	}
+
+	/**
+	 * Keyの文字列表現を得る
+	 * @param key
+	 * @return 文字列表現
+	 */
+	public static String keyToString(Key key) {
+		return key.getAlgorithm()+":"+byteArrayToString(key.getEncoded())+"("+key.getFormat()+")";
+	}
+
+	/**
+	 * Closeableを閉じる
+	 * @param closeable
+	 */
+	public static void closeSilently(final Closeable closeable) {
+		if (closeable != null)
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				//
+			}
+	}
+
+	/**
+	 * バイト配列をゼロで埋める
+	 * @param ba
+	 */
+	public static void zeroOut(final byte[] ba) {
+		Arrays.fill(ba, (byte)0x00);
+	}
+
+	/**
+	 * バイト配列の指定範囲をゼロで埋める
+	 * @param ba
+	 * @param offset 開始位置
+	 * @param length バイト数
+	 */
+	public static void zeroOut(final byte[] ba, final int offset,
+														 final int length) {
+		Arrays.fill(ba, offset, offset + length, (byte)0x00);
+	}
+
+	/**
+	 * 文字配列を空白で埋める
+	 * @param ca
+	 */
+	public static void zeroOut(final char[] ca) {
+		Arrays.fill(ca, ' ');
+	}
+
+	/**
+	 * ランダムなバイト列を生成する
+	 * @param size
+	 * @return バイト列
+	 * @throws Exception
+	 */
+	public static byte[] generateByteArray(final int size) throws Exception {
+		byte[] ba = new byte[size];
+		try {
+			RandomSource.nextBytes(PRNG_ALGORITHM, ba);
+
+		} catch (NoSuchAlgorithmException exn) {
+			//Log.w("SecurityUtils.generateByteArray", exn.getMessage());
+			throw exn;
+		}
+		return ba;
+	}
+
+	/**
+	 * 入力ストリームを最後まで読み込み、バイト列にする(ストリームは閉じる)
+	 * <p>
+	 * 読み込むバイト数の見積もりにはavailable()を使う。
+	 * 呼び出し元で見積もれる場合は{@link #streamToByteArray(InputStream, int)}を使うこと。
+	 * </p>
+	 * @param is
+	 * @return 読み込んだバイト列
+	 * @throws IOException
+	 */
+	public static byte[] streamToByteArray(InputStream is)
+		throws IOException {
+
+		int available;
+		try {
+			available = is.available();
+		} catch (IOException exn) {
+			closeSilently(is);
+			throw exn;
+		}
+		return streamToByteArray(is, (available > 0) ? available : BUF_SIZE);
+	}
+
+	/**
+	 * 入力ストリームを最後まで読み込み、バイト列にする(ストリームは閉じる)
+	 * <p>
+	 * 見積もりがちょうどの場合はコピーせずにそのまま返す。
+	 * 見積もりより短い場合は切り詰めたコピーを返す。
+	 * </p>
+	 * @param is
+	 * @param sizeHint 読み込むバイト数の見積もり
+	 * @return 読み込んだバイト列
+	 * @throws IOException
+	 * @see #streamToByteBuffer(InputStream, int)
+	 */
+	public static byte[] streamToByteArray(final InputStream is, final int sizeHint)
+		throws IOException {
+
+		ByteBuffer buf = streamToByteBuffer(is, sizeHint);
+		byte[] ba = buf.array();
+		if (buf.limit() == ba.length)
+			return ba;
+
+		// 復号した平文などが残らないよう、切り詰める前の配列は消去する
+		byte[] result = Arrays.copyOf(ba, buf.limit());
+		zeroOut(ba);
+		return result;
+	}
+
+	/**
+	 * 入力ストリームを最後まで読み込み、ByteBufferにする(ストリームは閉じる)
+	 * <p>
+	 * まず見積もりの大きさの配列に直接読み込む。
+	 * 見積もりを超えた分は{@link BufferPool}から借りた倍々に大きくなるチャンクに読み込み、
+	 * 最後に1回だけ連結する。
+	 * 見積もりより短い場合もコピーはしない。
+	 * </p>
+	 * @param is
+	 * @param sizeHint 読み込むバイト数の見積もり
+	 * @return ヒープのByteBuffer(positionは0、limitは読み込んだバイト数。
+	 *         array()の長さはlimitより大きい場合がある)
+	 * @throws IOException
+	 */
+	public static ByteBuffer streamToByteBuffer(final InputStream is, final int sizeHint)
+		throws IOException {
+
+		try {
+			byte[] first = new byte[Math.max(sizeHint, 0)];
+			int n = readFully(is, first, 0, first.length);
+			if (n < first.length)
+				return ByteBuffer.wrap(first, 0, n);
+
+			int b = is.read();
+			if (b < 0)
+				return ByteBuffer.wrap(first);
+
+			// 見積もりを超えた分はプールから借りたチャンクに読み込む
+			List<byte[]> chunks = new ArrayList<byte[]>();
+			try {
+				long total = first.length;
+				byte[] chunk = BufferPool.acquire(Math.max(first.length, BUF_SIZE));
+				chunks.add(chunk);
+				chunk[0] = (byte)b;
+				int len = 1 + readFully(is, chunk, 1, chunk.length - 1);
+				while (len == chunk.length) {
+					total += len;
+					chunk = BufferPool.acquire(Math.min(chunk.length * 2, MAX_CHUNK_SIZE));
+					chunks.add(chunk);
+					len = readFully(is, chunk, 0, chunk.length);
+				}
+				total += len;
+				if (total > Integer.MAX_VALUE - 8)
+					throw new IOException("Stream is too large: " + total + " bytes.");
+
+				byte[] out = new byte[(int)total];
+				System.arraycopy(first, 0, out, 0, first.length);
+				int pos = first.length;
+				for (byte[] c : chunks) {
+					int l = Math.min(c.length, out.length - pos);
+					System.arraycopy(c, 0, out, pos, l);
+					pos += l;
+				}
+				return ByteBuffer.wrap(out);
+
+			} finally {
+				zeroOut(first);
+				for (byte[] c : chunks)
+					BufferPool.release(c);
+			}
+
+		} finally {
+			closeSilently(is);
+		}
+	}
+
+	/**
+	 * 配列が一杯になるかストリームの終わりまで読み込む
+	 * @return 読み込んだバイト数(lenより小さい場合はストリームの終わり)
+	 */
+	private static int readFully(final InputStream is, final byte[] b,
+															 final int off, final int len)
+		throws IOException {
+
+		int n = 0;
+		while (n < len) {
+			int r = is.read(b, off + n, len - n);
+			if (r < 0)
+				break;
+			n += r;
+		}
+		return n;
+	}
+
+	private SecurityUtils() {}
+}
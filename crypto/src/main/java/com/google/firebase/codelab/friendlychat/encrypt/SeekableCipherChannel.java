@@ -0,0 +1,202 @@
+/**
+ * CTRモードで暗号化されたファイルを任意の位置から復号して読み込むチャネル
+ * <p>
+ * 対象は、利用モードにCTRを指定したSymmetricCipherの
+ * {@link SymmetricCipher#encryptFile(java.io.File, java.io.File, javax.crypto.SecretKey)}
+ * などで作成した、initial vectorに続いて暗号文が並ぶファイル。
+ * CTRモードではブロック番号からカウンタ値を計算できるため、
+ * 読み込み位置より前の暗号文を復号せずに目的の範囲だけを復号できる。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+
+public class SeekableCipherChannel implements ReadableByteChannel {
+	private static final String TAG = "SeekableCipherChannel";
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final SymmetricCipher owner;
+	private final FileChannel channel;
+	private final SecretKey key;
+	private final byte[] iv;
+	private final long size;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private Cipher cipher;
+	private long position = 0;
+	private boolean positioned = false;
+
+	/**
+	 * コンストラクタ
+	 * <p>
+	 * channelは読み込み専用で使い、このチャネルのclose()で閉じられる。
+	 * </p>
+	 * @param owner 暗号化に使ったSymmetricCipher(利用モードはCTR)
+	 * @param channel 暗号化されたファイルのチャネル
+	 * @param key 共通鍵
+	 * @throws IOException initial vectorを読み込めない場合
+	 */
+	SeekableCipherChannel(final SymmetricCipher owner, final FileChannel channel,
+												final SecretKey key) throws IOException {
+		this.owner = owner;
+		this.channel = channel;
+		this.key = key;
+		this.cipher = owner.getCipher();
+
+		try {
+			int blockSize = this.cipher.getBlockSize();
+			ByteBuffer ivBuf = ByteBuffer.allocate(blockSize);
+			while (ivBuf.hasRemaining())
+				if (channel.read(ivBuf, ivBuf.position()) < 0)
+					throw new EOFException("File is shorter than the initial vector.");
+
+			this.iv = ivBuf.array();
+			this.size = channel.size() - blockSize;
+
+		} catch (IOException exn) {
+			Log.w(TAG, exn.getMessage());
+			this.close();
+			throw exn;
+		}
+	}
+
+	/**
+	 * @return 復号後のデータのバイト数
+	 */
+	public long size() {
+		return this.size;
+	}
+
+	/**
+	 * @return 現在の読み込み位置(復号後のデータ上の位置)
+	 */
+	public synchronized long position() {
+		return this.position;
+	}
+
+	/**
+	 * 読み込み位置を変更する
+	 * @param newPosition 復号後のデータ上の位置
+	 * @return このチャネル
+	 */
+	public synchronized SeekableCipherChannel position(final long newPosition) {
+		if (newPosition < 0)
+			throw new IllegalArgumentException("newPosition < 0");
+
+		if (newPosition != this.position) {
+			this.position = newPosition;
+			this.positioned = false;
+		}
+		return this;
+	}
+
+	/**
+	 * 指定した位置から読み込む
+	 * <p>
+	 * 読み込み後の位置は position + 読み込んだバイト数 となる。
+	 * </p>
+	 * @param dst 読み込み先
+	 * @param position 復号後のデータ上の位置
+	 * @return 読み込んだバイト数(終端の場合は-1)
+	 * @throws IOException
+	 */
+	public synchronized int read(final ByteBuffer dst, final long position)
+		throws IOException {
+
+		this.position(position);
+		return this.read(dst);
+	}
+
+	@Override
+	public synchronized int read(final ByteBuffer dst) throws IOException {
+		if (this.cipher == null)
+			throw new ClosedChannelException();
+		if (this.position >= this.size)
+			return -1;
+
+		try {
+			if (!this.positioned)
+				this.seek();
+
+			int n = (int)Math.min(Math.min(dst.remaining(), this.buffer.capacity()),
+														this.size - this.position);
+			this.buffer.clear();
+			this.buffer.limit(n);
+			long filePosition = this.iv.length + this.position;
+			while (this.buffer.hasRemaining()) {
+				int r = this.channel.read(this.buffer, filePosition + this.buffer.position());
+				if (r < 0)
+					throw new EOFException("Unexpected end of file.");
+			}
+			this.buffer.flip();
+			int written = this.cipher.update(this.buffer, dst);
+			this.position += written;
+			return written;
+
+		} catch (ShortBufferException exn) {
+			// should not occur. (CTRモードでは入出力のバイト数が等しい)
+			throw new IllegalStateException(exn);
+		} catch (GeneralSecurityException exn) {
+			Log.w(TAG, exn.getMessage());
+			throw new IOException(exn);
+		}
+	}
+
+	/**
+	 * 現在の位置を含むブロックのカウンタ値でCipherを初期化し、ブロック内の位置まで進める
+	 */
+	private void seek() throws GeneralSecurityException {
+		int blockSize = this.iv.length;
+		long block = this.position / blockSize;
+		int skip = (int)(this.position % blockSize);
+
+		this.cipher.init(Cipher.DECRYPT_MODE, this.key,
+										 new IvParameterSpec(addCounter(this.iv, block)));
+		if (skip > 0)
+			this.cipher.update(new byte[skip]);
+		this.positioned = true;
+	}
+
+	/**
+	 * initial vectorをビッグエンディアンの整数とみなし、ブロック番号を加算する
+	 * @param iv
+	 * @param block ブロック番号
+	 * @return カウンタ値
+	 */
+	static byte[] addCounter(final byte[] iv, final long block) {
+		byte[] counter = iv.clone();
+		long carry = block;
+		for (int i = counter.length - 1; i >= 0 && carry != 0; i--) {
+			long sum = (counter[i] & 0xff) + (carry & 0xff);
+			counter[i] = (byte)sum;
+			carry = (carry >>> 8) + (sum >>> 8);
+		}
+		return counter;
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return this.cipher != null;
+	}
+
+	@Override
+	public synchronized void close() {
+		SecurityUtils.closeSilently(this.channel);
+		if (this.cipher != null) {
+			this.owner.releaseCipher(this.cipher);
+			this.cipher = null;
+		}
+	}
+}
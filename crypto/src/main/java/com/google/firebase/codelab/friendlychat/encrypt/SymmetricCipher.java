@@ -0,0 +1,1114 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.io.ByteArrayInputStream;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Created by 4925011 on 2017/02/22.
+ */
+
+public class SymmetricCipher extends AbstractCipher{
+
+    /**
+     * 標準の暗号アルゴリズム
+     */
+    public static final Algorithm DEFAULT_ALGORITHM = Algorithm.AES;
+    /**
+     * 標準のブロック暗号利用モード
+     */
+    public static final CipherMode DEFAULT_CIPHER_MODE = CipherMode.CBC;
+    /**
+     * 標準のパディング方式
+     */
+    public static final Padding DEFAULT_PADDING = Padding.PKCS5;
+    /**
+     * 標準の鍵サイズ
+     */
+    public static final int DEFAULT_KEY_SIZE = 128;
+
+    /**
+     * デフォルトコンストラクタ
+     * @throws Exception
+     */
+    public SymmetricCipher() throws Exception {
+        this(DEFAULT_ALGORITHM, DEFAULT_CIPHER_MODE, DEFAULT_PADDING, DEFAULT_KEY_SIZE);
+    }
+
+    /**
+     * コンストラクタ
+     * @param algo
+     * @param mode
+     * @param padding
+     * @param keySize
+     * @throws Exception
+     */
+    public SymmetricCipher(final Algorithm algo, final CipherMode mode,
+                           final Padding padding, final int keySize)
+            throws NoSuchAlgorithmException, NoSuchPaddingException {
+
+        super(mode, padding, keySize);
+        this.algorithm = algo;
+        this.transformation = CipherPool.transformation(algo.toString(), mode, padding);
+        if (algo == Algorithm.CHACHA20)
+            // プラットフォームが提供しない場合はJava実装を使う
+            CryptoProvider.install();
+
+        // 利用可能かどうかをここで確認し、取得したCipherはプールに残しておく
+        Cipher cipher = CipherPool.acquire(this.transformation);
+        this.blockSize = cipher.getBlockSize();
+        this.ivLength = isAuthenticated(mode) ? AEAD_IV_LENGTH : this.blockSize;
+        CipherPool.release(cipher);
+    }
+
+    /**
+     * CipherPoolからこのインスタンスのtransformationに対応するCipherを取得する
+     * @return Cipher
+     * @exception IllegalStateException Cipherを取得できない場合(コンストラクタで確認済みのため通常は発生しない)
+     */
+    @Override
+    protected Cipher getCipher() {
+        try {
+            return CipherPool.acquire(this.transformation);
+
+        } catch (NoSuchAlgorithmException exn) {
+            Log.w(TAG+".getCipher", exn.getMessage());
+            throw new IllegalStateException(exn);
+
+        } catch (NoSuchPaddingException exn) {
+            Log.w(TAG+".getCipher", exn.getMessage());
+            throw new IllegalStateException(exn);
+        }
+    }
+
+    /**
+     * @return 暗号アルゴリズム
+     */
+    public Algorithm getAlgorithm() {
+        return this.algorithm;
+    }
+
+    @Override
+    protected String getAlgorithmName() {
+        return this.algorithm.toString();
+    }
+
+    /**
+     * @return ブロックサイズ
+     */
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    /**
+     * @return initial vectorのバイト数(GCM, POLY1305の場合は12、それ以外はブロックサイズ)
+     */
+    public int getIvLength() {
+        return this.ivLength;
+    }
+
+    /**
+     * @return 認証タグのバイト数(認証付き暗号でない場合は0)
+     */
+    public int getTagLength() {
+        return isAuthenticated(this.getCipherMode()) ? AEAD_TAG_LENGTH : 0;
+    }
+
+    private static boolean isAuthenticated(final CipherMode mode) {
+        return mode == CipherMode.GCM || mode == CipherMode.POLY1305;
+    }
+
+    /**
+     * initial vectorから利用モードに応じたパラメータを作る
+     * @param iv
+     * @return GCMの場合はGCMParameterSpec、それ以外はIvParameterSpec
+     */
+    AlgorithmParameterSpec parameterSpec(final byte[] iv) {
+        if (this.getCipherMode() == CipherMode.GCM)
+            return new GCMParameterSpec(AEAD_TAG_LENGTH * 8, iv);
+        return new IvParameterSpec(iv);
+    }
+
+    public enum Algorithm {
+        AES,
+        BROWFISH,
+        DES,
+        /**
+         * ChaCha20(利用モードはPOLY1305、パディングはNone、鍵サイズは256を指定する)
+         * <p>
+         * AES命令を持たないCPUではAES/GCMより高速。
+         * プラットフォームが提供しない場合は{@link CryptoProvider}のJava実装を使う。
+         * Java実装を含め、AndroidではAPI 19以降が必要。
+         * {@link SymmetricCipher#decryptFile(File, File, SecretKey)}はファイル全体をメモリに保持するため、
+         * 大きなデータには{@link SymmetricCipher#authenticatedOutputStream(OutputStream, SecretKey)}を使うこと。
+         * </p>
+         */
+        CHACHA20;
+    }
+
+    private static final String TAG = "SymmetricCipher";
+
+    /**
+     * encryptFile/decryptFileで一度に読み込むバイト数
+     */
+    private static final int FILE_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * 認証付き暗号(GCM, POLY1305)のinitial vector(nonce)のバイト数
+     */
+    static final int AEAD_IV_LENGTH = 12;
+
+    /**
+     * 認証付き暗号(GCM, POLY1305)の認証タグのバイト数
+     */
+    static final int AEAD_TAG_LENGTH = 16;
+
+    private Algorithm algorithm;
+
+    private String transformation;
+
+    private int blockSize;
+
+    private int ivLength;
+
+
+    public byte[] encrypt(final byte[] data, final SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException,
+            IllegalBlockSizeException, BadPaddingException {
+
+        long start = System.nanoTime();
+        try {
+            // パディングを含めた出力サイズは事前に分かるため、結果の配列に直接読み込む
+            byte[] out = SecurityUtils.streamToByteArray(
+                    this.encrypt(new ByteArrayInputStream(data), key),
+                    this.getEncryptOutputSize(data.length));
+            this.metrics(CryptoMetrics.Operation.ENCRYPT).record(data.length, System.nanoTime() - start);
+            return out;
+
+        } catch (IOException e) {
+            // should not occur.
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * バイト列を復号
+     *
+     * @param data
+     * @param key
+     * @return 復号されたバイト列
+     * @throws Exception
+     */
+    public byte[] decrypt(final byte[] data, final SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException,
+            IllegalBlockSizeException, BadPaddingException,
+            InvalidAlgorithmParameterException, IOException {
+
+        long start = System.nanoTime();
+        byte[] out = SecurityUtils.streamToByteArray(
+                this.decrypt(new ByteArrayInputStream(data), key),
+                this.getDecryptOutputSize(data.length));
+        this.metrics(CryptoMetrics.Operation.DECRYPT).record(data.length, System.nanoTime() - start);
+        return out;
+    }
+
+    /**
+     * バイト列を共通鍵で暗号化する処理を{@link CryptoExecutors#async()}で実行する
+     * <p>
+     * 返したFutureのcancel()で実行前の処理を取り消せる。
+     * 結果は{@link #encrypt(byte[], SecretKey)}と同じで、失敗した場合の例外はコールバックに渡す。
+     * </p>
+     * @param data 暗号化するバイト列(完了するまで変更しないこと)
+     * @param key 共通鍵
+     * @param callbackExecutor コールバックを呼ぶExecutor(UIスレッドのExecutorなど。nullの場合は処理したスレッドで呼ぶ)
+     * @param callback コールバック(nullの場合は呼ばない)
+     * @return 暗号化されたバイト列のFuture
+     */
+    public Future<byte[]> encryptAsync(final byte[] data, final SecretKey key,
+                                       final Executor callbackExecutor,
+                                       final CryptoCallback<? super byte[]> callback) {
+        return CryptoExecutors.submitAsync(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return encrypt(data, key);
+                }
+            }, callbackExecutor, callback);
+    }
+
+    /**
+     * バイト列を共通鍵で復号する処理を{@link CryptoExecutors#async()}で実行する
+     * <p>
+     * 返したFutureのcancel()で実行前の処理を取り消せる。
+     * 結果は{@link #decrypt(byte[], SecretKey)}と同じで、失敗した場合の例外はコールバックに渡す。
+     * </p>
+     * @param data 復号するバイト列(完了するまで変更しないこと)
+     * @param key 共通鍵
+     * @param callbackExecutor コールバックを呼ぶExecutor(UIスレッドのExecutorなど。nullの場合は処理したスレッドで呼ぶ)
+     * @param callback コールバック(nullの場合は呼ばない)
+     * @return 復号されたバイト列のFuture
+     */
+    public Future<byte[]> decryptAsync(final byte[] data, final SecretKey key,
+                                       final Executor callbackExecutor,
+                                       final CryptoCallback<? super byte[]> callback) {
+        return CryptoExecutors.submitAsync(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return decrypt(data, key);
+                }
+            }, callbackExecutor, callback);
+    }
+
+
+    /**
+     * 入力ストリームを共通鍵で暗号化
+     * initial vectorに続いて暗号化されたコンテンツが配置される
+     * @param is 入力ストリーム
+     * @param key 共通鍵
+     * @return 暗号化された入力ストリーム
+     * @throws Exception
+     */
+    public InputStream encrypt(InputStream is, SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+
+        final String tag = TAG+".encrypt";
+
+        Cipher cipher = this.getCipher();
+        try {
+            byte[] iv = this.initEncrypt(cipher, key);
+
+            return new SequenceInputStream(new ByteArrayInputStream(iv),
+                    new PooledCipherInputStream(is, cipher));
+
+        } catch (InvalidKeyException exn) {
+            Log.w(tag, exn.getMessage());
+            this.releaseCipher(cipher);
+            throw exn;
+
+        } catch (NoSuchAlgorithmException exn) {
+            this.releaseCipher(cipher);
+            throw exn;
+        }
+    }
+
+    /**
+     * ByteBufferの内容を共通鍵で暗号化する
+     * <p>
+     * dstにはinitial vectorに続いて暗号化されたコンテンツが書き込まれる。
+     * 中間のバイト配列を経由しないため、ダイレクトバッファを渡せばヒープへのコピーは発生しない。
+     * 必要なdstの大きさは{@link #getEncryptOutputSize(int)}で求められる。
+     * </p>
+     * @param src 暗号化するデータ(positionからlimitまで)
+     * @param dst 書き込み先
+     * @param key 共通鍵
+     * @return dstに書き込んだバイト数
+     * @throws ShortBufferException dstの残りが足りない場合(src, dstとも変更されない)
+     */
+    public int encrypt(final ByteBuffer src, final ByteBuffer dst,
+                       final SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException,
+            ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+
+        final String tag = TAG+".encrypt";
+
+        long start = System.nanoTime();
+        Cipher cipher = this.getCipher();
+        try {
+            byte[] iv = this.initEncrypt(cipher, key);
+            if (dst.remaining() < iv.length + cipher.getOutputSize(src.remaining()))
+                throw new ShortBufferException("Need "
+                        + (iv.length + cipher.getOutputSize(src.remaining()))
+                        + " bytes but " + dst.remaining() + " remaining.");
+
+            int length = src.remaining();
+            dst.put(iv);
+            int written = iv.length + cipher.doFinal(src, dst);
+            this.metrics(CryptoMetrics.Operation.ENCRYPT).record(length, System.nanoTime() - start);
+            return written;
+
+        } catch (InvalidKeyException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (ShortBufferException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (IllegalBlockSizeException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (BadPaddingException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } finally {
+            this.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * ByteBufferの内容を共通鍵で復号する
+     * <p>
+     * srcの先頭の{@link #getIvLength()}バイトはinitial vectorとして扱う。
+     * 必要なdstの大きさは{@link #getDecryptOutputSize(int)}で求められる。
+     * </p>
+     * @param src 復号するデータ(positionからlimitまで)
+     * @param dst 書き込み先
+     * @param key 共通鍵
+     * @return dstに書き込んだバイト数
+     * @throws ShortBufferException dstの残りが足りない場合(src, dstとも変更されない)
+     */
+    public int decrypt(final ByteBuffer src, final ByteBuffer dst,
+                       final SecretKey key)
+            throws InvalidKeyException, InvalidAlgorithmParameterException,
+            ShortBufferException, IllegalBlockSizeException, BadPaddingException {
+
+        final String tag = TAG+".decrypt";
+
+        long start = System.nanoTime();
+        Cipher cipher = this.getCipher();
+        try {
+            byte[] iv = new byte[this.ivLength];
+            if (src.remaining() < iv.length)
+                throw new IllegalBlockSizeException("Input is shorter than the initial vector.");
+            src.duplicate().get(iv);
+
+            cipher.init(Cipher.DECRYPT_MODE, key, this.parameterSpec(iv));
+            int outputSize = cipher.getOutputSize(src.remaining() - iv.length);
+            if (dst.remaining() < outputSize)
+                throw new ShortBufferException("Need " + outputSize
+                        + " bytes but " + dst.remaining() + " remaining.");
+
+            int length = src.remaining();
+            src.position(src.position() + iv.length);
+            int written = cipher.doFinal(src, dst);
+            this.metrics(CryptoMetrics.Operation.DECRYPT).record(length, System.nanoTime() - start);
+            return written;
+
+        } catch (InvalidKeyException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (InvalidAlgorithmParameterException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (ShortBufferException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (IllegalBlockSizeException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (BadPaddingException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } finally {
+            this.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * バイト列を認証付きで暗号化する
+     * <p>
+     * 暗号化と改竄検知用の認証タグの計算を1回の処理で行う(利用モードはGCM, POLY1305のみ)。
+     * 認証付き暗号の処理はAndroidではAPI 19以降でのみ使える。
+     * 出力はnonceに続いて暗号文と認証タグが配置される。
+     * aadは暗号化されないが、認証タグの計算対象に含まれる。
+     * </p>
+     * @param data 平文
+     * @param aad 追加認証データ(nullの場合は無し)
+     * @param key 共通鍵
+     * @return 暗号化されたバイト列
+     * @exception UnsupportedOperationException 認証付き暗号に対応していない場合
+     */
+    public byte[] encryptAuthenticated(final byte[] data, final byte[] aad,
+                                       final SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException,
+            IllegalBlockSizeException, BadPaddingException {
+
+        this.checkAuthenticated();
+        long start = System.nanoTime();
+        byte[] nonce = RandomSource.nextIv(this.getPRNGAlgorithm(), this.ivLength);
+        byte[] out = new byte[this.ivLength + data.length + this.getTagLength()];
+        System.arraycopy(nonce, 0, out, 0, nonce.length);
+        try {
+            this.seal(key, nonce, aad, data, 0, data.length, out, nonce.length);
+            this.metrics(CryptoMetrics.Operation.ENCRYPT).record(data.length, System.nanoTime() - start);
+            return out;
+
+        } catch (InvalidKeyException exn) {
+            throw exn;
+        } catch (IllegalBlockSizeException exn) {
+            throw exn;
+        } catch (BadPaddingException exn) {
+            throw exn;
+        } catch (GeneralSecurityException exn) {
+            // should not occur.
+            throw new IllegalStateException(exn);
+        }
+    }
+
+    /**
+     * {@link #encryptAuthenticated(byte[], byte[], SecretKey)}で暗号化したバイト列を復号する
+     * @param data 暗号化されたバイト列
+     * @param aad 暗号化の際に指定した追加認証データ(nullの場合は無し)
+     * @param key 共通鍵
+     * @return 復号されたバイト列
+     * @throws AEADBadTagException 改竄が検知された場合
+     * @exception UnsupportedOperationException 認証付き暗号に対応していない場合
+     */
+    public byte[] decryptAuthenticated(final byte[] data, final byte[] aad,
+                                       final SecretKey key)
+            throws InvalidKeyException, InvalidAlgorithmParameterException,
+            IllegalBlockSizeException, BadPaddingException {
+
+        this.checkAuthenticated();
+        if (data.length < this.ivLength + this.getTagLength())
+            throw new AEADBadTagException("Input is too short.");
+
+        long start = System.nanoTime();
+        byte[] nonce = Arrays.copyOf(data, this.ivLength);
+        try {
+            byte[] plain = this.open(key, nonce, aad, data, this.ivLength,
+                    data.length - this.ivLength);
+            this.metrics(CryptoMetrics.Operation.DECRYPT).record(data.length, System.nanoTime() - start);
+            return plain;
+
+        } catch (InvalidKeyException exn) {
+            throw exn;
+        } catch (InvalidAlgorithmParameterException exn) {
+            throw exn;
+        } catch (IllegalBlockSizeException exn) {
+            throw exn;
+        } catch (BadPaddingException exn) {
+            throw exn;
+        } catch (GeneralSecurityException exn) {
+            // should not occur.
+            throw new IllegalStateException(exn);
+        }
+    }
+
+    /**
+     * 出力ストリームに書き込む内容を、チャンクごとに認証付きで暗号化する
+     * <p>
+     * 受信側は{@link #authenticatedInputStream(InputStream, SecretKey)}で、
+     * 全体を受け取る前に検証済みのチャンクから順に読み出せる。
+     * 返されたストリームは必ずcloseすること(最終チャンクはclose時に書き込まれる)。
+     * </p>
+     * @param os 暗号化したデータの書き込み先
+     * @param key 共通鍵
+     * @return 平文を書き込む出力ストリーム
+     * @throws IOException ヘッダの書き込みに失敗した場合
+     * @exception UnsupportedOperationException 認証付き暗号に対応していない場合
+     */
+    public OutputStream authenticatedOutputStream(final OutputStream os,
+                                                  final SecretKey key)
+            throws NoSuchAlgorithmException, IOException {
+
+        this.checkAuthenticated();
+        return new AuthenticatedOutputStream(this, os, key,
+                AuthenticatedOutputStream.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * {@link #authenticatedOutputStream(OutputStream, SecretKey)}で暗号化したデータを
+     * チャンクごとに検証しながら復号する
+     * <p>
+     * 改竄や途中での切断が検知された場合、readはIOExceptionを投げる。
+     * </p>
+     * @param is 暗号化されたデータ
+     * @param key 共通鍵
+     * @return 復号されたデータを読み出す入力ストリーム
+     * @exception UnsupportedOperationException 認証付き暗号に対応していない場合
+     */
+    public InputStream authenticatedInputStream(final InputStream is,
+                                                final SecretKey key) {
+        this.checkAuthenticated();
+        return new AuthenticatedInputStream(this, is, key);
+    }
+
+    /**
+     * 指定したnonceで認証付き暗号化を行い、暗号文と認証タグをoutに書き込む
+     * @return 書き込んだバイト数
+     */
+    int seal(final SecretKey key, final byte[] nonce, final byte[] aad,
+             final byte[] in, final int offset, final int length,
+             final byte[] out, final int outOffset)
+            throws GeneralSecurityException {
+
+        Cipher cipher = this.getCipher();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, this.parameterSpec(nonce));
+            if (aad != null)
+                cipher.updateAAD(aad);
+            return cipher.doFinal(in, offset, length, out, outOffset);
+
+        } catch (GeneralSecurityException exn) {
+            Log.w(TAG+".seal", exn.getMessage());
+            throw exn;
+
+        } finally {
+            this.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * 指定したnonceで認証付き暗号文を検証・復号する
+     * @return 平文
+     * @throws AEADBadTagException 改竄が検知された場合
+     */
+    byte[] open(final SecretKey key, final byte[] nonce, final byte[] aad,
+                final byte[] in, final int offset, final int length)
+            throws GeneralSecurityException {
+
+        Cipher cipher = this.getCipher();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, this.parameterSpec(nonce));
+            if (aad != null)
+                cipher.updateAAD(aad);
+            return cipher.doFinal(in, offset, length);
+
+        } catch (GeneralSecurityException exn) {
+            Log.w(TAG+".open", exn.getMessage());
+            throw exn;
+
+        } finally {
+            this.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * 指定したnonceで認証付き暗号文を検証・復号し、平文をoutに書き込む
+     * @return 書き込んだバイト数
+     * @throws AEADBadTagException 改竄が検知された場合
+     */
+    int open(final SecretKey key, final byte[] nonce, final byte[] aad,
+             final byte[] in, final int offset, final int length,
+             final byte[] out, final int outOffset)
+            throws GeneralSecurityException {
+
+        Cipher cipher = this.getCipher();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, this.parameterSpec(nonce));
+            if (aad != null)
+                cipher.updateAAD(aad);
+            return cipher.doFinal(in, offset, length, out, outOffset);
+
+        } catch (GeneralSecurityException exn) {
+            Log.w(TAG+".open", exn.getMessage());
+            throw exn;
+
+        } finally {
+            this.releaseCipher(cipher);
+        }
+    }
+
+    private void checkAuthenticated() {
+        if (this.getTagLength() == 0)
+            throw new UnsupportedOperationException(
+                    "Authenticated encryption is not supported: " + this.transformation);
+    }
+
+    /**
+     * 暗号化した結果の最大バイト数を返す
+     * @param inputLength 暗号化するデータのバイト数
+     * @return initial vectorを含めた暗号化後の最大バイト数
+     */
+    public int getEncryptOutputSize(final int inputLength) {
+        return this.ivLength + this.paddedLength(inputLength) + this.getTagLength();
+    }
+
+    /**
+     * 復号した結果の最大バイト数を返す
+     * @param inputLength initial vectorを含めた暗号化済みデータのバイト数
+     * @return 復号後の最大バイト数
+     */
+    public int getDecryptOutputSize(final int inputLength) {
+        return Math.max(0, inputLength - this.ivLength - this.getTagLength());
+    }
+
+    private int paddedLength(final int inputLength) {
+        if (this.getPadding() == Padding.None || this.blockSize == 0)
+            return inputLength;
+        return (inputLength / this.blockSize + 1) * this.blockSize;
+    }
+
+    /**
+     * Cipherを暗号化用に初期化し、暗号文の先頭に置くinitial vectorを返す
+     * @param cipher
+     * @param key
+     * @return initial vector
+     */
+    private byte[] initEncrypt(final Cipher cipher, final SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+
+        cipher.init(Cipher.ENCRYPT_MODE, key,
+                RandomSource.get(this.getPRNGAlgorithm()));
+
+        byte[] iv = cipher.getIV();
+        if (iv == null)
+            iv = RandomSource.nextIv(this.getPRNGAlgorithm(), this.ivLength);
+        return iv;
+    }
+
+    /**
+     * 出力ストリームに書き込む内容を共通鍵で暗号化する
+     * <p>
+     * {@link #encrypt(InputStream, SecretKey)}と同じく、initial vectorに続いて
+     * 暗号化されたコンテンツが書き込まれる。返されたストリームは必ずcloseすること。
+     * </p>
+     * @param os 暗号化したデータの書き込み先
+     * @param key 共通鍵
+     * @return 平文を書き込む出力ストリーム
+     * @throws IOException initial vectorの書き込みに失敗した場合
+     */
+    public OutputStream encryptingOutputStream(final OutputStream os,
+                                               final SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException, IOException {
+
+        final String tag = TAG+".encryptingOutputStream";
+
+        Cipher cipher = this.getCipher();
+        try {
+            os.write(this.initEncrypt(cipher, key));
+            return new PooledCipherOutputStream(os, cipher);
+
+        } catch (InvalidKeyException exn) {
+            Log.w(tag, exn.getMessage());
+            this.releaseCipher(cipher);
+            throw exn;
+
+        } catch (NoSuchAlgorithmException exn) {
+            this.releaseCipher(cipher);
+            throw exn;
+
+        } catch (IOException exn) {
+            Log.w(tag, exn.getMessage());
+            this.releaseCipher(cipher);
+            throw exn;
+        }
+    }
+
+    /**
+     * 出力ストリームに書き込む暗号化済みデータを共通鍵で復号する
+     * <p>
+     * 書き込まれたデータの先頭の{@link #getIvLength()}バイトはinitial vectorとして扱い、
+     * それ以降を復号してosに書き込む。返されたストリームは必ずcloseすること。
+     * 鍵が不正な場合は、initial vectorを受け取った時点でIOExceptionとなる。
+     * </p>
+     * @param os 復号したデータの書き込み先
+     * @param key 共通鍵
+     * @return 暗号化済みデータを書き込む出力ストリーム
+     */
+    public OutputStream decryptingOutputStream(final OutputStream os,
+                                               final SecretKey key) {
+        return new DecryptingOutputStream(os, key);
+    }
+
+    /**
+     * ファイルを共通鍵で暗号化する
+     * <p>
+     * FileChannelとダイレクトバッファを使って一定サイズずつ処理するため、
+     * ファイルの大きさに関わらず使用メモリは一定。
+     * 出力は{@link #encrypt(InputStream, SecretKey)}と同じ形式。
+     * </p>
+     * <p>
+     * 認証付き暗号(GCM・POLY1305)では{@link #decryptFile(File, File, SecretKey)}が
+     * ファイル全体をメモリに保持するため、大きなファイルには
+     * {@link #authenticatedOutputStream(OutputStream, SecretKey)}を使うこと。
+     * </p>
+     * @param src 暗号化するファイル
+     * @param dst 書き込み先のファイル
+     * @param key 共通鍵
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public void encryptFile(final File src, final File dst, final SecretKey key)
+            throws InvalidKeyException, NoSuchAlgorithmException,
+            IllegalBlockSizeException, BadPaddingException, IOException {
+
+        final String tag = TAG+".encryptFile";
+
+        Cipher cipher = this.getCipher();
+        FileInputStream fis = null;
+        FileOutputStream fos = null;
+        try {
+            fis = new FileInputStream(src);
+            fos = new FileOutputStream(dst);
+            FileChannel out = fos.getChannel();
+
+            long start = System.nanoTime();
+            writeFully(out, ByteBuffer.wrap(this.initEncrypt(cipher, key)));
+            FileChannel in = fis.getChannel();
+            transfer(cipher, in, out);
+            this.metrics(CryptoMetrics.Operation.ENCRYPT).record(in.size(), System.nanoTime() - start);
+
+        } catch (InvalidKeyException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (IllegalBlockSizeException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (BadPaddingException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (IOException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } finally {
+            SecurityUtils.closeSilently(fis);
+            SecurityUtils.closeSilently(fos);
+            this.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * {@link #encryptFile(File, File, SecretKey)}で暗号化したファイルを共通鍵で復号する
+     * <p>
+     * 認証付き暗号(GCM・POLY1305)では認証タグを確かめるまで復号結果が出力されないため、
+     * ファイル全体を復号した大きさのバッファを使う。
+     * 大きなファイルは{@link #authenticatedInputStream(InputStream, SecretKey)}で
+     * チャンクごとに検証しながら復号すること。
+     * </p>
+     * @param src 復号するファイル
+     * @param dst 書き込み先のファイル
+     * @param key 共通鍵
+     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    public void decryptFile(final File src, final File dst, final SecretKey key)
+            throws InvalidKeyException, InvalidAlgorithmParameterException,
+            IllegalBlockSizeException, BadPaddingException, IOException {
+
+        final String tag = TAG+".decryptFile";
+
+        Cipher cipher = this.getCipher();
+        FileInputStream fis = null;
+        FileOutputStream fos = null;
+        try {
+            fis = new FileInputStream(src);
+            fos = new FileOutputStream(dst);
+            FileChannel in = fis.getChannel();
+
+            long start = System.nanoTime();
+            ByteBuffer iv = ByteBuffer.allocate(this.ivLength);
+            while (iv.hasRemaining())
+                if (in.read(iv) < 0)
+                    throw new EOFException("File is shorter than the initial vector.");
+
+            cipher.init(Cipher.DECRYPT_MODE, key, this.parameterSpec(iv.array()));
+            transfer(cipher, in, fos.getChannel());
+            this.metrics(CryptoMetrics.Operation.DECRYPT).record(in.size(), System.nanoTime() - start);
+
+        } catch (InvalidKeyException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (InvalidAlgorithmParameterException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (IllegalBlockSizeException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (BadPaddingException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } catch (IOException exn) {
+            Log.w(tag, exn.getMessage());
+            throw exn;
+
+        } finally {
+            SecurityUtils.closeSilently(fis);
+            SecurityUtils.closeSilently(fos);
+            this.releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * {@link #encryptFile(File, File, SecretKey)}で暗号化したファイルを、
+     * 任意の位置から復号して読み込むチャネルを開く
+     * <p>
+     * 利用モードがCTRの場合のみ使用できる。
+     * </p>
+     * @param file 暗号化されたファイル
+     * @param key 共通鍵
+     * @return 復号後のデータ上の位置で読み込めるチャネル
+     * @throws FileNotFoundException
+     * @throws IOException
+     * @exception UnsupportedOperationException 利用モードがCTRでない場合
+     */
+    public SeekableCipherChannel openSeekable(final File file, final SecretKey key)
+            throws IOException {
+
+        if (this.getCipherMode() != CipherMode.CTR)
+            throw new UnsupportedOperationException(
+                    "Random access requires CTR mode: " + this.transformation);
+
+        try {
+            return new SeekableCipherChannel(this, new FileInputStream(file).getChannel(), key);
+
+        } catch (FileNotFoundException exn) {
+            Log.w(TAG+".openSeekable", exn.getMessage());
+            throw exn;
+        }
+    }
+
+    /**
+     * 初期化済みのCipherでinの残りを全て処理し、outに書き込む
+     * <p>
+     * GCMなどの認証付き暗号の復号では認証タグを確かめるまで出力が保留されるため、
+     * 出力用のバッファは{@link Cipher#getOutputSize(int)}に合わせてその都度拡げる。
+     * </p>
+     */
+    private static void transfer(final Cipher cipher, final FileChannel in,
+                                 final FileChannel out)
+            throws IOException, IllegalBlockSizeException, BadPaddingException {
+
+        ByteBuffer inBuf = BufferPool.acquireDirect(FILE_BUFFER_SIZE);
+        inBuf.limit(FILE_BUFFER_SIZE);
+        // Cipher内部に持ち越される最大1ブロック分も見込んでおく
+        ByteBuffer outBuf = BufferPool.acquireDirect(
+                cipher.getOutputSize(FILE_BUFFER_SIZE + cipher.getBlockSize()));
+        try {
+            while (in.read(inBuf) >= 0) {
+                inBuf.flip();
+                outBuf = ensureCapacity(outBuf, cipher.getOutputSize(inBuf.remaining()));
+                cipher.update(inBuf, outBuf);
+                inBuf.clear().limit(FILE_BUFFER_SIZE);
+
+                outBuf.flip();
+                writeFully(out, outBuf);
+                outBuf.clear();
+            }
+            inBuf.flip();
+            outBuf = ensureCapacity(outBuf, cipher.getOutputSize(inBuf.remaining()));
+            cipher.doFinal(inBuf, outBuf);
+            outBuf.flip();
+            writeFully(out, outBuf);
+
+        } catch (ShortBufferException exn) {
+            // should not occur.
+            throw new IllegalStateException(exn);
+        } finally {
+            BufferPool.releaseDirect(inBuf);
+            BufferPool.releaseDirect(outBuf);
+        }
+    }
+
+    /**
+     * 空のbufがsizeバイト以上入らない場合は、倍以上の大きさのバッファに取り替える
+     */
+    private static ByteBuffer ensureCapacity(final ByteBuffer buf, final int size) {
+        if (buf.capacity() >= size)
+            return buf;
+        BufferPool.releaseDirect(buf);
+        return BufferPool.acquireDirect(Math.max(size, buf.capacity() * 2));
+    }
+
+    private static void writeFully(final FileChannel out, final ByteBuffer buf)
+            throws IOException {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+
+    /**
+     * 先頭のinitial vectorを受け取ってから復号を始める出力ストリーム
+     */
+    private class DecryptingOutputStream extends FilterOutputStream {
+        private final SecretKey key;
+        private final byte[] iv = new byte[SymmetricCipher.this.ivLength];
+        private int ivLength = 0;
+        private Cipher cipher;
+        private boolean closed = false;
+
+        DecryptingOutputStream(final OutputStream os, final SecretKey key) {
+            super(os);
+            this.key = key;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+                throws IOException {
+            if (this.cipher != null) {
+                this.out.write(b, off, len);
+                return;
+            }
+
+            int n = Math.min(len, this.iv.length - this.ivLength);
+            System.arraycopy(b, off, this.iv, this.ivLength, n);
+            this.ivLength += n;
+            if (this.ivLength < this.iv.length)
+                return;
+
+            this.start();
+            if (len > n)
+                this.out.write(b, off + n, len - n);
+        }
+
+        private void start() throws IOException {
+            Cipher c = SymmetricCipher.this.getCipher();
+            try {
+                c.init(Cipher.DECRYPT_MODE, this.key, SymmetricCipher.this.parameterSpec(this.iv));
+                this.out = new PooledCipherOutputStream(this.out, c);
+                this.cipher = c;
+
+            } catch (GeneralSecurityException exn) {
+                Log.w(TAG+".decryptingOutputStream", exn.getMessage());
+                SymmetricCipher.this.releaseCipher(c);
+                throw new IOException(exn);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed)
+                return;
+            this.closed = true;
+            super.close();
+            if (this.cipher == null && this.ivLength > 0)
+                throw new EOFException("Stream is shorter than the initial vector.");
+        }
+    }
+
+    /**
+     * ランダムなバイト列を生成する
+     * @param size
+     * @return バイト列
+     * @throws Exception
+     */
+    public byte[] generateByteArray(final int size)
+            throws NoSuchAlgorithmException {
+
+        byte[] ba = new byte[size];
+        try {
+            RandomSource.nextBytes(this.getPRNGAlgorithm(), ba);
+
+        } catch (NoSuchAlgorithmException exn) {
+            //Log.w(TAG+".generateByteArray", exn.getMessage());
+            throw exn;
+        }
+        return ba;
+    }
+
+    /**
+     * 入力ストリームを共通鍵で復号する
+     * 先頭の{@link #getIvLength()}バイトはinitial vectorとして扱う
+     * @param is 入力ストリーム
+     * @param key 共通鍵
+     * @return 復号された入力ストリーム
+     * @throws Exception
+     */
+    public InputStream decrypt(InputStream is, SecretKey key)
+            throws InvalidKeyException, InvalidAlgorithmParameterException,
+            IOException {
+
+        final String tag = TAG+".decrypt";
+
+        Cipher cipher = this.getCipher();
+        try {
+            byte[] iv = new byte[this.ivLength];
+            is.read(iv);
+
+            cipher.init(Cipher.DECRYPT_MODE, key, this.parameterSpec(iv));
+            return new PooledCipherInputStream(is, cipher);
+
+        } catch (InvalidKeyException exn) {
+            Log.w(tag, exn.getMessage());
+            this.releaseCipher(cipher);
+            throw exn;
+
+        } catch (InvalidAlgorithmParameterException exn) {
+            Log.w(tag, exn.getMessage());
+            this.releaseCipher(cipher);
+            throw exn;
+
+        } catch (IOException exn) {
+            Log.w(tag, exn.getMessage());
+            this.releaseCipher(cipher);
+            throw exn;
+        }
+    }
+
+
+    /**
+     * 共通鍵をランダムに生成する
+     * @return 共通鍵
+     * @throws Exception
+     */
+    public SecretKey generateKey() throws NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        if (this.algorithm == Algorithm.CHACHA20) {
+            // ChaCha20のKeyGeneratorを持たないプラットフォームがあるため、直接生成する
+            byte[] ba = this.generateByteArray(this.getKeySize() / 8);
+            try {
+                SecretKey key = new SecretKeySpec(ba, "ChaCha20");
+                this.metrics(CryptoMetrics.Operation.KEYGEN).record(ba.length, System.nanoTime() - start);
+                return key;
+            } finally {
+                SecurityUtils.zeroOut(ba);
+            }
+        }
+
+        try {
+            KeyGenerator gen = KeyGenerator.getInstance(this.algorithm.toString());
+            gen.init(this.getKeySize(), RandomSource.get(this.getPRNGAlgorithm()));
+
+            SecretKey key = gen.generateKey();
+            this.metrics(CryptoMetrics.Operation.KEYGEN).record(this.getKeySize() / 8, System.nanoTime() - start);
+            return key;
+
+        } catch (NoSuchAlgorithmException exn) {
+            //Log.w(TAG+".generateKey", exn.getMessage());
+            throw exn;
+        }
+    }
+
+}
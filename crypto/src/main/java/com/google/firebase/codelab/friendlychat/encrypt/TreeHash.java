@@ -0,0 +1,102 @@
+/**
+ * ツリー(Merkle)ハッシュの計算結果
+ * <p>
+ * 入力を固定長のチャンクに分割し、各チャンクのハッシュ値(リーフ)を
+ * 二分木で結合してルートのハッシュ値を得る。
+ * リーフは H(0x00 || チャンク)、内部ノードは H(0x01 || 左 || 右) で計算し、
+ * 対になる相手がいないノードはそのまま上の段へ持ち上げる。
+ * </p>
+ */
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import java.security.MessageDigest;
+import java.util.List;
+
+public class TreeHash {
+	static final byte LEAF_PREFIX = 0x00;
+	static final byte NODE_PREFIX = 0x01;
+
+	private final Hash.Algorithm algorithm;
+	private final int chunkSize;
+	private final byte[][] leaves;
+	private final byte[] root;
+
+	TreeHash(final Hash.Algorithm algorithm, final int chunkSize,
+					 final byte[][] leaves, final MessageDigest md) {
+		this.algorithm = algorithm;
+		this.chunkSize = chunkSize;
+		this.leaves = leaves;
+		this.root = combine(leaves, md);
+	}
+
+	TreeHash(final Hash.Algorithm algorithm, final int chunkSize,
+					 final List<byte[]> leaves, final MessageDigest md) {
+		this(algorithm, chunkSize, leaves.toArray(new byte[leaves.size()][]), md);
+	}
+
+	/**
+	 * @return ハッシュアルゴリズム
+	 */
+	public Hash.Algorithm getAlgorithm() {
+		return this.algorithm;
+	}
+
+	/**
+	 * @return チャンクのバイト数
+	 */
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * @return ルートのハッシュ値
+	 */
+	public byte[] getRoot() {
+		return this.root.clone();
+	}
+
+	/**
+	 * @return リーフの数(チャンク数)
+	 */
+	public int getLeafCount() {
+		return this.leaves.length;
+	}
+
+	/**
+	 * @param index チャンクの番号
+	 * @return 指定したチャンクのハッシュ値
+	 */
+	public byte[] getLeaf(final int index) {
+		return this.leaves[index].clone();
+	}
+
+	/**
+	 * @return 全てのリーフのハッシュ値(チャンク順)
+	 */
+	public byte[][] getLeaves() {
+		byte[][] copy = new byte[this.leaves.length][];
+		for (int i = 0; i < copy.length; i++)
+			copy[i] = this.leaves[i].clone();
+		return copy;
+	}
+
+	private static byte[] combine(final byte[][] leaves, final MessageDigest md) {
+		byte[][] level = leaves;
+		while (level.length > 1) {
+			byte[][] next = new byte[(level.length + 1) / 2][];
+			for (int i = 0; i < next.length; i++) {
+				int left = i * 2;
+				if (left + 1 < level.length) {
+					md.update(NODE_PREFIX);
+					md.update(level[left]);
+					md.update(level[left + 1]);
+					next[i] = md.digest();
+				} else {
+					next[i] = level[left];
+				}
+			}
+			level = next;
+		}
+		return level[0];
+	}
+}
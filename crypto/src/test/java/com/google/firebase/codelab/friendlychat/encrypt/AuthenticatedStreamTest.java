@@ -0,0 +1,146 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class AuthenticatedStreamTest {
+	private static final int CHUNK_SIZE = 1024;
+
+	private SymmetricCipher cipher;
+	private SecretKey key;
+
+	@Before
+	public void setUp() throws Exception {
+		this.cipher = new SymmetricCipher(SymmetricCipher.Algorithm.CHACHA20, CipherMode.POLY1305,
+																			Padding.None, 256);
+		this.key = this.cipher.generateKey();
+	}
+
+	private static byte[] data(final int length) {
+		byte[] ba = new byte[length];
+		new Random(length).nextBytes(ba);
+		return ba;
+	}
+
+	private byte[] seal(final SymmetricCipher cipher, final byte[] plain) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new AuthenticatedOutputStream(cipher, bos, this.key, CHUNK_SIZE);
+		// チャンク境界をまたぐよう、半端な大きさで書き込む
+		for (int off = 0; off < plain.length; off += 333)
+			os.write(plain, off, Math.min(333, plain.length - off));
+		os.close();
+		return bos.toByteArray();
+	}
+
+	private byte[] open(final SymmetricCipher cipher, final byte[] sealed) throws Exception {
+		InputStream is = cipher.authenticatedInputStream(new ByteArrayInputStream(sealed), this.key);
+		try {
+			return SecurityUtils.streamToByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * @return 各チャンクの先頭の位置
+	 */
+	private int[] chunkOffsets(final byte[] sealed) {
+		int[] offsets = new int[sealed.length];
+		int count = 0;
+		int pos = this.cipher.getIvLength() - AuthenticatedOutputStream.NONCE_SUFFIX_LENGTH + 4;
+		while (pos < sealed.length) {
+			offsets[count++] = pos;
+			int length = ((sealed[pos] & 0xff) << 24 | (sealed[pos + 1] & 0xff) << 16
+										| (sealed[pos + 2] & 0xff) << 8 | (sealed[pos + 3] & 0xff))
+				& ~AuthenticatedOutputStream.LAST_CHUNK_FLAG;
+			pos += 4 + length;
+		}
+		return Arrays.copyOf(offsets, count);
+	}
+
+	private void assertRejected(final byte[] sealed) throws Exception {
+		try {
+			this.open(this.cipher, sealed);
+			fail("Corrupted stream was accepted.");
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		for (int length : new int[]{0, 1, CHUNK_SIZE, CHUNK_SIZE * 5 + 3}) {
+			byte[] plain = data(length);
+			assertArrayEquals("length " + length, plain, this.open(this.cipher, this.seal(this.cipher, plain)));
+		}
+	}
+
+	@Test
+	public void roundTripGcm() throws Exception {
+		SymmetricCipher gcm = new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.GCM,
+																							Padding.None, 128);
+		this.key = gcm.generateKey();
+		byte[] plain = data(CHUNK_SIZE * 3 + 1);
+		assertArrayEquals(plain, this.open(gcm, this.seal(gcm, plain)));
+	}
+
+	@Test
+	public void tamperedChunkIsRejected() throws Exception {
+		byte[] sealed = this.seal(this.cipher, data(CHUNK_SIZE * 3));
+		sealed[this.chunkOffsets(sealed)[1] + 10] ^= 1;
+		this.assertRejected(sealed);
+	}
+
+	@Test
+	public void truncationIsRejected() throws Exception {
+		byte[] sealed = this.seal(this.cipher, data(CHUNK_SIZE * 3));
+		int[] offsets = this.chunkOffsets(sealed);
+		this.assertRejected(Arrays.copyOf(sealed, offsets[offsets.length - 1]));
+
+		// 途中のチャンクに最終フラグを付け替えても検知される
+		byte[] relabeled = Arrays.copyOf(sealed, offsets[2]);
+		relabeled[offsets[1]] |= (byte)0x80;
+		this.assertRejected(relabeled);
+	}
+
+	@Test
+	public void reorderedChunksAreRejected() throws Exception {
+		byte[] sealed = this.seal(this.cipher, data(CHUNK_SIZE * 3));
+		int[] offsets = this.chunkOffsets(sealed);
+		byte[] swapped = sealed.clone();
+		int length = offsets[1] - offsets[0];
+		System.arraycopy(sealed, offsets[1], swapped, offsets[0], length);
+		System.arraycopy(sealed, offsets[0], swapped, offsets[1], length);
+		this.assertRejected(swapped);
+	}
+
+	@Test
+	public void hugeChunkSizeIsRejected() throws Exception {
+		byte[] sealed = this.seal(this.cipher, data(CHUNK_SIZE));
+		// 認証前に巨大なバッファを確保しないよう、ヘッダを読んだ時点で拒否される
+		int pos = this.cipher.getIvLength() - AuthenticatedOutputStream.NONCE_SUFFIX_LENGTH;
+		for (int chunkSize : new int[]{Integer.MAX_VALUE, AuthenticatedOutputStream.MAX_CHUNK_SIZE + 1}) {
+			sealed[pos] = (byte)(chunkSize >>> 24);
+			sealed[pos + 1] = (byte)(chunkSize >>> 16);
+			sealed[pos + 2] = (byte)(chunkSize >>> 8);
+			sealed[pos + 3] = (byte)chunkSize;
+			try {
+				this.open(this.cipher, sealed);
+				fail("Huge chunk size was accepted.");
+			} catch (IOException expected) {
+				assertEquals("Invalid chunk size: " + chunkSize, expected.getMessage());
+			}
+		}
+	}
+}
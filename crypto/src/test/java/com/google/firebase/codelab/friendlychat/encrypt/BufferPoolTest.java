@@ -0,0 +1,64 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+	@Before
+	public void setUp() {
+		BufferPool.setLeakDetection(false);
+		BufferPool.clear();
+	}
+
+	@Test
+	public void releasedBufferIsReused() {
+		byte[] buf = BufferPool.acquire(1000);
+		BufferPool.release(buf);
+		assertSame(buf, BufferPool.acquire(1000));
+	}
+
+	@Test
+	public void doubleReleaseIsIgnoredWithoutLeakDetection() {
+		byte[] buf = BufferPool.acquire(1000);
+		BufferPool.release(buf);
+		BufferPool.release(buf);
+		assertNotSame(BufferPool.acquire(1000), BufferPool.acquire(1000));
+	}
+
+	@Test
+	public void doubleReleaseToSharedPoolIsIgnored() {
+		// スレッドごとの保持分を埋めておき、共有プールに返却されるようにする
+		byte[] held = BufferPool.acquire(1000);
+		byte[] buf = BufferPool.acquire(1000);
+		BufferPool.release(held);
+		BufferPool.release(buf);
+		BufferPool.release(buf);
+
+		byte[] a = BufferPool.acquire(1000);
+		byte[] b = BufferPool.acquire(1000);
+		byte[] c = BufferPool.acquire(1000);
+		assertNotSame(a, b);
+		assertNotSame(b, c);
+		assertNotSame(a, c);
+	}
+
+	@Test
+	public void doubleReleaseOfDirectBufferIsIgnored() {
+		ByteBuffer buf = BufferPool.acquireDirect(1000);
+		BufferPool.releaseDirect(buf);
+		BufferPool.releaseDirect(buf);
+		assertNotSame(BufferPool.acquireDirect(1000), BufferPool.acquireDirect(1000));
+	}
+
+	@Test
+	public void releasedBufferIsZeroed() {
+		byte[] buf = BufferPool.acquire(1000);
+		buf[0] = 1;
+		BufferPool.release(buf);
+		assertEquals(0, BufferPool.acquire(1000)[0]);
+	}
+}
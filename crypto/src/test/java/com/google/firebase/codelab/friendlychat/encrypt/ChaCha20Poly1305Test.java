@@ -0,0 +1,93 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * RFC 8439 2.8.2のテストベクタで{@link ChaCha20Poly1305Spi}を確かめる
+ */
+public class ChaCha20Poly1305Test {
+	private static final byte[] KEY = Hex.decode(
+		"808182838485868788898a8b8c8d8e8f909192939495969798999a9b9c9d9e9f");
+
+	private static final byte[] NONCE = Hex.decode("070000004041424344454647");
+
+	private static final byte[] AAD = Hex.decode("50515253c0c1c2c3c4c5c6c7");
+
+	private static final String PLAINTEXT =
+		"Ladies and Gentlemen of the class of '99: If I could offer you only one tip for "
+		+ "the future, sunscreen would be it.";
+
+	private static final byte[] CIPHERTEXT = Hex.decode(
+		"d31a8d34648e60db7b86afbc53ef7ec2a4aded51296e08fea9e2b5a736ee62d6"
+		+ "3dbea45e8ca9671282fafb69da92728b1a71de0a9e060b2905d6a5b67ecd3b36"
+		+ "92ddbd7f2d778b8c9803aee328091b58fab324e4fad675945585808b4831d7bc"
+		+ "3ff4def08e4b7a9de576d26586cec64b6116");
+
+	private static final byte[] TAG = Hex.decode("1ae10b594f09e26a7e902ecbd0600691");
+
+	private Cipher cipher;
+
+	@Before
+	public void setUp() throws Exception {
+		CryptoProvider.install();
+		this.cipher = Cipher.getInstance(CryptoProvider.CHACHA20_POLY1305, CryptoProvider.NAME);
+	}
+
+	private static byte[] sealed() {
+		byte[] sealed = new byte[CIPHERTEXT.length + TAG.length];
+		System.arraycopy(CIPHERTEXT, 0, sealed, 0, CIPHERTEXT.length);
+		System.arraycopy(TAG, 0, sealed, CIPHERTEXT.length, TAG.length);
+		return sealed;
+	}
+
+	private void init(final int opmode) throws Exception {
+		this.cipher.init(opmode, new SecretKeySpec(KEY, "ChaCha20"), new IvParameterSpec(NONCE));
+		this.cipher.updateAAD(AAD);
+	}
+
+	@Test
+	public void encryptMatchesRfc8439() throws Exception {
+		this.init(Cipher.ENCRYPT_MODE);
+		assertArrayEquals(sealed(), this.cipher.doFinal(PLAINTEXT.getBytes("US-ASCII")));
+	}
+
+	@Test
+	public void decryptMatchesRfc8439() throws Exception {
+		this.init(Cipher.DECRYPT_MODE);
+		assertEquals(PLAINTEXT, new String(this.cipher.doFinal(sealed()), "US-ASCII"));
+	}
+
+	@Test(expected = AEADBadTagException.class)
+	public void tamperedTagIsRejected() throws Exception {
+		byte[] sealed = sealed();
+		sealed[sealed.length - 1] ^= 1;
+		this.init(Cipher.DECRYPT_MODE);
+		this.cipher.doFinal(sealed);
+	}
+
+	@Test(expected = AEADBadTagException.class)
+	public void tamperedCiphertextIsRejected() throws Exception {
+		byte[] sealed = sealed();
+		sealed[0] ^= 1;
+		this.init(Cipher.DECRYPT_MODE);
+		this.cipher.doFinal(sealed);
+	}
+
+	@Test(expected = AEADBadTagException.class)
+	public void tamperedAadIsRejected() throws Exception {
+		this.cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(KEY, "ChaCha20"),
+										 new IvParameterSpec(NONCE));
+		byte[] aad = AAD.clone();
+		aad[0] ^= 1;
+		this.cipher.updateAAD(aad);
+		this.cipher.doFinal(sealed());
+	}
+}
@@ -0,0 +1,173 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CryptoMetricsTest {
+	/**
+	 * 他のテストで行われる暗号処理の記録と混ざらないアルゴリズム名
+	 */
+	private static final String ALGORITHM = "CryptoMetricsTest";
+
+	@Before
+	public void setUp() {
+		CryptoMetrics.setEnabled(true);
+		CryptoMetrics.reset();
+	}
+
+	private static CryptoMetrics.Entry entry(final String mode) {
+		return CryptoMetrics.snapshot().get(ALGORITHM, mode, CryptoMetrics.Operation.ENCRYPT);
+	}
+
+	private static CryptoMetrics.Recorder recorder(final String mode) {
+		return CryptoMetrics.recorder(ALGORITHM, mode, CryptoMetrics.Operation.ENCRYPT);
+	}
+
+	@Test
+	public void histogramBucketsArePowersOfTwo() {
+		CryptoMetrics.Recorder r = recorder("bucket");
+		long[] nanos = { 0, 1, 2, 3, 4, 1023, 1024, Long.MAX_VALUE };
+		for (long n : nanos)
+			r.record(1, n);
+
+		long[] histogram = entry("bucket").getHistogram();
+		assertEquals(CryptoMetrics.HISTOGRAM_BUCKETS, histogram.length);
+		assertEquals(2, histogram[0]);
+		assertEquals(2, histogram[1]);
+		assertEquals(1, histogram[2]);
+		assertEquals(1, histogram[9]);
+		assertEquals(1, histogram[10]);
+		assertEquals(1, histogram[62]);
+	}
+
+	@Test
+	public void totalsAreSummed() {
+		CryptoMetrics.Recorder r = recorder("total");
+		r.record(100, 1000);
+		r.record(300, 3000);
+
+		CryptoMetrics.Entry e = entry("total");
+		assertEquals(ALGORITHM, e.getAlgorithm());
+		assertEquals("total", e.getMode());
+		assertEquals(CryptoMetrics.Operation.ENCRYPT, e.getOperation());
+		assertEquals(2, e.getCount());
+		assertEquals(400, e.getBytes());
+		assertEquals(4000, e.getTotalNanos());
+		assertEquals(2000, e.getMeanNanos());
+		assertEquals(100000000L, (long)e.getBytesPerSecond());
+	}
+
+	@Test
+	public void percentileIsUpperBoundOfBucket() {
+		CryptoMetrics.Recorder r = recorder("percentile");
+		// 90回は区間10(1024～2047ns)、10回は区間20(約1ms)
+		for (int i = 0; i < 90; i++)
+			r.record(1, 1500);
+		for (int i = 0; i < 10; i++)
+			r.record(1, 1500000);
+
+		CryptoMetrics.Entry e = entry("percentile");
+		assertEquals(2047, e.getPercentileNanos(50));
+		assertEquals(2047, e.getPercentileNanos(90));
+		assertEquals((1L << 21) - 1, e.getPercentileNanos(91));
+		assertEquals((1L << 21) - 1, e.getPercentileNanos(100));
+	}
+
+	@Test
+	public void percentileOfTopBucketIsUnbounded() {
+		recorder("top").record(1, Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, entry("top").getPercentileNanos(100));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void percentileMustBePositive() {
+		recorder("invalid").record(1, 1);
+		entry("invalid").getPercentileNanos(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void percentileMustNotExceedHundred() {
+		recorder("invalid").record(1, 1);
+		entry("invalid").getPercentileNanos(100.5);
+	}
+
+	@Test
+	public void batchRecordsMeanDuration() {
+		recorder("batch").recordBatch(4, 400, 4096);
+
+		CryptoMetrics.Entry e = entry("batch");
+		assertEquals(4, e.getCount());
+		assertEquals(400, e.getBytes());
+		assertEquals(4, e.getHistogram()[10]);
+	}
+
+	@Test
+	public void emptyBatchIsIgnored() {
+		recorder("empty").recordBatch(0, 0, 100);
+		assertNull(entry("empty"));
+	}
+
+	@Test
+	public void resetClearsEntries() {
+		CryptoMetrics.Recorder r = recorder("reset");
+		r.record(10, 100);
+		assertNotNull(entry("reset"));
+
+		CryptoMetrics.reset();
+		assertNull(entry("reset"));
+
+		r.record(20, 200);
+		CryptoMetrics.Entry e = entry("reset");
+		assertEquals(1, e.getCount());
+		assertEquals(20, e.getBytes());
+	}
+
+	@Test
+	public void disabledMetricsAreNotRecorded() {
+		CryptoMetrics.setEnabled(false);
+		try {
+			recorder("disabled").record(10, 100);
+			recorder("disabled").recordBatch(2, 10, 100);
+		} finally {
+			CryptoMetrics.setEnabled(true);
+		}
+		assertNull(entry("disabled"));
+	}
+
+	@Test
+	public void recorderIsShared() {
+		assertSame(recorder("shared"), recorder("shared"));
+		assertNotSame(recorder("shared"),
+									CryptoMetrics.recorder(ALGORITHM, "shared", CryptoMetrics.Operation.DECRYPT));
+	}
+
+	@Test
+	public void concurrentRecordsAreNotLost() throws Exception {
+		final CryptoMetrics.Recorder r = recorder("concurrent");
+		final int perThread = 10000;
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 8; i++) {
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					for (int j = 0; j < perThread; j++)
+						r.record(3, 100);
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads)
+			t.join();
+
+		CryptoMetrics.Entry e = entry("concurrent");
+		assertEquals(8 * perThread, e.getCount());
+		assertEquals(8 * perThread * 3, e.getBytes());
+		assertEquals(8 * perThread, e.getHistogram()[6]);
+	}
+}
@@ -0,0 +1,118 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HexTest {
+	@Test
+	public void matchesLegacyEncoding() {
+		for (int length : new int[] { 0, 1, 2, 15, 16, 33, 256 }) {
+			byte[] ba = data(length);
+			assertEquals(legacyToString(ba), Hex.toString(ba));
+			assertEquals(legacyToString(ba), SecurityUtils.byteArrayToString(ba));
+		}
+	}
+
+	@Test
+	public void allByteValuesRoundTrip() {
+		byte[] ba = new byte[256];
+		for (int i = 0; i < ba.length; i++)
+			ba[i] = (byte)i;
+		String hex = Hex.toString(ba);
+		assertEquals(legacyToString(ba), hex);
+		assertArrayEquals(ba, Hex.decode(hex));
+		assertArrayEquals(legacyToByteArray(hex), SecurityUtils.stringToByteArray(hex));
+	}
+
+	@Test
+	public void outputIsLowerCase() {
+		String hex = Hex.toString(new byte[] { (byte)0xab, (byte)0xcd, (byte)0xef, 0x09 });
+		assertEquals("abcdef09", hex);
+	}
+
+	@Test
+	public void decodeAcceptsUpperCase() {
+		assertArrayEquals(new byte[] { (byte)0xab, (byte)0xcd, (byte)0xef, 0x09 },
+											Hex.decode("ABcdEF09"));
+	}
+
+	@Test
+	public void encodeIntoBuffers() {
+		byte[] ba = data(20);
+		String expected = legacyToString(ba).substring(6, 30);
+
+		char[] ca = new char[26];
+		assertEquals(25, Hex.encode(ba, 3, 12, ca, 1));
+		assertEquals(expected, new String(ca, 1, 24));
+
+		byte[] bytes = new byte[24];
+		assertEquals(24, Hex.encode(ba, 3, 12, bytes, 0));
+		for (int i = 0; i < bytes.length; i++)
+			assertEquals(expected.charAt(i), (char)bytes[i]);
+	}
+
+	@Test
+	public void toStringsSplitsConcatenatedValues() {
+		byte[] ba = data(64);
+		String hex = legacyToString(ba);
+		String[] strings = Hex.toStrings(ba, 32);
+		assertEquals(2, strings.length);
+		assertEquals(hex.substring(0, 64), strings[0]);
+		assertEquals(hex.substring(64), strings[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void toStringsRejectsPartialValue() {
+		Hex.toStrings(data(33), 32);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void oddLengthIsRejected() {
+		Hex.decode("abc");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidCharacterIsRejected() {
+		Hex.decode("0g");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nonAsciiCharacterIsRejected() {
+		Hex.decode("0\u0661");
+	}
+
+	/**
+	 * 以前のSecurityUtils.byteArrayToStringと同じ変換
+	 */
+	private static String legacyToString(byte[] ba) {
+		StringBuilder sb = new StringBuilder();
+		for (int b : ba) {
+			sb.append(Character.forDigit(b >> 4 & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 以前のSecurityUtils.stringToByteArrayと同じ変換
+	 */
+	private static byte[] legacyToByteArray(String byteString) {
+		int len = byteString.length();
+		byte[] bytes = new byte[len / 2];
+		for (int i = 0; i < len; i += 2) {
+			bytes[i / 2] =
+				(byte)((Character.digit(byteString.charAt(i), 16) << 4 |
+								Character.digit(byteString.charAt(i + 1), 16)) & 0xff);
+		}
+		return bytes;
+	}
+
+	private static byte[] data(int length) {
+		byte[] ba = new byte[length];
+		new Random(length).nextBytes(ba);
+		return ba;
+	}
+}
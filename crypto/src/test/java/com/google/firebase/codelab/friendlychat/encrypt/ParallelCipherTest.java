@@ -0,0 +1,113 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class ParallelCipherTest {
+	private static final int SEGMENT_SIZE = 1024;
+
+	private static byte[] data(final int length) {
+		byte[] ba = new byte[length];
+		new Random(length).nextBytes(ba);
+		return ba;
+	}
+
+	private static ParallelCipher parallel(final SymmetricCipher cipher) throws Exception {
+		ExecutorService executor = CryptoExecutors.computation();
+		return new ParallelCipher(cipher, SEGMENT_SIZE, executor, 2);
+	}
+
+	private static byte[] encrypt(final ParallelCipher pc, final byte[] plain,
+																final SecretKey key) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		pc.encrypt(new ByteArrayInputStream(plain), out, key);
+		return out.toByteArray();
+	}
+
+	private static byte[] decrypt(final ParallelCipher pc, final byte[] sealed,
+																final SecretKey key) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		pc.decrypt(new ByteArrayInputStream(sealed), out, key);
+		return out.toByteArray();
+	}
+
+	private static void assertRoundTrip(final SymmetricCipher cipher) throws Exception {
+		ParallelCipher pc = parallel(cipher);
+		SecretKey key = cipher.generateKey();
+		for (int length : new int[]{0, 1, SEGMENT_SIZE, SEGMENT_SIZE * 4 + 7}) {
+			byte[] plain = data(length);
+			assertArrayEquals("length " + length, plain, decrypt(pc, encrypt(pc, plain, key), key));
+		}
+	}
+
+	@Test
+	public void roundTripCbc() throws Exception {
+		assertRoundTrip(new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CBC,
+																				Padding.PKCS5, 128));
+	}
+
+	@Test
+	public void roundTripCtr() throws Exception {
+		assertRoundTrip(new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CTR,
+																				Padding.None, 128));
+	}
+
+	@Test
+	public void roundTripGcm() throws Exception {
+		assertRoundTrip(new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.GCM,
+												Padding.None, 128));
+	}
+
+	@Test
+	public void roundTripChaCha20Poly1305() throws Exception {
+		assertRoundTrip(new SymmetricCipher(SymmetricCipher.Algorithm.CHACHA20, CipherMode.POLY1305,
+																				Padding.None, 256));
+	}
+
+	@Test
+	public void truncationIsDetected() throws Exception {
+		SymmetricCipher cipher = new SymmetricCipher(SymmetricCipher.Algorithm.CHACHA20,
+																								 CipherMode.POLY1305, Padding.None, 256);
+		ParallelCipher pc = parallel(cipher);
+		SecretKey key = cipher.generateKey();
+		byte[] sealed = encrypt(pc, data(SEGMENT_SIZE * 4), key);
+
+		// 2つ目のセグメントの後で切り詰める
+		int headerLength = cipher.getIvLength() + 4;
+		int segmentLength = 4 + SEGMENT_SIZE + cipher.getTagLength();
+		int cut = headerLength + segmentLength * 2;
+		byte[] truncated = Arrays.copyOf(sealed, cut);
+		try {
+			decrypt(pc, truncated, key);
+			fail("Truncated input was accepted.");
+		} catch (IOException expected) {
+		}
+
+		// 2つ目のセグメントに最後の印を付け替える
+		byte[] relabeled = truncated.clone();
+		relabeled[headerLength + segmentLength] |= (byte)0x80;
+		try {
+			decrypt(pc, relabeled, key);
+			fail("Relabeled segment was accepted.");
+		} catch (IOException expected) {
+		}
+
+		// 旧形式の終端(0)を付け足す
+		byte[] terminated = Arrays.copyOf(truncated, cut + 4);
+		try {
+			decrypt(pc, terminated, key);
+			fail("Zero terminator was accepted.");
+		} catch (IOException expected) {
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class SecretKeyCacheTest {
+	private final String[] keyStrs = new String[3];
+
+	@Before
+	public void setUp() throws Exception {
+		SymmetricCipher cipher = new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CBC,
+																								 Padding.PKCS5, 128);
+		for (int i = 0; i < this.keyStrs.length; i++)
+			this.keyStrs[i] = SecurityUtils.secretKeyToString(cipher.generateKey());
+	}
+
+	@Test
+	public void evictedKeyStaysUsable() {
+		SecretKeyCache cache = new SecretKeyCache(1);
+		SecretKey key = cache.get(this.keyStrs[0]);
+		cache.get(this.keyStrs[1]);
+		assertEquals(1, cache.size());
+		assertNotNull(key.getEncoded());
+	}
+
+	@Test
+	public void expiredKeyStaysUsable() throws Exception {
+		SecretKeyCache cache = new SecretKeyCache(2, 10);
+		SecretKey key = cache.get(this.keyStrs[0]);
+		Thread.sleep(30);
+		assertNotSame(key, cache.get(this.keyStrs[0]));
+		assertNotNull(key.getEncoded());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void invalidatedKeyIsDestroyed() {
+		SecretKeyCache cache = new SecretKeyCache(2);
+		SecretKey key = cache.get(this.keyStrs[0]);
+		cache.invalidate(this.keyStrs[0]);
+		key.getEncoded();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void invalidateAllDestroysKeys() {
+		SecretKeyCache cache = new SecretKeyCache(2);
+		SecretKey key = cache.get(this.keyStrs[0]);
+		cache.invalidateAll();
+		assertEquals(0, cache.size());
+		key.getEncoded();
+	}
+
+	@Test
+	public void concurrentMissesShareOneKey() throws Exception {
+		final SecretKeyCache cache = new SecretKeyCache(2);
+		final SecretKey[] keys = new SecretKey[8];
+		Thread[] threads = new Thread[keys.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int n = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					keys[n] = cache.get(SecretKeyCacheTest.this.keyStrs[2]);
+				}
+			};
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+
+		for (SecretKey key : keys) {
+			assertSame(keys[0], key);
+			assertNotNull(key.getEncoded());
+		}
+	}
+}
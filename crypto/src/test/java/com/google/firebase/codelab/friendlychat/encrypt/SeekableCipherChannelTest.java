@@ -0,0 +1,197 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import static org.junit.Assert.*;
+
+public class SeekableCipherChannelTest {
+	/**
+	 * チャネルのバッファ(64KB)をまたぐサイズ
+	 */
+	private static final int FILE_SIZE = 200 * 1024 + 7;
+
+	private static byte[] data(final int length) {
+		byte[] ba = new byte[length];
+		new Random(length).nextBytes(ba);
+		return ba;
+	}
+
+	private static byte[] iv(final int fill) {
+		byte[] iv = new byte[16];
+		Arrays.fill(iv, 8, 16, (byte)fill);
+		return iv;
+	}
+
+	@Test
+	public void addCounterWithoutCarry() {
+		byte[] expected = iv(0);
+		expected[15] = 5;
+		assertArrayEquals(expected, SeekableCipherChannel.addCounter(iv(0), 5));
+	}
+
+	@Test
+	public void addCounterCarriesAcrossBytes() {
+		byte[] expected = new byte[16];
+		expected[7] = 1;
+		assertArrayEquals(expected, SeekableCipherChannel.addCounter(iv(0xff), 1));
+	}
+
+	@Test
+	public void addCounterWrapsAround() {
+		byte[] iv = new byte[16];
+		Arrays.fill(iv, (byte)0xff);
+		byte[] expected = new byte[16];
+		expected[15] = 1;
+		assertArrayEquals(expected, SeekableCipherChannel.addCounter(iv, 2));
+	}
+
+	@Test
+	public void addCounterMatchesBigInteger() {
+		Random random = new Random(0);
+		BigInteger modulus = BigInteger.ONE.shiftLeft(128);
+		for (int i = 0; i < 1000; i++) {
+			byte[] iv = new byte[16];
+			random.nextBytes(iv);
+			long block = random.nextLong() & Long.MAX_VALUE;
+
+			BigInteger sum = new BigInteger(1, iv).add(BigInteger.valueOf(block)).mod(modulus);
+			assertEquals(sum, new BigInteger(1, SeekableCipherChannel.addCounter(iv, block)));
+		}
+	}
+
+	@Test
+	public void addCounterDoesNotModifyIv() {
+		byte[] iv = iv(0xff);
+		SeekableCipherChannel.addCounter(iv, 12345);
+		assertArrayEquals(iv(0xff), iv);
+	}
+
+	@Test
+	public void readsAtArbitraryPositions() throws Exception {
+		SymmetricCipher cipher = new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CTR,
+																								 Padding.None, 128);
+		SecretKey key = cipher.generateKey();
+		byte[] data = data(FILE_SIZE);
+		File sealed = File.createTempFile("sealed", null);
+		try {
+			writeSealed(sealed, data, key, data(16));
+			assertReadsMatch(cipher, sealed, key, data);
+		} finally {
+			sealed.delete();
+		}
+	}
+
+	/**
+	 * 下位64ビットが全て1のinitial vectorでは、2ブロック目以降のカウンタ値で上位バイトへの桁上がりが起こる
+	 */
+	@Test
+	public void readsAcrossCounterCarry() throws Exception {
+		SymmetricCipher cipher = new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CTR,
+																								 Padding.None, 128);
+		SecretKey key = cipher.generateKey();
+		byte[] data = data(FILE_SIZE);
+		File sealed = File.createTempFile("sealed", null);
+		try {
+			writeSealed(sealed, data, key, iv(0xff));
+			assertReadsMatch(cipher, sealed, key, data);
+		} finally {
+			sealed.delete();
+		}
+	}
+
+	@Test
+	public void readsEncryptedFile() throws Exception {
+		SymmetricCipher cipher = new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CTR,
+																								 Padding.None, 128);
+		SecretKey key = cipher.generateKey();
+		byte[] data = data(FILE_SIZE);
+		File plain = File.createTempFile("plain", null);
+		File sealed = File.createTempFile("sealed", null);
+		try {
+			FileOutputStream fos = new FileOutputStream(plain);
+			try {
+				fos.write(data);
+			} finally {
+				fos.close();
+			}
+			cipher.encryptFile(plain, sealed, key);
+			assertReadsMatch(cipher, sealed, key, data);
+		} finally {
+			plain.delete();
+			sealed.delete();
+		}
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void requiresCtrMode() throws Exception {
+		SymmetricCipher cipher = new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CBC,
+																								 Padding.PKCS5, 128);
+		cipher.openSeekable(new File("unused"), cipher.generateKey());
+	}
+
+	/**
+	 * JCEのCTRモードで暗号化し、initial vectorに続けて暗号文を書き込む
+	 */
+	private static void writeSealed(final File file, final byte[] data, final SecretKey key,
+																	final byte[] iv) throws Exception {
+		Cipher c = Cipher.getInstance("AES/CTR/NoPadding");
+		c.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(iv);
+			fos.write(c.doFinal(data));
+		} finally {
+			fos.close();
+		}
+	}
+
+	private static void assertReadsMatch(final SymmetricCipher cipher, final File sealed,
+																			 final SecretKey key, final byte[] data)
+		throws IOException {
+
+		SeekableCipherChannel channel = cipher.openSeekable(sealed, key);
+		try {
+			assertEquals(data.length, channel.size());
+
+			int[][] ranges = {
+				{ 0, 16 }, { 1, 15 }, { 15, 2 }, { 16, 16 }, { 17, 100 },
+				{ 65535, 3 }, { 100000, 70000 }, { data.length - 5, 5 }, { 3, 1 },
+			};
+			for (int[] range : ranges) {
+				ByteBuffer dst = ByteBuffer.allocate(range[1]);
+				while (dst.hasRemaining())
+					assertTrue(channel.read(dst, range[0] + dst.position()) > 0);
+				assertArrayEquals(Arrays.copyOfRange(data, range[0], range[0] + range[1]),
+													dst.array());
+				assertEquals(range[0] + range[1], channel.position());
+			}
+
+			channel.position(data.length - 3);
+			ByteBuffer dst = ByteBuffer.allocate(10);
+			assertEquals(3, channel.read(dst));
+			assertEquals(-1, channel.read(dst));
+
+			channel.position(0);
+			ByteBuffer all = ByteBuffer.allocate(data.length);
+			while (channel.read(all) > 0)
+				;
+			assertArrayEquals(data, all.array());
+
+		} finally {
+			channel.close();
+		}
+		assertFalse(channel.isOpen());
+	}
+}
@@ -0,0 +1,80 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+public class SymmetricCipherTest {
+	/**
+	 * ファイル用のバッファ(256KB)より十分大きいサイズ
+	 */
+	private static final int LARGE_FILE_SIZE = 3 * 1024 * 1024 + 17;
+
+	private static byte[] data(final int length) {
+		byte[] ba = new byte[length];
+		new Random(length).nextBytes(ba);
+		return ba;
+	}
+
+	private static void write(final File file, final byte[] data) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+	}
+
+	private static byte[] read(final File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			return SecurityUtils.streamToByteArray(fis);
+		} finally {
+			fis.close();
+		}
+	}
+
+	private static void assertFileRoundTrip(final SymmetricCipher cipher) throws Exception {
+		File plain = File.createTempFile("plain", null);
+		File sealed = File.createTempFile("sealed", null);
+		File opened = File.createTempFile("opened", null);
+		try {
+			byte[] data = data(LARGE_FILE_SIZE);
+			write(plain, data);
+			SecretKey key = cipher.generateKey();
+			cipher.encryptFile(plain, sealed, key);
+			cipher.decryptFile(sealed, opened, key);
+			assertArrayEquals(data, read(opened));
+		} finally {
+			plain.delete();
+			sealed.delete();
+			opened.delete();
+		}
+	}
+
+	@Test
+	public void fileRoundTripCbc() throws Exception {
+		assertFileRoundTrip(new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.CBC,
+																						Padding.PKCS5, 128));
+	}
+
+	@Test
+	public void fileRoundTripGcm() throws Exception {
+		assertFileRoundTrip(new SymmetricCipher(SymmetricCipher.Algorithm.AES, CipherMode.GCM,
+																						Padding.None, 128));
+	}
+
+	@Test
+	public void fileRoundTripChaCha20Poly1305() throws Exception {
+		assertFileRoundTrip(new SymmetricCipher(SymmetricCipher.Algorithm.CHACHA20,
+																						CipherMode.POLY1305, Padding.None, 256));
+	}
+}
@@ -0,0 +1,214 @@
+package com.google.firebase.codelab.friendlychat.encrypt;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TreeHashTest {
+	private static final int CHUNK_SIZE = 1024;
+
+	private static byte[] data(final int length) {
+		byte[] ba = new byte[length];
+		new Random(length).nextBytes(ba);
+		return ba;
+	}
+
+	@Test
+	public void streamMatchesSequentialReference() throws Exception {
+		Hash hash = new Hash(Hash.Algorithm.SHA256);
+		// 同時に保持するチャンク数の上限(PARALLELISM * 2)を超える数のチャンク
+		int[] lengths = {
+			0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, CHUNK_SIZE * 3,
+			CHUNK_SIZE * (CryptoExecutors.PARALLELISM * 4 + 3) + 17,
+		};
+		for (int length : lengths) {
+			byte[] data = data(length);
+			TreeHash tree = hash.treeValueOf(new ByteArrayInputStream(data), CHUNK_SIZE);
+			assertArrayEquals(reference(data, CHUNK_SIZE), tree.getRoot());
+			assertEquals(Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE), tree.getLeafCount());
+		}
+	}
+
+	@Test
+	public void fileMatchesStream() throws Exception {
+		Hash hash = new Hash(Hash.Algorithm.SHA256);
+		byte[] data = data(CHUNK_SIZE * (CryptoExecutors.PARALLELISM * 4 + 3) + 17);
+		File file = File.createTempFile("tree", null);
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			try {
+				fos.write(data);
+			} finally {
+				fos.close();
+			}
+			TreeHash fromFile = hash.treeValueOf(file, CHUNK_SIZE);
+			TreeHash fromStream = hash.treeValueOf(new ByteArrayInputStream(data), CHUNK_SIZE);
+			assertArrayEquals(fromStream.getRoot(), fromFile.getRoot());
+			assertEquals(fromStream.getLeafCount(), fromFile.getLeafCount());
+			for (int i = 0; i < fromFile.getLeafCount(); i++)
+				assertArrayEquals(fromStream.getLeaf(i), fromFile.getLeaf(i));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * 読み込みの細切れ具合やタスクの完了順が変わっても、同じ結果になる
+	 */
+	@Test
+	public void resultDoesNotDependOnScheduling() throws Exception {
+		Hash hash = new Hash(Hash.Algorithm.SHA256);
+		byte[] data = data(CHUNK_SIZE * (CryptoExecutors.PARALLELISM * 4 + 3) + 17);
+		byte[] expected = reference(data, CHUNK_SIZE);
+		for (int i = 0; i < 20; i++) {
+			InputStream is = new TricklingInputStream(new ByteArrayInputStream(data), new Random(i));
+			assertArrayEquals(expected, hash.treeValueOf(is, CHUNK_SIZE).getRoot());
+		}
+	}
+
+	@Test
+	public void rootDependsOnChunkSize() throws Exception {
+		Hash hash = new Hash(Hash.Algorithm.SHA256);
+		byte[] data = data(CHUNK_SIZE * 4);
+		assertFalse(Arrays.equals(hash.treeValueOf(new ByteArrayInputStream(data), CHUNK_SIZE).getRoot(),
+															hash.treeValueOf(new ByteArrayInputStream(data), CHUNK_SIZE * 2).getRoot()));
+	}
+
+	@Test
+	public void singleChunkRootIsLeaf() throws Exception {
+		Hash hash = new Hash(Hash.Algorithm.SHA256);
+		TreeHash tree = hash.treeValueOf(new ByteArrayInputStream(data(100)), CHUNK_SIZE);
+		assertEquals(1, tree.getLeafCount());
+		assertArrayEquals(tree.getLeaf(0), tree.getRoot());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void chunkSizeMustBePositive() throws Exception {
+		new Hash(Hash.Algorithm.SHA256).treeValueOf(new ByteArrayInputStream(data(1)), 0);
+	}
+
+	/**
+	 * 読み込みに失敗した時点でまだ実行されていないタスクのチャンクも返却される
+	 */
+	@Test
+	public void chunksAreReleasedWhenReadFails() throws Exception {
+		Hash hash = new Hash(Hash.Algorithm.SHA256);
+		ExecutorService executor = CryptoExecutors.computation();
+		final CountDownLatch latch = new CountDownLatch(1);
+		List<Future<?>> blockers = new ArrayList<Future<?>>();
+		BufferPool.setLeakDetection(true);
+		try {
+			// 全てのスレッドを塞ぎ、投入したタスクが実行されないようにする
+			for (int i = 0; i < CryptoExecutors.PARALLELISM; i++)
+				blockers.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws InterruptedException {
+						latch.await();
+						return null;
+					}
+				}));
+
+			InputStream is = new FailingInputStream(data(CHUNK_SIZE * 2), CHUNK_SIZE * 2);
+			try {
+				hash.treeValueOf(is, CHUNK_SIZE);
+				fail();
+			} catch (IOException exn) {
+				// expected
+			}
+			assertEquals(0, BufferPool.getOutstandingCount());
+
+		} finally {
+			latch.countDown();
+			for (Future<?> blocker : blockers)
+				blocker.get();
+			BufferPool.setLeakDetection(false);
+		}
+	}
+
+	/**
+	 * 1スレッドで順に計算したルートのハッシュ値
+	 */
+	private static byte[] reference(final byte[] data, final int chunkSize) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		int count = Math.max(1, (data.length + chunkSize - 1) / chunkSize);
+		byte[][] level = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			md.update(TreeHash.LEAF_PREFIX);
+			md.update(data, i * chunkSize, Math.min(chunkSize, data.length - i * chunkSize));
+			level[i] = md.digest();
+		}
+		while (level.length > 1) {
+			byte[][] next = new byte[(level.length + 1) / 2][];
+			for (int i = 0; i < next.length; i++) {
+				if (i * 2 + 1 < level.length) {
+					md.update(TreeHash.NODE_PREFIX);
+					md.update(level[i * 2]);
+					md.update(level[i * 2 + 1]);
+					next[i] = md.digest();
+				} else {
+					next[i] = level[i * 2];
+				}
+			}
+			level = next;
+		}
+		return level[0];
+	}
+
+	/**
+	 * 指定したバイト数を読み込んだ後はIOExceptionを投げるストリーム
+	 */
+	private static final class FailingInputStream extends FilterInputStream {
+		private final int limit;
+		private int count = 0;
+
+		FailingInputStream(final byte[] data, final int limit) {
+			super(new ByteArrayInputStream(data));
+			this.limit = limit;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (this.count >= this.limit)
+				throw new IOException("Read failed.");
+			int n = super.read(b, off, Math.min(len, this.limit - this.count));
+			if (n > 0)
+				this.count += n;
+			return n;
+		}
+	}
+
+	/**
+	 * 要求より少ないバイト数を不規則に返し、ときどき待たされるストリーム
+	 */
+	private static final class TricklingInputStream extends FilterInputStream {
+		private final Random random;
+
+		TricklingInputStream(final InputStream in, final Random random) {
+			super(in);
+			this.random = random;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (this.random.nextInt(8) == 0)
+				Thread.yield();
+			return super.read(b, off, Math.min(len, 1 + this.random.nextInt(CHUNK_SIZE)));
+		}
+	}
+}